@@ -0,0 +1,57 @@
+package org.pa.jmeupdatesite.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pa.jmeupdatesite.ClassBytesUtil;
+
+/**
+ * Measures the extraction of the referenced class names of a single class.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassBytesUtilBenchmark {
+
+	@Param({ "ASM", "CONSTANT_POOL" })
+	public ClassBytesUtil.Engine engine;
+
+	@Param({ "8", "64" })
+	public int referencesPerClass;
+
+	private byte[][] classes;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		List<byte[]> list = new SyntheticJarPool(1)
+				.setClassesPerJar(256)
+				.setReferencesPerClass(referencesPerClass)
+				.createClasses(0, 100);
+		classes = list.toArray(new byte[list.size()][]);
+	}
+
+	@Benchmark
+	public Set<String> findClassNames() throws IOException {
+		byte[] bytes = classes[next++ & (classes.length - 1)];
+		return ClassBytesUtil.findClassNames(new ByteArrayInputStream(bytes),
+				engine);
+	}
+}
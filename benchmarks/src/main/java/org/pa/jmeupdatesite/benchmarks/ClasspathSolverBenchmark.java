@@ -0,0 +1,87 @@
+package org.pa.jmeupdatesite.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pa.jmeupdatesite.ClasspathSolver;
+import org.pa.jmeupdatesite.ClasspathSolver.Classpath;
+import org.pa.jmeupdatesite.JarFileDependencies;
+import org.pa.jmeupdatesite.JarFileDescription;
+import org.pa.jmeupdatesite.PoolAnalysis;
+
+/**
+ * Measures the class path of a jar-file of an analysed pool as computed for
+ * the classpath query, and the creation of the solver from the dependencies
+ * of the pool. The pool is analysed once per trial; the class paths are
+ * computed for every jar-file of the pool in turn.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClasspathSolverBenchmark {
+
+	@Param({ "100", "1500", "2000" })
+	public int jars;
+
+	private File directory;
+	private PoolAnalysis analysis;
+	private ClasspathSolver solver;
+	private JarFileDescription[] jarLibs;
+	private List<JarFileDependencies> dependencies;
+	private int next;
+
+	@Setup
+	public void setUp() throws IOException {
+		directory = File.createTempFile("solver-bench", "");
+		directory.delete();
+		analysis = new PoolAnalysis(new SyntheticJarPool(1).write(directory,
+				jars));
+		analysis.setThreads(Runtime.getRuntime().availableProcessors());
+		analysis.analyse();
+		solver = analysis.getClasspathSolver();
+		jarLibs = analysis.getPool().toArray(
+				new JarFileDescription[analysis.getPool().size()]);
+		dependencies = new ArrayList<JarFileDependencies>();
+		for (JarFileDescription jarLib : jarLibs) {
+			dependencies.add(analysis.getDependencies(jarLib));
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		analysis.close();
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Benchmark
+	public Classpath solve() {
+		JarFileDescription jarLib = jarLibs[next];
+		next = (next + 1) % jarLibs.length;
+		return solver.solve(jarLib);
+	}
+
+	@Benchmark
+	public ClasspathSolver create() {
+		return new ClasspathSolver(dependencies,
+				analysis.getPackageSymbols());
+	}
+}
@@ -0,0 +1,68 @@
+package org.pa.jmeupdatesite.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pa.jmeupdatesite.ClassBytesUtil;
+import org.pa.jmeupdatesite.JarFileDescription;
+
+/**
+ * Measures describing a single jar-file: opening, scanning all classes and
+ * computing the package dependencies.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JarFileDescriptionBenchmark {
+
+	@Param({ "ASM", "CONSTANT_POOL" })
+	public ClassBytesUtil.Engine engine;
+
+	@Param({ "100", "1000" })
+	public int classesPerJar;
+
+	private File directory;
+	private File jarFile;
+
+	@Setup
+	public void setUp() throws IOException {
+		directory = File.createTempFile("jfd-bench", "");
+		directory.delete();
+		jarFile = new SyntheticJarPool(1).setClassesPerJar(classesPerJar)
+				.setPackagesPerJar(10).write(directory, 1).get(0);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Benchmark
+	public Set<String> scan() throws IOException {
+		JarFileDescription jfd = new JarFileDescription(jarFile, engine);
+		try {
+			jfd.scan();
+			return jfd.getPackageDependencies();
+		} finally {
+			jfd.close();
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package org.pa.jmeupdatesite.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pa.jmeupdatesite.ClassBytesUtil;
+import org.pa.jmeupdatesite.PoolAnalysis;
+
+/**
+ * Measures the analysis of a whole pool as done by JarsDeps, without
+ * printing the report.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PoolAnalysisBenchmark {
+
+	@Param({ "10", "100", "1000" })
+	public int jars;
+
+	@Param({ "1" })
+	public int threads;
+
+	@Param({ "ASM" })
+	public ClassBytesUtil.Engine engine;
+
+	private File directory;
+	private List<File> jarFiles;
+
+	@Setup
+	public void setUp() throws IOException {
+		directory = File.createTempFile("pool-bench", "");
+		directory.delete();
+		jarFiles = new SyntheticJarPool(1).write(directory, jars);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Benchmark
+	public PoolAnalysis analyse() throws IOException {
+		PoolAnalysis analysis = new PoolAnalysis(jarFiles);
+		analysis.setThreads(threads);
+		analysis.setEngine(engine);
+		try {
+			analysis.analyse();
+		} finally {
+			analysis.close();
+		}
+		return analysis;
+	}
+}
@@ -0,0 +1,218 @@
+package org.pa.jmeupdatesite.benchmarks;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Generates reproducible pools of synthetic jar-files. Jar-file
+ * <code>j</code> provides the packages <code>synthetic.j&lt;j&gt;.p&lt;k&gt;</code>.
+ * A configurable share of these packages is split, i.e. it is named after a
+ * package of the previous jar-file, so both jar-files provide it. Each class
+ * references a number of random classes of random jar-files by field types,
+ * method descriptors and field instructions.
+ * <p>
+ * The same settings and seed always produce byte-identical jar-files.
+ */
+public class SyntheticJarPool {
+
+	private static final long ENTRY_TIME = 1356998400000L; // 2013-01-01
+
+	private final long seed;
+	private int classesPerJar = 50;
+	private int packagesPerJar = 5;
+	private int referencesPerClass = 8;
+	private double splitPackageRatio = 0.1;
+
+	/**
+	 * Creates a generator.
+	 *
+	 * @param seed
+	 *            the seed of the random references
+	 */
+	public SyntheticJarPool(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Sets the number of classes of each jar-file, 50 by default.
+	 */
+	public SyntheticJarPool setClassesPerJar(int classesPerJar) {
+		isTrue(classesPerJar > 0, "classesPerJar must be positive");
+		this.classesPerJar = classesPerJar;
+		return this;
+	}
+
+	/**
+	 * Sets the number of packages of each jar-file, 5 by default.
+	 */
+	public SyntheticJarPool setPackagesPerJar(int packagesPerJar) {
+		isTrue(packagesPerJar > 0, "packagesPerJar must be positive");
+		this.packagesPerJar = packagesPerJar;
+		return this;
+	}
+
+	/**
+	 * Sets the number of classes each class references, 8 by default. This is
+	 * the fan-out of the package dependencies.
+	 */
+	public SyntheticJarPool setReferencesPerClass(int referencesPerClass) {
+		isTrue(referencesPerClass >= 0, "referencesPerClass must not be negative");
+		this.referencesPerClass = referencesPerClass;
+		return this;
+	}
+
+	/**
+	 * Sets the share of packages which are also provided by the previous
+	 * jar-file, 0.1 by default.
+	 */
+	public SyntheticJarPool setSplitPackageRatio(double splitPackageRatio) {
+		isTrue(splitPackageRatio >= 0 && splitPackageRatio <= 1,
+				"splitPackageRatio must be between 0 and 1");
+		this.splitPackageRatio = splitPackageRatio;
+		return this;
+	}
+
+	/**
+	 * Writes a pool of jar-files into the directory.
+	 *
+	 * @param directory
+	 *            the target directory, created if needed
+	 * @param jars
+	 *            the number of jar-files
+	 * @return the written jar-files
+	 * @throws IOException
+	 *             if a jar-file cannot be written
+	 */
+	public List<File> write(File directory, int jars) throws IOException {
+		notNull(directory, "directory must not be null");
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("cannot create " + directory);
+		}
+		List<File> result = new ArrayList<File>();
+		for (int jar = 0; jar < jars; jar++) {
+			File file = new File(directory, String.format("synthetic-%05d.jar",
+					jar));
+			ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(
+					new FileOutputStream(file)));
+			try {
+				List<String> classNames = getClassNames(jar);
+				List<byte[]> classes = createClasses(jar, jars);
+				for (int i = 0; i < classes.size(); i++) {
+					ZipEntry entry = new ZipEntry(classNames.get(i) + ".class");
+					entry.setTime(ENTRY_TIME);
+					out.putNextEntry(entry);
+					out.write(classes.get(i));
+					out.closeEntry();
+				}
+			} finally {
+				out.close();
+			}
+			result.add(file);
+		}
+		return result;
+	}
+
+	/**
+	 * Creates the class files of a jar-file without writing them.
+	 *
+	 * @param jar
+	 *            the index of the jar-file in the pool
+	 * @param jars
+	 *            the number of jar-files of the pool
+	 * @return the class files
+	 */
+	public List<byte[]> createClasses(int jar, int jars) {
+		Random random = new Random(seed * 31 + jar);
+		List<byte[]> result = new ArrayList<byte[]>();
+		for (String className : getClassNames(jar)) {
+			List<String> references = new ArrayList<String>();
+			for (int i = 0; i < referencesPerClass; i++) {
+				int otherJar = random.nextInt(jars);
+				references.add(getClassName(getPackages(otherJar), otherJar,
+						random.nextInt(classesPerJar)));
+			}
+			result.add(createClass(className, references));
+		}
+		return result;
+	}
+
+	/**
+	 * @return the internal names of the classes of a jar-file
+	 */
+	private List<String> getClassNames(int jar) {
+		List<String> packages = getPackages(jar);
+		List<String> result = new ArrayList<String>();
+		for (int c = 0; c < classesPerJar; c++) {
+			result.add(getClassName(packages, jar, c));
+		}
+		return result;
+	}
+
+	/**
+	 * @return the internal names of the packages of a jar-file
+	 */
+	private List<String> getPackages(int jar) {
+		// the split packages depend on the seed only, not on the references
+		Random random = new Random(seed * 17 + jar);
+		List<String> packages = new ArrayList<String>();
+		for (int p = 0; p < packagesPerJar; p++) {
+			boolean split = jar > 0 && random.nextDouble() < splitPackageRatio;
+			packages.add("synthetic/j" + (split ? jar - 1 : jar) + "/p" + p);
+		}
+		return packages;
+	}
+
+	private String getClassName(List<String> packages, int jar, int c) {
+		return packages.get(c % packagesPerJar) + "/C" + jar + "_" + c;
+	}
+
+	/**
+	 * Creates a class with a field and a field instruction for each reference
+	 * and a method taking all references as parameters.
+	 */
+	private static byte[] createClass(String name, List<String> references) {
+		ClassWriter cw = new ClassWriter(0);
+		cw.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC, name, null,
+				"java/lang/Object", null);
+		cw.visitField(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "INSTANCE",
+				"L" + name + ";", null, null).visitEnd();
+
+		StringBuilder desc = new StringBuilder("(");
+		for (int i = 0; i < references.size(); i++) {
+			String type = "L" + references.get(i) + ";";
+			cw.visitField(Opcodes.ACC_PRIVATE, "f" + i, type, null, null)
+					.visitEnd();
+			desc.append(type);
+		}
+		desc.append(")V");
+
+		MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC
+				| Opcodes.ACC_STATIC, "m", desc.toString(), null, null);
+		mv.visitCode();
+		for (String reference : references) {
+			mv.visitFieldInsn(Opcodes.GETSTATIC, reference, "INSTANCE", "L"
+					+ reference + ";");
+			mv.visitInsn(Opcodes.POP);
+		}
+		mv.visitInsn(Opcodes.RETURN);
+		mv.visitMaxs(1, references.size());
+		mv.visitEnd();
+
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+}
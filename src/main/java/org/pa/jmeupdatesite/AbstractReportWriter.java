@@ -0,0 +1,109 @@
+package org.pa.jmeupdatesite;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Set;
+
+import org.pa.jmeupdatesite.JarFileDependencies.Dependency;
+
+/**
+ * Base class of the report writers. Provides the dependencies of a jar-file
+ * in a stable order, so reports don't depend on the order the analysis
+ * found them.
+ */
+abstract class AbstractReportWriter implements ReportWriter {
+
+	private static final String LINE_SEPARATOR = System
+			.getProperty("line.separator");
+
+	private static final Comparator<Dependency> BY_SINGLE_TO = new Comparator<Dependency>() {
+		public int compare(Dependency a, Dependency b) {
+			return a.getSingleToDesc().compareTo(b.getSingleToDesc());
+		}
+	};
+
+	private static final Comparator<Dependency> BY_PACKAGE = new Comparator<Dependency>() {
+		public int compare(Dependency a, Dependency b) {
+			return getPackage(a).compareTo(getPackage(b));
+		}
+	};
+
+	protected final Writer out;
+
+	protected AbstractReportWriter(Writer out) throws IllegalArgumentException {
+		this.out = notNull(out, "out must not be null");
+	}
+
+	public void startReport(Collection<File> jarFiles) throws IOException {
+	}
+
+	public void endReport() throws IOException {
+		out.flush();
+	}
+
+	public void close() throws IOException {
+		out.close();
+	}
+
+	/**
+	 * @return the one to one dependencies ordered by the jar-file they depend
+	 *         on
+	 */
+	protected static Dependency[] getOneToOne(JarFileDependencies deps) {
+		Dependency[] result = deps.getOneToOneDependencies().toArray(
+				new Dependency[0]);
+		Arrays.sort(result, BY_SINGLE_TO);
+		return result;
+	}
+
+	/**
+	 * @return the one to many dependencies ordered by their package
+	 */
+	protected static Dependency[] getOneToMany(JarFileDependencies deps) {
+		Dependency[] result = deps.getOneToManyDependencies().toArray(
+				new Dependency[0]);
+		Arrays.sort(result, BY_PACKAGE);
+		return result;
+	}
+
+	/**
+	 * @return the package of a one to many dependency
+	 */
+	protected static String getPackage(Dependency dependency) {
+		return dependency.getPackages().iterator().next();
+	}
+
+	/**
+	 * @return the names sorted
+	 */
+	protected static String[] sorted(Set<String> names) {
+		String[] result = names.toArray(new String[names.size()]);
+		Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 * @return the jar-files sorted by their files
+	 */
+	protected static JarFileDescription[] sortedJarLibs(
+			Set<JarFileDescription> jarLibs) {
+		JarFileDescription[] result = jarLibs
+				.toArray(new JarFileDescription[jarLibs.size()]);
+		Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 * Writes a line.
+	 */
+	protected void writeLine(String line) throws IOException {
+		out.write(line);
+		out.write(LINE_SEPARATOR);
+	}
+}
@@ -0,0 +1,294 @@
+package org.pa.jmeupdatesite;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+/**
+ * Stores the scan results of jar-files in a directory, so unchanged jar-files
+ * don't have to be read again by later runs. An entry is identified by the
+ * path, size and modification time of its jar-file, the engine used to parse
+ * the class files and, if content verification is enabled, by a hash of the
+ * content. Entries of nested jar-files are identified by their virtual path
+ * and the file which contains them.
+ * <p>
+ * Each jar-file has its own entry file. Package names are written once into a
+ * table; provided packages, provided classes and referenced classes refer to
+ * that table, so an entry is much smaller than the plain names.
+ */
+public class AnalysisCache {
+
+	private static final int MAGIC = 0x4a444331; // "JDC1"
+	private static final int VERSION = 9;
+
+	private final File directory;
+	private final boolean verifyContent;
+
+	/**
+	 * Creates a cache using the specified directory. The directory is created
+	 * if it doesn't exist.
+	 *
+	 * @param directory
+	 *            the cache directory, must not be <code>null</code>
+	 * @param verifyContent
+	 *            whether entries are additionally identified by a hash of the
+	 *            jar-file's content
+	 * @throws IllegalArgumentException
+	 *             if <code>directory</code> is <code>null</code>
+	 * @throws IOException
+	 *             if the directory cannot be created
+	 */
+	public AnalysisCache(File directory, boolean verifyContent)
+			throws IllegalArgumentException, IOException {
+		this.directory = notNull(directory, "directory must not be null");
+		this.verifyContent = verifyContent;
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("cannot create cache directory "
+					+ directory);
+		}
+	}
+
+	/**
+	 * Returns the cache directory.
+	 *
+	 * @return the cache directory
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Restores the scan results of a jar-file from its cache entry.
+	 *
+	 * @param jarLib
+	 *            the jar-file, must not be <code>null</code>
+	 * @return <code>true</code> if a valid entry has been found and the
+	 *         results have been restored, <code>false</code> if the jar-file
+	 *         has to be scanned
+	 */
+	public boolean load(JarFileDescription jarLib) {
+		File jarFile = jarLib.getFile();
+		File archiveFile = jarLib.getArchiveFile();
+		File entryFile = getEntryFile(jarFile);
+		if (!entryFile.isFile()) {
+			return false;
+		}
+
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(entryFile)));
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != VERSION
+						|| !in.readUTF().equals(jarFile.getAbsolutePath())
+						|| in.readLong() != archiveFile.length()
+						|| in.readLong() != archiveFile.lastModified()
+						|| !in.readUTF().equals(jarLib.getEngine().name())) {
+					return false;
+				}
+				byte[] hash = new byte[in.readUnsignedByte()];
+				in.readFully(hash);
+				if (verifyContent
+						&& (hash.length == 0 || !Arrays.equals(hash,
+								hash(archiveFile)))) {
+					return false;
+				}
+
+				String[] packages = new String[in.readInt()];
+				for (int i = 0; i < packages.length; i++) {
+					packages[i] = in.readUTF();
+				}
+
+				ImmutableSet.Builder<String> providedPackages = ImmutableSet
+						.builder();
+				for (int i = in.readInt(); i > 0; i--) {
+					providedPackages.add(packages[in.readInt()]);
+				}
+
+				List<String> providedClassNames = readClassNames(in, packages);
+				List<String> classNames = readClassNames(in, packages);
+
+				ImmutableSet.Builder<String> nestedJarNames = ImmutableSet
+						.builder();
+				for (int i = in.readInt(); i > 0; i--) {
+					nestedJarNames.add(in.readUTF());
+				}
+
+				long fingerprint = in.readLong();
+
+				jarLib.restore(providedPackages.build(),
+						ImmutableSet.copyOf(providedClassNames), classNames,
+						nestedJarNames.build(), fingerprint);
+				return true;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// unreadable or truncated entries are simply scanned again
+			return false;
+		} catch (RuntimeException e) {
+			// corrupt entries, e.g. with package indices out of range
+			return false;
+		}
+	}
+
+	/**
+	 * Writes the scan results of a jar-file to its cache entry. Scans the
+	 * jar-file if it hasn't been scanned yet.
+	 *
+	 * @param jarLib
+	 *            the jar-file, must not be <code>null</code>
+	 * @throws IOException
+	 *             if the entry cannot be written
+	 */
+	public void store(JarFileDescription jarLib) throws IOException {
+		File jarFile = jarLib.getFile();
+		File archiveFile = jarLib.getArchiveFile();
+		Set<String> providedPackages = jarLib.getProvidedPackages();
+		Set<String> providedClassNames = jarLib.getProvidedClassNames();
+		Set<String> classNames = jarLib.getClasseNames();
+		Set<String> nestedJarNames = jarLib.getNestedJarNames();
+		long fingerprint = jarLib.getFingerprint();
+
+		// table of all package names
+		Map<String, Integer> packageIndices = new HashMap<String, Integer>();
+		List<String> packages = new ArrayList<String>();
+		for (String packageName : providedPackages) {
+			indexOf(packageName, packageIndices, packages);
+		}
+		for (String className : classNames) {
+			String packageName = ClassBytesUtil.getPackageName(className);
+			if (packageName != null) {
+				indexOf(packageName, packageIndices, packages);
+			}
+		}
+
+		File entryFile = getEntryFile(jarFile);
+		File tmpFile = new File(directory, entryFile.getName() + "."
+				+ Thread.currentThread().getId() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tmpFile)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(jarFile.getAbsolutePath());
+			out.writeLong(archiveFile.length());
+			out.writeLong(archiveFile.lastModified());
+			out.writeUTF(jarLib.getEngine().name());
+			byte[] hash = verifyContent ? hash(archiveFile) : new byte[0];
+			out.writeByte(hash.length);
+			out.write(hash);
+
+			out.writeInt(packages.size());
+			for (String packageName : packages) {
+				out.writeUTF(packageName);
+			}
+
+			out.writeInt(providedPackages.size());
+			for (String packageName : providedPackages) {
+				out.writeInt(packageIndices.get(packageName));
+			}
+
+			writeClassNames(out, providedClassNames, packageIndices);
+			writeClassNames(out, classNames, packageIndices);
+
+			out.writeInt(nestedJarNames.size());
+			for (String nestedJarName : nestedJarNames) {
+				out.writeUTF(nestedJarName);
+			}
+			out.writeLong(fingerprint);
+		} finally {
+			out.close();
+		}
+
+		if (!tmpFile.renameTo(entryFile)) {
+			entryFile.delete();
+			if (!tmpFile.renameTo(entryFile)) {
+				tmpFile.delete();
+				throw new IOException("cannot write cache entry " + entryFile);
+			}
+		}
+	}
+
+	/**
+	 * Writes class names as pairs of the index of their package, or
+	 * <code>-1</code> for the default package, and their simple name.
+	 */
+	private static void writeClassNames(DataOutputStream out,
+			Set<String> classNames, Map<String, Integer> packageIndices)
+			throws IOException {
+		out.writeInt(classNames.size());
+		for (String className : classNames) {
+			String packageName = ClassBytesUtil.getPackageName(className);
+			if (packageName == null) {
+				out.writeInt(-1);
+				out.writeUTF(className);
+			} else {
+				out.writeInt(packageIndices.get(packageName));
+				out.writeUTF(className.substring(packageName.length() + 1));
+			}
+		}
+	}
+
+	/**
+	 * Reads class names written by
+	 * {@link #writeClassNames(DataOutputStream, Set, Map)}.
+	 */
+	private static List<String> readClassNames(DataInputStream in,
+			String[] packages) throws IOException {
+		int classCount = in.readInt();
+		List<String> classNames = new ArrayList<String>(classCount);
+		for (int i = 0; i < classCount; i++) {
+			int packageIndex = in.readInt();
+			String simpleName = in.readUTF();
+			classNames.add(packageIndex == -1 ? simpleName
+					: packages[packageIndex] + '.' + simpleName);
+		}
+		return classNames;
+	}
+
+	private static int indexOf(String packageName,
+			Map<String, Integer> packageIndices, List<String> packages) {
+		Integer index = packageIndices.get(packageName);
+		if (index == null) {
+			index = packages.size();
+			packages.add(packageName);
+			packageIndices.put(packageName, index);
+		}
+		return index;
+	}
+
+	/**
+	 * @return the file of the cache entry of the specified jar-file
+	 */
+	private File getEntryFile(File jarFile) {
+		String key = Hashing.md5()
+				.hashString(jarFile.getAbsolutePath(), Charsets.UTF_8)
+				.toString();
+		return new File(directory, key + ".jdc");
+	}
+
+	private static byte[] hash(File jarFile) throws FileNotFoundException,
+			IOException {
+		return Files.hash(jarFile, Hashing.sha1()).asBytes();
+	}
+}
@@ -0,0 +1,289 @@
+package org.pa.jmeupdatesite;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts the work done by a {@link PoolAnalysis}: entries enumerated, classes
+ * parsed or reused from identical class files, bytes inflated, duplicate
+ * jar-files, cache hits and the time spent per phase and per jar-file. The
+ * counters may be updated by several threads without contention. Nothing is
+ * measured if no metrics are set, so the analysis doesn't pay for them
+ * unless asked to.
+ * <p>
+ * The phase times are wall clock times. Inflating and parsing happen on all
+ * worker threads, so their times are the sums over the threads and may
+ * exceed the describe phase.
+ */
+public class AnalysisMetrics implements AnalysisMetricsMBean {
+
+	/**
+	 * The phases of an analysis.
+	 */
+	public static enum Phase {
+		/** describing, scanning or restoring each jar-file */
+		DESCRIBE,
+		/** indexing the provided packages */
+		INDEX,
+		/** resolving the dependencies of each jar-file */
+		RESOLVE,
+		/** re-analysing changed jar-files */
+		UPDATE
+	}
+
+	private static final int SLOWEST_JARS = 10;
+
+	private final LongAdder jarsScanned = new LongAdder();
+	private final LongAdder entriesEnumerated = new LongAdder();
+	private final LongAdder classesParsed = new LongAdder();
+	private final LongAdder classesReused = new LongAdder();
+	private final LongAdder duplicateJars = new LongAdder();
+	private final LongAdder bytesInflated = new LongAdder();
+	private final LongAdder cacheHits = new LongAdder();
+	private final LongAdder cacheMisses = new LongAdder();
+	private final LongAdder updates = new LongAdder();
+	private final LongAdder inflateNanos = new LongAdder();
+	private final LongAdder parseNanos = new LongAdder();
+	private final Map<Phase, LongAdder> phaseNanos = new EnumMap<Phase, LongAdder>(
+			Phase.class);
+	private final Map<File, Long> jarNanos = new ConcurrentHashMap<File, Long>();
+
+	/**
+	 * Creates metrics with all counters at zero.
+	 */
+	public AnalysisMetrics() {
+		for (Phase phase : Phase.values()) {
+			phaseNanos.put(phase, new LongAdder());
+		}
+	}
+
+	/**
+	 * Counts a scanned jar-file and its entries.
+	 */
+	void addJarScanned(int entries) {
+		jarsScanned.increment();
+		entriesEnumerated.add(entries);
+	}
+
+	/**
+	 * Counts entries enumerated without scanning the jar-file.
+	 */
+	void addEntriesEnumerated(int entries) {
+		entriesEnumerated.add(entries);
+	}
+
+	/**
+	 * Counts a parsed class file.
+	 */
+	void addClassParsed(long bytes, long inflateNanos, long parseNanos) {
+		classesParsed.increment();
+		bytesInflated.add(bytes);
+		this.inflateNanos.add(inflateNanos);
+		this.parseNanos.add(parseNanos);
+	}
+
+	/**
+	 * Counts a class file whose class names have been reused from an
+	 * identical one.
+	 */
+	void addClassReused() {
+		classesReused.increment();
+	}
+
+	/**
+	 * Counts jar-files found to be identical to others.
+	 */
+	void addDuplicateJars(int jars) {
+		duplicateJars.add(jars);
+	}
+
+	void addCacheHit() {
+		cacheHits.increment();
+	}
+
+	void addCacheMiss() {
+		cacheMisses.increment();
+	}
+
+	void addUpdate() {
+		updates.increment();
+	}
+
+	void addPhaseNanos(Phase phase, long nanos) {
+		phaseNanos.get(phase).add(nanos);
+	}
+
+	/**
+	 * Records the time taken to describe a jar-file.
+	 */
+	void addJarNanos(File jarFile, long nanos) {
+		jarNanos.put(jarFile, nanos);
+	}
+
+	public long getJarsScanned() {
+		return jarsScanned.sum();
+	}
+
+	public long getEntriesEnumerated() {
+		return entriesEnumerated.sum();
+	}
+
+	public long getClassesParsed() {
+		return classesParsed.sum();
+	}
+
+	public long getClassesReused() {
+		return classesReused.sum();
+	}
+
+	public long getDuplicateJars() {
+		return duplicateJars.sum();
+	}
+
+	public long getBytesInflated() {
+		return bytesInflated.sum();
+	}
+
+	public long getCacheHits() {
+		return cacheHits.sum();
+	}
+
+	public long getCacheMisses() {
+		return cacheMisses.sum();
+	}
+
+	public long getUpdates() {
+		return updates.sum();
+	}
+
+	public long getInflateMillis() {
+		return toMillis(inflateNanos.sum());
+	}
+
+	public long getParseMillis() {
+		return toMillis(parseNanos.sum());
+	}
+
+	public long getDescribeMillis() {
+		return getPhaseMillis(Phase.DESCRIBE);
+	}
+
+	public long getIndexMillis() {
+		return getPhaseMillis(Phase.INDEX);
+	}
+
+	public long getResolveMillis() {
+		return getPhaseMillis(Phase.RESOLVE);
+	}
+
+	public long getUpdateMillis() {
+		return getPhaseMillis(Phase.UPDATE);
+	}
+
+	/**
+	 * Returns the total time of a phase.
+	 *
+	 * @param phase
+	 *            the phase, must not be <code>null</code>
+	 * @return the time in milliseconds
+	 */
+	public long getPhaseMillis(Phase phase) {
+		return toMillis(phaseNanos.get(notNull(phase, "phase must not be null"))
+				.sum());
+	}
+
+	public String[] getSlowestJars() {
+		List<Map.Entry<File, Long>> entries = new ArrayList<Map.Entry<File, Long>>(
+				jarNanos.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<File, Long>>() {
+			public int compare(Map.Entry<File, Long> a, Map.Entry<File, Long> b) {
+				return b.getValue().compareTo(a.getValue());
+			}
+		});
+		String[] result = new String[Math.min(SLOWEST_JARS, entries.size())];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = entries.get(i).getKey().getName() + ": "
+					+ toMillis(entries.get(i).getValue());
+		}
+		return result;
+	}
+
+	public void reset() {
+		for (LongAdder adder : new LongAdder[] { jarsScanned,
+				entriesEnumerated, classesParsed, classesReused,
+				duplicateJars, bytesInflated, cacheHits,
+				cacheMisses, updates, inflateNanos, parseNanos }) {
+			adder.reset();
+		}
+		for (LongAdder adder : phaseNanos.values()) {
+			adder.reset();
+		}
+		jarNanos.clear();
+	}
+
+	/**
+	 * Registers these metrics at the platform MBean server as
+	 * <code>org.pa.jmeupdatesite:type=AnalysisMetrics</code>.
+	 *
+	 * @throws JMException
+	 *             if the metrics cannot be registered, e.g. because other
+	 *             metrics already are
+	 */
+	public void registerMBean() throws JMException {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+				new ObjectName("org.pa.jmeupdatesite:type=AnalysisMetrics"));
+	}
+
+	/**
+	 * Prints a summary of the metrics.
+	 *
+	 * @param out
+	 *            the stream to print to, must not be <code>null</code>
+	 */
+	public void printSummary(PrintStream out) {
+		out.println("-- STATS --");
+		out.println("jars scanned:       " + getJarsScanned());
+		out.println("entries enumerated: " + getEntriesEnumerated());
+		out.println("classes parsed:     " + getClassesParsed());
+		out.println("classes reused:     " + getClassesReused());
+		out.println("bytes inflated:     " + getBytesInflated());
+		out.println("duplicate jars:     " + getDuplicateJars());
+		out.println("cache hits/misses:  " + getCacheHits() + "/"
+				+ getCacheMisses());
+		out.println("describe:           " + getDescribeMillis() + " ms");
+		out.println(" inflate (threads): " + getInflateMillis() + " ms");
+		out.println(" parse (threads):   " + getParseMillis() + " ms");
+		out.println("index:              " + getIndexMillis() + " ms");
+		out.println("resolve:            " + getResolveMillis() + " ms");
+		if (getUpdates() > 0) {
+			out.println("updates:            " + getUpdates() + " in "
+					+ getUpdateMillis() + " ms");
+		}
+		String[] slowestJars = getSlowestJars();
+		if (slowestJars.length > 0) {
+			out.println("slowest jars (ms):");
+			for (String jar : slowestJars) {
+				out.println(" " + jar);
+			}
+		}
+	}
+
+	private static long toMillis(long nanos) {
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+}
@@ -0,0 +1,47 @@
+package org.pa.jmeupdatesite;
+
+/**
+ * The JMX view of {@link AnalysisMetrics}. Times are in milliseconds.
+ */
+public interface AnalysisMetricsMBean {
+
+	long getJarsScanned();
+
+	long getEntriesEnumerated();
+
+	long getClassesParsed();
+
+	long getClassesReused();
+
+	long getDuplicateJars();
+
+	long getBytesInflated();
+
+	long getCacheHits();
+
+	long getCacheMisses();
+
+	long getUpdates();
+
+	long getInflateMillis();
+
+	long getParseMillis();
+
+	long getDescribeMillis();
+
+	long getIndexMillis();
+
+	long getResolveMillis();
+
+	long getUpdateMillis();
+
+	/**
+	 * @return the slowest jar-files to describe, as <code>name: ms</code>
+	 */
+	String[] getSlowestJars();
+
+	/**
+	 * Sets all counters to zero.
+	 */
+	void reset();
+}
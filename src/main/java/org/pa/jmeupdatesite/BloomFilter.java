@@ -0,0 +1,77 @@
+package org.pa.jmeupdatesite;
+
+import java.util.Collection;
+
+/**
+ * A compact probabilistic set of strings. {@link #mightContain(String)} never
+ * misses an added string, but may accept strings which haven't been added.
+ * With the 10 bits per string used here about 1% of the other strings are
+ * accepted. Used to skip the exact lookup for most classes a jar-file
+ * doesn't contain.
+ * <p>
+ * The positions of a string are derived from its cached
+ * {@link String#hashCode()} by double hashing, so checking a string is
+ * cheap.
+ */
+final class BloomFilter {
+
+	private static final int BITS_PER_ELEMENT = 10;
+	private static final int HASHES = 7; // optimal for 10 bits per element
+
+	private final long[] bits;
+	private final int mask;
+
+	/**
+	 * Creates a filter containing the specified strings.
+	 *
+	 * @param strings
+	 *            the strings
+	 */
+	BloomFilter(Collection<String> strings) {
+		int size = 64;
+		while (size < strings.size() * BITS_PER_ELEMENT && size < 1 << 30) {
+			size <<= 1;
+		}
+		bits = new long[size >>> 6];
+		mask = size - 1;
+		for (String s : strings) {
+			int h1 = s.hashCode();
+			int h2 = mix(h1);
+			for (int i = 0; i < HASHES; i++) {
+				int bit = (h1 + i * h2) & mask;
+				bits[bit >>> 6] |= 1L << bit;
+			}
+		}
+	}
+
+	/**
+	 * Returns whether the string might have been added.
+	 *
+	 * @param s
+	 *            the string
+	 * @return <code>false</code> if the string has not been added
+	 */
+	boolean mightContain(String s) {
+		int h1 = s.hashCode();
+		int h2 = mix(h1);
+		for (int i = 0; i < HASHES; i++) {
+			int bit = (h1 + i * h2) & mask;
+			if ((bits[bit >>> 6] & 1L << bit) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return an odd second hash independent of the low bits of the first
+	 */
+	private static int mix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h | 1;
+	}
+}
@@ -0,0 +1,130 @@
+package org.pa.jmeupdatesite;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.io.File;
+import java.util.Set;
+
+/**
+ * An OSGi bundle written by an {@link UpdateSiteBundler}: a jar-file of the
+ * pool with a manifest declaring its symbolic name, version and packages.
+ */
+public class Bundle implements Comparable<Bundle> {
+
+	private final JarFileDescription jarLib;
+	private final String symbolicName;
+	private final String version;
+	private final Set<String> exportedPackages;
+	private final Set<String> importedPackages;
+	private final Set<String> optionalPackages;
+	private final File file;
+
+	/**
+	 * Creates a bundle.
+	 *
+	 * @param jarLib
+	 *            the jar-file the bundle is made of, must not be
+	 *            <code>null</code>
+	 * @param symbolicName
+	 *            the symbolic name, must not be <code>null</code>
+	 * @param version
+	 *            the OSGi version, must not be <code>null</code>
+	 * @param exportedPackages
+	 *            the exported packages, must not be <code>null</code>
+	 * @param importedPackages
+	 *            the imported packages, must not be <code>null</code>
+	 * @param optionalPackages
+	 *            the imported packages which are optional, must not be
+	 *            <code>null</code>
+	 * @param file
+	 *            the bundle file, must not be <code>null</code>
+	 * @throws IllegalArgumentException
+	 *             if an argument is <code>null</code>
+	 */
+	public Bundle(JarFileDescription jarLib, String symbolicName,
+			String version, Set<String> exportedPackages,
+			Set<String> importedPackages, Set<String> optionalPackages,
+			File file) throws IllegalArgumentException {
+		this.jarLib = notNull(jarLib, "jarLib must not be null");
+		this.symbolicName = notNull(symbolicName,
+				"symbolicName must not be null");
+		this.version = notNull(version, "version must not be null");
+		this.exportedPackages = notNull(exportedPackages,
+				"exportedPackages must not be null");
+		this.importedPackages = notNull(importedPackages,
+				"importedPackages must not be null");
+		this.optionalPackages = notNull(optionalPackages,
+				"optionalPackages must not be null");
+		this.file = notNull(file, "file must not be null");
+	}
+
+	/**
+	 * @return the jar-file the bundle is made of
+	 */
+	public JarFileDescription getJarLib() {
+		return jarLib;
+	}
+
+	/**
+	 * @return the symbolic name, e.g. <code>jme3-core</code>
+	 */
+	public String getSymbolicName() {
+		return symbolicName;
+	}
+
+	/**
+	 * @return the OSGi version, e.g. <code>3.1.0.stable</code>
+	 */
+	public String getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the exported packages
+	 */
+	public Set<String> getExportedPackages() {
+		return exportedPackages;
+	}
+
+	/**
+	 * @return the imported packages, including the optional ones
+	 */
+	public Set<String> getImportedPackages() {
+		return importedPackages;
+	}
+
+	/**
+	 * @return the imported packages which are optional
+	 */
+	public Set<String> getOptionalPackages() {
+		return optionalPackages;
+	}
+
+	/**
+	 * @return the bundle file, named
+	 *         <code>&lt;symbolic name&gt;_&lt;version&gt;.jar</code>
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	public int compareTo(Bundle o) {
+		return file.compareTo(o.file);
+	}
+
+	@Override
+	public int hashCode() {
+		return file.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj == this || obj instanceof Bundle
+				&& ((Bundle) obj).file.equals(file);
+	}
+
+	@Override
+	public String toString() {
+		return symbolicName + "_" + version;
+	}
+}
@@ -4,9 +4,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.Validate;
 import org.objectweb.asm.AnnotationVisitor;
 import org.objectweb.asm.Attribute;
@@ -15,18 +14,72 @@ import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.FieldVisitor;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
-import org.objectweb.asm.Type;
 
 /**
  * Some utilities to ease the work with class binaries.
  */
 public class ClassBytesUtil {
 
+	/**
+	 * The available engines for extracting referenced class names from class
+	 * files.
+	 */
+	public static enum Engine {
+
+		/**
+		 * Visits the whole class file with ASM, including the instructions of
+		 * every method. See {@link ClassBytesUtil#findClassNames(InputStream)}
+		 * .
+		 */
+		ASM,
+
+		/**
+		 * Reads the constant pool, the field and method descriptors, the
+		 * generic signatures and the annotations directly from the class
+		 * bytes. Method bodies are skipped.
+		 * Finds every class the ASM engine finds, but also the classes which
+		 * are only referenced as owners, super types or by type instructions.
+		 */
+		CONSTANT_POOL
+	}
+
+	/**
+	 * Returns a list with all class names of classes referenced in the
+	 * specified class file using the specified engine. See
+	 * {@link #findClassNames(InputStream)}.
+	 * 
+	 * @param is
+	 *            The input stream providing class bytes of a single class from
+	 *            its beginning to its end. Must not be <code>null</code>.
+	 * @param engine
+	 *            the engine to use, must not be <code>null</code>
+	 * @return a set with class names
+	 * @throws IllegalArgumentException
+	 *             if any argument is <code>null</code>
+	 * @throws IOException
+	 *             if a problem occurs during reading
+	 */
+	public static Set<String> findClassNames(InputStream is, Engine engine)
+			throws IllegalArgumentException, IOException {
+		Validate.notNull(engine, "The engine must not be null");
+		switch (engine) {
+		case CONSTANT_POOL:
+			Validate.notNull(is, "The input stream must not be null");
+			HashSet<String> result = new HashSet<String>();
+			ConstantPoolScanner.findClassNames(IOUtils.toByteArray(is), result);
+			return result;
+		default:
+			return findClassNames(is);
+		}
+	}
+
 	/**
 	 * Returns a list with all class names of classes referenced in the
-	 * specified class file. Inner classes and primitive types are excluded.
-	 * Returns the canonical names of the returned classes as defined by the
-	 * Java Language Specification.
+	 * specified class file. Returns the binary names of the classes as defined
+	 * by the Java Language Specification, i.e. with '.' as package separator
+	 * and '$' as inner class separator, so referenced inner classes are
+	 * included. Classes of the default package are included, too. Primitive
+	 * types are excluded, and arrays are replaced by their element types.
 	 * 
 	 * @param is
 	 *            The input stream providing class bytes of a single class from
@@ -40,9 +93,43 @@ public class ClassBytesUtil {
 	public static Set<String> findClassNames(final InputStream is)
 			throws IllegalArgumentException, IOException {
 		Validate.notNull(is, "The input stream must not be null");
-		final HashSet<String> result = new HashSet<String>();
+		return findClassNames(new ClassReader(is));
+	}
+
+	/**
+	 * Returns a list with all class names of classes referenced in the
+	 * specified class file using the specified engine. Same as
+	 * {@link #findClassNames(InputStream, Engine)} for class files which have
+	 * already been read completely.
+	 * 
+	 * @param bytes
+	 *            the bytes of a single class file, must not be
+	 *            <code>null</code>
+	 * @param engine
+	 *            the engine to use, must not be <code>null</code>
+	 * @return a set with class names
+	 * @throws IllegalArgumentException
+	 *             if any argument is <code>null</code>
+	 * @throws IOException
+	 *             if the class file is truncated
+	 */
+	public static Set<String> findClassNames(byte[] bytes, Engine engine)
+			throws IllegalArgumentException, IOException {
+		Validate.notNull(bytes, "The bytes must not be null");
+		Validate.notNull(engine, "The engine must not be null");
+		switch (engine) {
+		case CONSTANT_POOL:
+			HashSet<String> result = new HashSet<String>();
+			ConstantPoolScanner.findClassNames(bytes, result);
+			return result;
+		default:
+			return findClassNames(new ClassReader(bytes));
+		}
+	}
 
-		ClassReader classReader = new ClassReader(is);
+	private static Set<String> findClassNames(ClassReader classReader) {
+		final HashSet<String> result = new HashSet<String>();
+		final DescriptorParser parser = new DescriptorParser(result);
 
 		// we simply make use of every possible visitor and put every mentioned
 		// class name into the result set
@@ -50,7 +137,7 @@ public class ClassBytesUtil {
 		final AnnotationVisitor annotationVisitor = new AnnotationVisitor() {
 
 			public void visitEnum(String name, String desc, String value) {
-				addClassFromTypedefToSet(desc, result);
+				parser.parseDescriptor(desc);
 			}
 
 			public void visitEnd() {
@@ -61,7 +148,7 @@ public class ClassBytesUtil {
 			}
 
 			public AnnotationVisitor visitAnnotation(String name, String desc) {
-				addClassFromTypedefToSet(desc, result);
+				parser.parseDescriptor(desc);
 				return this;
 			}
 
@@ -79,6 +166,7 @@ public class ClassBytesUtil {
 
 			public MethodVisitor visitMethod(int access, String name,
 					String desc, String signature, String[] exceptions) {
+				parser.parseSignature(signature);
 				return new MethodVisitor() {
 
 					public void visitVarInsn(int opcode, int var) {
@@ -97,17 +185,17 @@ public class ClassBytesUtil {
 
 					public AnnotationVisitor visitParameterAnnotation(
 							int parameter, String desc, boolean visible) {
-						addClassFromTypedefToSet(desc, result);
+						parser.parseDescriptor(desc);
 						return annotationVisitor;
 					}
 
 					public void visitMultiANewArrayInsn(String desc, int dims) {
-						addClassFromTypedefToSet(desc, result);
+						parser.parseDescriptor(desc);
 					}
 
 					public void visitMethodInsn(int opcode, String owner,
 							String name, String desc) {
-						addClassFromTypedefToSet(desc, result);
+						parser.parseDescriptor(desc);
 					}
 
 					public void visitMaxs(int maxStack, int maxLocals) {
@@ -148,7 +236,7 @@ public class ClassBytesUtil {
 
 					public void visitFieldInsn(int opcode, String owner,
 							String name, String desc) {
-						addClassFromTypedefToSet(desc, result);
+						parser.parseDescriptor(desc);
 					}
 
 					public void visitEnd() {
@@ -166,7 +254,7 @@ public class ClassBytesUtil {
 
 					public AnnotationVisitor visitAnnotation(String desc,
 							boolean visible) {
-						addClassFromTypedefToSet(desc, result);
+						parser.parseDescriptor(desc);
 						return annotationVisitor;
 					}
 				};
@@ -178,7 +266,8 @@ public class ClassBytesUtil {
 
 			public FieldVisitor visitField(int access, String name,
 					String desc, String signature, Object value) {
-				addClassFromTypedefToSet(desc, result);
+				parser.parseDescriptor(desc);
+				parser.parseSignature(signature);
 				return new FieldVisitor() {
 
 					public void visitEnd() {
@@ -189,7 +278,7 @@ public class ClassBytesUtil {
 
 					public AnnotationVisitor visitAnnotation(String desc,
 							boolean visible) {
-						addClassFromTypedefToSet(desc, result);
+						parser.parseDescriptor(desc);
 						return annotationVisitor;
 					}
 				};
@@ -203,12 +292,13 @@ public class ClassBytesUtil {
 
 			public AnnotationVisitor visitAnnotation(String desc,
 					boolean visible) {
-				addClassFromTypedefToSet(desc, result);
+				parser.parseDescriptor(desc);
 				return annotationVisitor;
 			}
 
 			public void visit(int version, int access, String name,
 					String signature, String superName, String[] interfaces) {
+				parser.parseSignature(signature);
 			}
 		}, 0);
 
@@ -232,48 +322,24 @@ public class ClassBytesUtil {
 			throws IllegalArgumentException, IOException {
 		HashSet<String> result = new HashSet<String>();
 		for (String className : findClassNames(is)) {
-			int index = className.lastIndexOf('.');
-			if (index != -1) {
-				result.add(className.substring(0, index));
+			String packageName = getPackageName(className);
+			if (packageName != null) {
+				result.add(packageName);
 			}
 		}
 		return result;
 	}
 
 	/**
-	 * Matches class names inside a La.b.c.MyClass; like class name notation.
-	 */
-	private final static Pattern CLASS_NAME_PATTERN = Pattern
-			.compile("(?<=L)[a-z]+/[\\w/]+(?=;)");
-
-	/**
-	 * Helper method. Validates and clean up class names before adding them to a
-	 * set.
+	 * Returns the package name of a binary class name.
 	 * 
-	 * @param desc
-	 * @param set
+	 * @param className
+	 *            a binary class name, must not be <code>null</code>
+	 * @return the package name or <code>null</code> if the class is in the
+	 *         default package
 	 */
-	private static void addClassFromTypedefToSet(String desc, Set<String> set) {
-		if (desc == null) {
-			return;
-		}
-		Type type = Type.getObjectType(desc);
-
-		// get type of (multidimensional) arrays
-		if (type.getSort() == Type.ARRAY) {
-			type = type.getElementType();
-		}
-
-		// ignore type which aren't object types
-		if (type.getSort() != Type.OBJECT) {
-			return;
-		}
-
-		String qualifiedClassName = type.getInternalName();
-
-		Matcher matcher = CLASS_NAME_PATTERN.matcher(qualifiedClassName);
-		while (matcher.find()) {
-			set.add(matcher.group().replace('/', '.'));
-		}
+	public static String getPackageName(String className) {
+		int index = className.lastIndexOf('.');
+		return index == -1 ? null : className.substring(0, index);
 	}
 }
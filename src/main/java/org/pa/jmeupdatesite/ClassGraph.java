@@ -0,0 +1,627 @@
+package org.pa.jmeupdatesite;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.noNullElements;
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableSortedSet;
+
+/**
+ * The references between the classes of a pool, for finding the classes
+ * reachable from some entry points, e.g. the main class of an application.
+ * Unlike {@link JarFileDependencies}, which needs whole jar-files as soon as
+ * a single package is used, this finds the classes which are actually used
+ * and the jar-files could be pruned to.
+ * <p>
+ * The references of a class are read from the constant pool of its class
+ * file, so they include the owners of the fields and methods it uses, its
+ * super types and interfaces and the types it creates or casts to, whatever
+ * engine the pool has been analysed with. Classes loaded by reflection are
+ * not found and have to be entry points themselves.
+ * <p>
+ * Classes are identified by the IDs of a {@link SymbolTable}. Each class
+ * file is a block of the IDs of the classes it references in a single int
+ * array, so the graph of a pool with a million classes takes a few hundred
+ * MB at most. A class contained in several jar-files has a block for each
+ * of them.
+ * <p>
+ * A class file whose constant pool cannot be parsed is kept without
+ * references. The reachable ones are reported by
+ * {@link Reachability#getUnparsedClassNames(JarFileDescription)}, and their
+ * jar-files are not pruned.
+ */
+public class ClassGraph {
+
+	private final List<JarFileDescription> jarLibs;
+	private final Map<JarFileDescription, Integer> jarIds = new HashMap<JarFileDescription, Integer>();
+	private int threads = 1;
+
+	/*
+	 * the graph, filled by build()
+	 */
+	private final Object lock = new Object(); // of the reading threads
+	private final SymbolTable classSymbols = new SymbolTable();
+	private int[] references = new int[1024];
+	private int referenceCount;
+	private int[] blockJars = new int[256];
+	private int[] blockStarts = new int[256];
+	private int[] blockEnds = new int[256];
+	private int[] nextBlocks = new int[256]; // of the same class
+	private final BitSet unparsedBlocks = new BitSet();
+	private int blockCount;
+	private int[] firstBlocks = new int[0]; // by class ID
+	private int[] classCounts; // by jar-file
+	private boolean built;
+
+	/**
+	 * Creates the graph of the classes of the specified jar-files. The class
+	 * files are read by {@link #build()}.
+	 *
+	 * @param jarLibs
+	 *            the jar-files of the pool, must not be <code>null</code> or
+	 *            contain <code>null</code>
+	 * @throws IllegalArgumentException
+	 *             if <code>jarLibs</code> is or contains <code>null</code>
+	 */
+	public ClassGraph(Collection<JarFileDescription> jarLibs)
+			throws IllegalArgumentException {
+		noNullElements(notNull(jarLibs, "jar libs must not be null"),
+				"jar libs must not contain null");
+		this.jarLibs = new ArrayList<JarFileDescription>(
+				ImmutableSortedSet.copyOf(jarLibs));
+		for (int jarId = 0; jarId < this.jarLibs.size(); jarId++) {
+			jarIds.put(this.jarLibs.get(jarId), jarId);
+		}
+	}
+
+	/**
+	 * Sets the number of jar-files read at once, 1 by default.
+	 *
+	 * @param threads
+	 *            the number of threads
+	 * @throws IllegalArgumentException
+	 *             if <code>threads</code> is less than <code>1</code>
+	 */
+	public void setThreads(int threads) throws IllegalArgumentException {
+		isTrue(threads >= 1, "threads must be at least 1");
+		this.threads = threads;
+	}
+
+	/**
+	 * Reads the class files of all jar-files and builds the graph. Does
+	 * nothing if the graph has already been built.
+	 *
+	 * @throws IOException
+	 *             if a jar-file cannot be read
+	 */
+	public synchronized void build() throws IOException {
+		if (built) {
+			return;
+		}
+		classCounts = new int[jarLibs.size()];
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int i = 0; i < jarLibs.size(); i++) {
+			final int jarId = i;
+			tasks.add(new Callable<Void>() {
+				public Void call() throws IOException {
+					read(jarId);
+					return null;
+				}
+			});
+		}
+		run(tasks);
+		built = true;
+	}
+
+	/**
+	 * Reads the class files of a jar-file and adds them to the graph at
+	 * once, so the threads only meet once per jar-file.
+	 */
+	private void read(int jarId) throws IOException {
+		final ClassFiles classFiles = new ClassFiles();
+		final Set<String> referencedNames = new HashSet<String>();
+		jarLibs.get(jarId).readClasses(
+				new JarFileDescription.ClassFileHandler() {
+					public void handle(String className, byte[] bytes) {
+						referencedNames.clear();
+						boolean parsed = true;
+						try {
+							ConstantPoolScanner.findClassNames(bytes,
+									referencedNames);
+						} catch (IOException e) {
+							// the class is kept, but doesn't reference
+							// anything and its jar-file isn't pruned
+							e.printStackTrace();
+							referencedNames.clear();
+							parsed = false;
+						}
+						int classId = classSymbols.intern(className);
+						classFiles.addClass(classId, parsed);
+						for (String referencedName : referencedNames) {
+							int referencedId = classSymbols
+									.intern(referencedName);
+							if (referencedId != classId) {
+								classFiles.addReference(referencedId);
+							}
+						}
+					}
+				});
+		add(jarId, classFiles);
+	}
+
+	private void add(int jarId, ClassFiles classFiles) {
+		synchronized (lock) {
+			int offset = referenceCount;
+			references = ensureCapacity(references, referenceCount
+					+ classFiles.referenceCount);
+			System.arraycopy(classFiles.references, 0, references, referenceCount,
+					classFiles.referenceCount);
+			referenceCount += classFiles.referenceCount;
+
+			int blocks = blockCount + classFiles.classCount;
+			blockJars = ensureCapacity(blockJars, blocks);
+			blockStarts = ensureCapacity(blockStarts, blocks);
+			blockEnds = ensureCapacity(blockEnds, blocks);
+			nextBlocks = ensureCapacity(nextBlocks, blocks);
+			int maxClassId = -1;
+			for (int i = 0; i < classFiles.classCount; i++) {
+				maxClassId = Math.max(maxClassId, classFiles.classIds[i]);
+			}
+			if (maxClassId >= firstBlocks.length) {
+				int length = firstBlocks.length;
+				firstBlocks = Arrays.copyOf(firstBlocks,
+						Math.max(maxClassId + 1, length * 2));
+				Arrays.fill(firstBlocks, length, firstBlocks.length, -1);
+			}
+			for (int i = 0; i < classFiles.classCount; i++) {
+				int classId = classFiles.classIds[i];
+				blockJars[blockCount] = jarId;
+				blockStarts[blockCount] = offset + classFiles.starts[i];
+				blockEnds[blockCount] = offset
+						+ (i + 1 < classFiles.classCount ? classFiles.starts[i + 1]
+								: classFiles.referenceCount);
+				nextBlocks[blockCount] = firstBlocks[classId];
+				firstBlocks[classId] = blockCount;
+				if (classFiles.unparsed.get(i)) {
+					unparsedBlocks.set(blockCount);
+				}
+				blockCount++;
+			}
+			classCounts[jarId] = classFiles.classCount;
+		}
+	}
+
+	private static int[] ensureCapacity(int[] array, int capacity) {
+		return capacity <= array.length ? array : Arrays.copyOf(array,
+				Math.max(capacity, array.length * 2));
+	}
+
+	/**
+	 * @return the first block of a class or <code>-1</code> if no jar-file
+	 *         contains it
+	 */
+	private int getFirstBlock(int classId) {
+		return classId < firstBlocks.length ? firstBlocks[classId] : -1;
+	}
+
+	/**
+	 * Returns the number of class files of a jar-file.
+	 *
+	 * @param jarLib
+	 *            a jar-file of the pool
+	 * @return the number of class files, <code>0</code> if the jar-file
+	 *         isn't part of the pool
+	 * @throws IllegalStateException
+	 *             if the graph hasn't been built yet
+	 */
+	public synchronized int getClassCount(JarFileDescription jarLib)
+			throws IllegalStateException {
+		checkBuilt();
+		Integer jarId = jarIds.get(jarLib);
+		return jarId == null ? 0 : classCounts[jarId];
+	}
+
+	/**
+	 * Returns the number of references between the classes of the pool.
+	 *
+	 * @return the number of references
+	 * @throws IllegalStateException
+	 *             if the graph hasn't been built yet
+	 */
+	public synchronized int getReferenceCount() throws IllegalStateException {
+		checkBuilt();
+		return referenceCount;
+	}
+
+	/**
+	 * Finds the classes reachable from the entry points. An entry point is
+	 * the name of a class of the pool, e.g. <code>a.b.Main</code>, all classes
+	 * of a package, <code>a.b.*</code>, or of a package and its subpackages,
+	 * <code>a.b.**</code>.
+	 *
+	 * @param entryPoints
+	 *            the entry points, must not be <code>null</code> or contain
+	 *            <code>null</code>
+	 * @return the reachable classes
+	 * @throws IllegalArgumentException
+	 *             if <code>entryPoints</code> is or contains
+	 *             <code>null</code> or a class name isn't part of the pool
+	 * @throws IllegalStateException
+	 *             if the graph hasn't been built yet
+	 */
+	public synchronized Reachability findReachable(
+			Collection<String> entryPoints) throws IllegalArgumentException,
+			IllegalStateException {
+		noNullElements(notNull(entryPoints, "entry points must not be null"),
+				"entry points must not contain null");
+		checkBuilt();
+
+		BitSet reached = new BitSet(classSymbols.size());
+		int[] worklist = new int[256];
+		int size = 0;
+		for (int classId : resolve(entryPoints)) {
+			if (!reached.get(classId)) {
+				reached.set(classId);
+				worklist = ensureCapacity(worklist, size + 1);
+				worklist[size++] = classId;
+			}
+		}
+		while (size > 0) {
+			int classId = worklist[--size];
+			for (int block = getFirstBlock(classId); block >= 0; block = nextBlocks[block]) {
+				for (int i = blockStarts[block]; i < blockEnds[block]; i++) {
+					int referencedId = references[i];
+					if (!reached.get(referencedId)) {
+						reached.set(referencedId);
+						worklist = ensureCapacity(worklist, size + 1);
+						worklist[size++] = referencedId;
+					}
+				}
+			}
+		}
+
+		Map<Integer, ImmutableSortedSet.Builder<String>> byJar = new HashMap<Integer, ImmutableSortedSet.Builder<String>>();
+		Map<Integer, ImmutableSortedSet.Builder<String>> unparsedByJar = new HashMap<Integer, ImmutableSortedSet.Builder<String>>();
+		ImmutableSortedSet.Builder<String> missing = ImmutableSortedSet
+				.naturalOrder();
+		for (int classId = reached.nextSetBit(0); classId >= 0; classId = reached
+				.nextSetBit(classId + 1)) {
+			String className = classSymbols.getName(classId);
+			int block = getFirstBlock(classId);
+			if (block < 0) {
+				if (!ClassNameFilters.JRE_CLASS_NAME.apply(className)) {
+					missing.add(className);
+				}
+			}
+			for (; block >= 0; block = nextBlocks[block]) {
+				add(byJar, blockJars[block], className);
+				if (unparsedBlocks.get(block)) {
+					add(unparsedByJar, blockJars[block], className);
+				}
+			}
+		}
+		return new Reachability(build(byJar), build(unparsedByJar),
+				missing.build());
+	}
+
+	private static void add(
+			Map<Integer, ImmutableSortedSet.Builder<String>> byJar, int jarId,
+			String className) {
+		ImmutableSortedSet.Builder<String> classNames = byJar.get(jarId);
+		if (classNames == null) {
+			classNames = ImmutableSortedSet.naturalOrder();
+			byJar.put(jarId, classNames);
+		}
+		classNames.add(className);
+	}
+
+	private SortedMap<JarFileDescription, SortedSet<String>> build(
+			Map<Integer, ImmutableSortedSet.Builder<String>> byJar) {
+		SortedMap<JarFileDescription, SortedSet<String>> classNamesByJar = new TreeMap<JarFileDescription, SortedSet<String>>();
+		for (Map.Entry<Integer, ImmutableSortedSet.Builder<String>> entry : byJar
+				.entrySet()) {
+			classNamesByJar.put(jarLibs.get(entry.getKey()), entry.getValue()
+					.build());
+		}
+		return classNamesByJar;
+	}
+
+	/**
+	 * @return the IDs of the classes matching the entry points
+	 */
+	private List<Integer> resolve(Collection<String> entryPoints)
+			throws IllegalArgumentException {
+		List<Integer> classIds = new ArrayList<Integer>();
+		for (String entryPoint : entryPoints) {
+			boolean subpackages = entryPoint.endsWith(".**");
+			if (subpackages || entryPoint.endsWith(".*")) {
+				String prefix = entryPoint.substring(0,
+						entryPoint.lastIndexOf(".*") + 1);
+				for (int classId = 0; classId < firstBlocks.length; classId++) {
+					if (firstBlocks[classId] < 0) {
+						continue; // not contained or not even assigned
+					}
+					String className = classSymbols.getName(classId);
+					if (className.startsWith(prefix)
+							&& (subpackages || className.indexOf('.',
+									prefix.length()) < 0)) {
+						classIds.add(classId);
+					}
+				}
+			} else {
+				int classId = classSymbols.getId(entryPoint);
+				isTrue(classId >= 0 && getFirstBlock(classId) >= 0,
+						"no jar contains the entry point %s", entryPoint);
+				classIds.add(classId);
+			}
+		}
+		return classIds;
+	}
+
+	private void checkBuilt() throws IllegalStateException {
+		if (!built) {
+			throw new IllegalStateException("the graph hasn't been built yet");
+		}
+	}
+
+	/**
+	 * Runs the tasks on the worker threads or, with a single thread, on the
+	 * calling thread.
+	 */
+	private void run(List<Callable<Void>> tasks) throws IOException {
+		ExecutorService executor = threads == 1 ? null : Executors
+				.newFixedThreadPool(threads);
+		try {
+			if (executor == null) {
+				for (Callable<Void> task : tasks) {
+					task.call();
+				}
+			} else {
+				List<Future<Void>> futures = new ArrayList<Future<Void>>();
+				for (Callable<Void> task : tasks) {
+					futures.add(executor.submit(task));
+				}
+				for (Future<Void> future : futures) {
+					future.get();
+				}
+			}
+		} catch (ExecutionException e) {
+			throw rethrow(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while reading the classes", e);
+		} catch (Exception e) {
+			throw rethrow(e);
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	private static IOException rethrow(Throwable t) {
+		if (t instanceof IOException) {
+			return (IOException) t;
+		}
+		if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		}
+		if (t instanceof Error) {
+			throw (Error) t;
+		}
+		return new IOException(t);
+	}
+
+	/**
+	 * The class files of a single jar-file, collected before they are added
+	 * to the graph.
+	 */
+	private static final class ClassFiles {
+
+		private int[] classIds = new int[64];
+		private int[] starts = new int[64];
+		private final BitSet unparsed = new BitSet();
+		private int classCount;
+		private int[] references = new int[256];
+		private int referenceCount;
+
+		private void addClass(int classId, boolean parsed) {
+			classIds = ensureCapacity(classIds, classCount + 1);
+			starts = ensureCapacity(starts, classCount + 1);
+			classIds[classCount] = classId;
+			starts[classCount] = referenceCount;
+			unparsed.set(classCount, !parsed);
+			classCount++;
+		}
+
+		private void addReference(int classId) {
+			references = ensureCapacity(references, referenceCount + 1);
+			references[referenceCount++] = classId;
+		}
+	}
+
+	/**
+	 * The classes found by {@link ClassGraph#findReachable(Collection)}.
+	 */
+	public static final class Reachability {
+
+		private final SortedMap<JarFileDescription, SortedSet<String>> classNamesByJar;
+		private final SortedMap<JarFileDescription, SortedSet<String>> unparsedClassNamesByJar;
+		private final SortedSet<String> missingClassNames;
+
+		Reachability(
+				SortedMap<JarFileDescription, SortedSet<String>> classNamesByJar,
+				SortedMap<JarFileDescription, SortedSet<String>> unparsedClassNamesByJar,
+				SortedSet<String> missingClassNames) {
+			this.classNamesByJar = classNamesByJar;
+			this.unparsedClassNamesByJar = unparsedClassNamesByJar;
+			this.missingClassNames = missingClassNames;
+		}
+
+		/**
+		 * Returns the jar-files containing reachable classes.
+		 *
+		 * @return a unmodifiable sorted set of jar-files
+		 */
+		public SortedSet<JarFileDescription> getJarLibs() {
+			return ImmutableSortedSet.copyOf(classNamesByJar.keySet());
+		}
+
+		/**
+		 * Returns the reachable classes of a jar-file.
+		 *
+		 * @param jarLib
+		 *            a jar-file of the pool
+		 * @return a unmodifiable sorted set of binary class names, may be
+		 *         empty but will never be <code>null</code>
+		 */
+		public SortedSet<String> getClassNames(JarFileDescription jarLib) {
+			SortedSet<String> classNames = classNamesByJar.get(jarLib);
+			return classNames == null ? ImmutableSortedSet.<String> of()
+					: classNames;
+		}
+
+		/**
+		 * Returns the reachable classes of a jar-file whose class files
+		 * couldn't be parsed. Their references are unknown, so the classes
+		 * they use may be missing from the reachable classes; the jar-file is
+		 * written without pruning by {@link #write(File)}.
+		 *
+		 * @param jarLib
+		 *            a jar-file of the pool
+		 * @return a unmodifiable sorted set of binary class names, may be
+		 *         empty but will never be <code>null</code>
+		 */
+		public SortedSet<String> getUnparsedClassNames(JarFileDescription jarLib) {
+			SortedSet<String> classNames = unparsedClassNamesByJar.get(jarLib);
+			return classNames == null ? ImmutableSortedSet.<String> of()
+					: classNames;
+		}
+
+		/**
+		 * Returns the reachable classes no jar-file of the pool contains,
+		 * except the classes of the JRE, see
+		 * {@link ClassNameFilters#JRE_CLASS_NAME}.
+		 *
+		 * @return a unmodifiable sorted set of binary class names, may be
+		 *         empty but will never be <code>null</code>
+		 */
+		public SortedSet<String> getMissingClassNames() {
+			return missingClassNames;
+		}
+
+		/**
+		 * Writes the jar-files containing reachable classes to a directory,
+		 * keeping only the reachable class files. All other entries are
+		 * copied as they are, including the jar-files nested in them; the
+		 * manifest keeps its main attributes, the signature is dropped. A
+		 * jar-file with reachable classes that couldn't be parsed keeps all
+		 * its class files. If several jar-files have the same name, only the
+		 * first one is written.
+		 *
+		 * @param directory
+		 *            the directory to write to, created if it doesn't exist,
+		 *            must not be <code>null</code>
+		 * @return the jar-files written
+		 * @throws IllegalArgumentException
+		 *             if <code>directory</code> is <code>null</code>
+		 * @throws IOException
+		 *             if a jar-file cannot be read or written
+		 */
+		public SortedSet<File> write(File directory)
+				throws IllegalArgumentException, IOException {
+			notNull(directory, "directory must not be null");
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("cannot create " + directory);
+			}
+
+			// nested jar-files are kept by their containers
+			SortedSet<JarFileDescription> containers = new TreeSet<JarFileDescription>();
+			for (JarFileDescription jfd : classNamesByJar.keySet()) {
+				while (jfd.getContainer() != null) {
+					jfd = jfd.getContainer();
+				}
+				containers.add(jfd);
+			}
+
+			ImmutableSortedSet.Builder<File> written = ImmutableSortedSet
+					.naturalOrder();
+			Set<String> names = new HashSet<String>();
+			for (JarFileDescription jfd : containers) {
+				File target = new File(directory, jfd.getFile().getName());
+				if (names.add(target.getName())) {
+					write(jfd, target);
+					written.add(target);
+				}
+			}
+			return written.build();
+		}
+
+		private void write(JarFileDescription jfd, File target)
+				throws IOException {
+			Manifest manifest = jfd.getManifest();
+			if (manifest == null) {
+				manifest = new Manifest();
+				manifest.getMainAttributes().put(
+						Attributes.Name.MANIFEST_VERSION, "1.0");
+			}
+			manifest.getEntries().clear(); // the digests of the signature
+			ByteArrayOutputStream manifestBytes = new ByteArrayOutputStream();
+			manifest.write(manifestBytes);
+
+			final SortedSet<String> classNames = getClassNames(jfd);
+			final boolean pruned = getUnparsedClassNames(jfd).isEmpty();
+			File tmpFile = new File(target.getPath() + ".tmp");
+			try {
+				JarRewriter.rewrite(jfd.getFile(), tmpFile,
+						manifestBytes.toByteArray(), new Predicate<String>() {
+							public boolean apply(String name) {
+								if (!pruned || !name.endsWith(".class")
+										|| name.startsWith("META-INF/")) {
+									return true;
+								}
+								String className = name.substring(0,
+										name.length() - ".class".length())
+										.replace('/', '.');
+								return classNames.contains(className)
+										|| className.endsWith("package-info")
+										|| className.equals("module-info");
+							}
+						});
+				if (!tmpFile.renameTo(target)) {
+					target.delete();
+					if (!tmpFile.renameTo(target)) {
+						throw new IOException("cannot write " + target);
+					}
+				}
+			} finally {
+				tmpFile.delete();
+			}
+		}
+	}
+}
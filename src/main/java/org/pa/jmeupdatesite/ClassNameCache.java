@@ -0,0 +1,94 @@
+package org.pa.jmeupdatesite;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shares the results of {@link ClassBytesUtil#findClassNames(byte[], ClassBytesUtil.Engine)}
+ * between identical class files, e.g. the copies of a class in several
+ * versions of a jar-file or in shaded jar-files. A class file is identified by
+ * the CRC-32 and the size of its zip entry, which are known without inflating
+ * it. If verification is enabled, it is additionally identified by a SHA-1
+ * hash of its content, so it has to be inflated, but not parsed.
+ * <p>
+ * The cache belongs to a run of an analysis, so all its class files are parsed
+ * by the same engine. It is dropped once the run has described its jar-files,
+ * so the names aren't held for longer than they are needed. It may be used by
+ * several threads.
+ */
+final class ClassNameCache {
+
+	private final boolean verifyContent;
+	private final ConcurrentHashMap<Key, String[]> classNames = new ConcurrentHashMap<Key, String[]>();
+
+	/**
+	 * @param verifyContent
+	 *            whether class files are identified by a hash of their content,
+	 *            too
+	 */
+	ClassNameCache(boolean verifyContent) {
+		this.verifyContent = verifyContent;
+	}
+
+	/**
+	 * @return whether class files are identified by a hash of their content,
+	 *         too
+	 */
+	boolean isVerifyContent() {
+		return verifyContent;
+	}
+
+	/**
+	 * @param crc
+	 *            the CRC-32 of the class file
+	 * @param size
+	 *            the size of the class file
+	 * @param hash
+	 *            the SHA-1 hash of the class file, only if verification is
+	 *            enabled
+	 * @return the class names found in an identical class file or
+	 *         <code>null</code> if there is none
+	 */
+	List<String> get(long crc, long size, byte[] hash) {
+		String[] names = classNames.get(new Key(crc, size, hash));
+		return names == null ? null : Arrays.asList(names);
+	}
+
+	/**
+	 * Adds the class names found in a class file.
+	 */
+	void put(long crc, long size, byte[] hash, Collection<String> names) {
+		classNames.putIfAbsent(new Key(crc, size, hash),
+				names.toArray(new String[names.size()]));
+	}
+
+	private static final class Key {
+
+		private final long crc;
+		private final long size;
+		private final byte[] hash; // may be null
+
+		private Key(long crc, long size, byte[] hash) {
+			this.crc = crc;
+			this.size = size;
+			this.hash = hash;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) crc * 31 + (int) size;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return crc == other.crc && size == other.size
+					&& Arrays.equals(hash, other.hash);
+		}
+	}
+}
@@ -0,0 +1,293 @@
+package org.pa.jmeupdatesite;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.noNullElements;
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.pa.jmeupdatesite.JarFileDependencies.Dependency;
+
+import com.google.common.collect.ImmutableSortedSet;
+
+/**
+ * Finds a small class path for a jar-file of a pool: the jar-files it
+ * depends on, directly or transitively. A one to one dependency always
+ * belongs to the class path; of the providers of a one to many dependency
+ * only one is needed. These are chosen greedily, each time the provider of
+ * the most packages still missing, so a single jar-file providing several
+ * of them is preferred to one jar-file per package.
+ * <p>
+ * The dependencies of the pool are turned into arrays of jar-file IDs and
+ * bitsets of package IDs once, so a class path is computed without resolving
+ * anything again and without touching the jar-files.
+ */
+public class ClasspathSolver {
+
+	private final JarFileDescription[] jarLibs;
+	private final Map<JarFileDescription, Integer> ids = new HashMap<JarFileDescription, Integer>();
+	private final BitSet[] requiredJars; // by one to one dependencies
+	private final BitSet[] choicePackages; // of one to many dependencies
+	private final int[] costs; // the number of dependencies
+	private final BitSet[] providedPackages;
+	private final int[][] providersByPackage;
+	private final List<Set<String>> unresolvedPackages;
+
+	/**
+	 * Creates a solver for the dependencies of a pool.
+	 *
+	 * @param dependencies
+	 *            the dependencies of every jar-file of the pool, must not be
+	 *            <code>null</code> or contain <code>null</code>
+	 * @param packageSymbols
+	 *            the table of the package names of the pool, must not be
+	 *            <code>null</code>
+	 * @throws IllegalArgumentException
+	 *             if <code>dependencies</code> is or contains
+	 *             <code>null</code> or <code>packageSymbols</code> is
+	 *             <code>null</code>
+	 */
+	public ClasspathSolver(Collection<JarFileDependencies> dependencies,
+			SymbolTable packageSymbols) throws IllegalArgumentException {
+		noNullElements(notNull(dependencies, "dependencies must not be null"),
+				"dependencies must not contain null");
+		notNull(packageSymbols, "package symbols must not be null");
+
+		// IDs in the order of the files, so ties are broken the same way
+		// in every run
+		SortedSet<JarFileDescription> sorted = new TreeSet<JarFileDescription>();
+		for (JarFileDependencies deps : dependencies) {
+			sorted.add(deps.getJarLib());
+		}
+		jarLibs = sorted.toArray(new JarFileDescription[sorted.size()]);
+		for (int id = 0; id < jarLibs.length; id++) {
+			ids.put(jarLibs[id], id);
+		}
+
+		requiredJars = new BitSet[jarLibs.length];
+		choicePackages = new BitSet[jarLibs.length];
+		costs = new int[jarLibs.length];
+		providedPackages = new BitSet[jarLibs.length];
+		unresolvedPackages = new ArrayList<Set<String>>(
+				Collections.<Set<String>> nCopies(jarLibs.length, null));
+		List<List<Integer>> providers = new ArrayList<List<Integer>>();
+		for (JarFileDependencies deps : dependencies) {
+			int id = ids.get(deps.getJarLib());
+			requiredJars[id] = new BitSet(jarLibs.length);
+			for (Dependency dep : deps.getOneToOneDependencies()) {
+				Integer providerId = ids.get(dep.getSingleToDesc());
+				if (providerId != null) {
+					requiredJars[id].set(providerId);
+				}
+			}
+
+			choicePackages[id] = new BitSet();
+			for (Dependency dep : deps.getOneToManyDependencies()) {
+				for (String packageName : dep.getPackages()) {
+					choicePackages[id].set(packageSymbols.intern(packageName));
+				}
+			}
+
+			costs[id] = requiredJars[id].cardinality()
+					+ choicePackages[id].cardinality();
+
+			providedPackages[id] = new BitSet();
+			for (String packageName : deps.getJarLib().getProvidedPackages()) {
+				int packageId = packageSymbols.intern(packageName);
+				providedPackages[id].set(packageId);
+				while (providers.size() <= packageId) {
+					providers.add(null);
+				}
+				if (providers.get(packageId) == null) {
+					providers.set(packageId, new ArrayList<Integer>());
+				}
+				providers.get(packageId).add(id);
+			}
+
+			unresolvedPackages.set(id, deps.getUnresolvedPackages());
+		}
+		providersByPackage = new int[providers.size()][];
+		for (int packageId = 0; packageId < providersByPackage.length; packageId++) {
+			providersByPackage[packageId] = providers.get(packageId) == null ? new int[0]
+					: toArray(providers.get(packageId));
+		}
+	}
+
+	private static int[] toArray(List<Integer> list) {
+		int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = list.get(i);
+		}
+		return array;
+	}
+
+	/**
+	 * Computes the class path of a jar-file of the pool. Starting with its
+	 * one to one dependencies, all one to one dependencies of the jar-files
+	 * on the class path are added. Then, as long as a package of a one to
+	 * many dependency isn't provided by the class path, the provider of the
+	 * most of these packages is added, preferring the provider using fewer
+	 * packages itself and then the first by its file.
+	 *
+	 * @param jarLib
+	 *            a jar-file of the pool, must not be <code>null</code>
+	 * @return the class path, without the jar-file itself
+	 * @throws IllegalArgumentException
+	 *             if <code>jarLib</code> is <code>null</code> or isn't part
+	 *             of the pool
+	 */
+	public Classpath solve(JarFileDescription jarLib)
+			throws IllegalArgumentException {
+		Integer root = ids.get(notNull(jarLib, "jarLib must not be null"));
+		isTrue(root != null, "not part of the pool: %s", jarLib);
+
+		BitSet chosen = new BitSet(jarLibs.length);
+		BitSet needed = new BitSet();
+		BitSet provided = new BitSet();
+		Deque<Integer> queue = new ArrayDeque<Integer>();
+		add(root, chosen, needed, provided, queue);
+		BitSet added = new BitSet(jarLibs.length);
+		int[] scores = new int[jarLibs.length];
+		while (true) {
+			// the closure of the one to one dependencies, visiting only the
+			// jar-files not chosen yet instead of every dependency
+			while (!queue.isEmpty()) {
+				added.clear();
+				added.or(requiredJars[queue.poll()]);
+				added.andNot(chosen);
+				for (int required = added.nextSetBit(0); required >= 0; required = added
+						.nextSetBit(required + 1)) {
+					add(required, chosen, needed, provided, queue);
+				}
+			}
+
+			BitSet missing = (BitSet) needed.clone();
+			missing.andNot(provided);
+			if (missing.isEmpty()) {
+				break;
+			}
+
+			// none of the providers of a missing package is chosen yet
+			int best = -1;
+			for (int packageId = missing.nextSetBit(0); packageId >= 0; packageId = missing
+					.nextSetBit(packageId + 1)) {
+				for (int provider : getProviders(packageId)) {
+					scores[provider]++;
+					if (best < 0 || isBetter(provider, best, scores)) {
+						best = provider;
+					}
+				}
+			}
+			for (int packageId = missing.nextSetBit(0); packageId >= 0; packageId = missing
+					.nextSetBit(packageId + 1)) {
+				for (int provider : getProviders(packageId)) {
+					scores[provider] = 0;
+				}
+			}
+			if (best < 0) { // not provided by the pool anymore
+				break;
+			}
+			add(best, chosen, needed, provided, queue);
+		}
+
+		chosen.clear(root);
+		ImmutableSortedSet.Builder<JarFileDescription> classpath = ImmutableSortedSet
+				.naturalOrder();
+		ImmutableSortedSet.Builder<String> unresolved = ImmutableSortedSet
+				.naturalOrder();
+		unresolved.addAll(unresolvedPackages.get(root));
+		for (int id = chosen.nextSetBit(0); id >= 0; id = chosen
+				.nextSetBit(id + 1)) {
+			classpath.add(jarLibs[id]);
+			unresolved.addAll(unresolvedPackages.get(id));
+		}
+		return new Classpath(jarLib, classpath.build(), unresolved.build());
+	}
+
+	private int[] getProviders(int packageId) {
+		return packageId < providersByPackage.length ? providersByPackage[packageId]
+				: new int[0];
+	}
+
+	private void add(int id, BitSet chosen, BitSet needed, BitSet provided,
+			Deque<Integer> queue) {
+		chosen.set(id);
+		needed.or(choicePackages[id]);
+		provided.or(providedPackages[id]);
+		queue.add(id);
+	}
+
+	/**
+	 * @return whether a provider covers more missing packages than another,
+	 *         or as many but needs fewer packages itself or comes first
+	 */
+	private boolean isBetter(int provider, int other, int[] scores) {
+		if (scores[provider] != scores[other]) {
+			return scores[provider] > scores[other];
+		}
+		if (costs[provider] != costs[other]) {
+			return costs[provider] < costs[other];
+		}
+		return provider < other;
+	}
+
+	/**
+	 * The class path of a jar-file computed by
+	 * {@link ClasspathSolver#solve(JarFileDescription)}.
+	 */
+	public static final class Classpath {
+
+		private final JarFileDescription jarLib;
+		private final SortedSet<JarFileDescription> jarLibs;
+		private final SortedSet<String> unresolvedPackages;
+
+		Classpath(JarFileDescription jarLib,
+				SortedSet<JarFileDescription> jarLibs,
+				SortedSet<String> unresolvedPackages) {
+			this.jarLib = jarLib;
+			this.jarLibs = jarLibs;
+			this.unresolvedPackages = unresolvedPackages;
+		}
+
+		/**
+		 * Returns the jar-file the class path belongs to.
+		 *
+		 * @return the jar-file
+		 */
+		public JarFileDescription getJarLib() {
+			return jarLib;
+		}
+
+		/**
+		 * Returns the jar-files of the class path, without the jar-file it
+		 * belongs to.
+		 *
+		 * @return a unmodifiable sorted set of jar-files
+		 */
+		public SortedSet<JarFileDescription> getJarLibs() {
+			return jarLibs;
+		}
+
+		/**
+		 * Returns the packages used by the jar-files of the class path, or
+		 * the jar-file itself, which no jar-file of the pool provides.
+		 *
+		 * @return a unmodifiable sorted set of package names, may be empty
+		 *         but will never be <code>null</code>
+		 */
+		public SortedSet<String> getUnresolvedPackages() {
+			return unresolvedPackages;
+		}
+	}
+}
@@ -0,0 +1,266 @@
+package org.pa.jmeupdatesite;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Extracts referenced class names directly from the bytes of a class file.
+ * Only the constant pool, the field and method descriptors, the generic
+ * signatures and the annotations are read; method bodies are skipped without
+ * being decoded. See
+ * {@link ClassBytesUtil.Engine#CONSTANT_POOL}.
+ */
+final class ConstantPoolScanner {
+
+	private static final int MAGIC = 0xcafebabe;
+
+	private final byte[] b;
+	private final DescriptorParser parser;
+	private int[] offsets; // offset of each constant pool entry behind its tag
+	private char[] chars = new char[64];
+
+	private ConstantPoolScanner(byte[] b, Set<String> result) {
+		this.b = b;
+		this.parser = new DescriptorParser(result);
+	}
+
+	/**
+	 * Adds the binary names of all classes referenced by the class file to
+	 * the set.
+	 *
+	 * @param b
+	 *            the bytes of a single class file
+	 * @param result
+	 *            the set to add the class names to
+	 * @throws IOException
+	 *             if the bytes are no valid class file
+	 */
+	static void findClassNames(byte[] b, Set<String> result)
+			throws IOException {
+		try {
+			new ConstantPoolScanner(b, result).scan();
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IOException("truncated class file", e);
+		}
+	}
+
+	private void scan() throws IOException {
+		if (readInt(0) != MAGIC) {
+			throw new IOException("not a class file");
+		}
+
+		int pos = readConstantPool(8);
+
+		// access flags, this class, super class and interfaces are constant
+		// pool classes, which have already been read
+		pos += 6;
+		pos += 2 + 2 * readUnsignedShort(pos);
+
+		// fields and methods
+		for (int i = 0; i < 2; i++) {
+			int count = readUnsignedShort(pos);
+			pos += 2;
+			for (; count > 0; count--) {
+				addDescriptor(readUnsignedShort(pos + 4));
+				pos = readAttributes(pos + 6);
+			}
+		}
+
+		readAttributes(pos);
+	}
+
+	/**
+	 * Records the offsets of all constant pool entries and adds classes,
+	 * name-and-type descriptors and method types.
+	 *
+	 * @return the position behind the constant pool
+	 */
+	private int readConstantPool(int pos) throws IOException {
+		int count = readUnsignedShort(pos);
+		pos += 2;
+		offsets = new int[count];
+		byte[] tags = new byte[count];
+		for (int i = 1; i < count; i++) {
+			tags[i] = b[pos];
+			offsets[i] = pos + 1;
+			switch (b[pos]) {
+			case 1: // Utf8
+				pos += 3 + readUnsignedShort(pos + 1);
+				break;
+			case 3: // Integer
+			case 4: // Float
+			case 9: // Fieldref
+			case 10: // Methodref
+			case 11: // InterfaceMethodref
+			case 12: // NameAndType
+			case 17: // Dynamic
+			case 18: // InvokeDynamic
+				pos += 5;
+				break;
+			case 5: // Long
+			case 6: // Double
+				pos += 9;
+				i++;
+				break;
+			case 7: // Class
+			case 8: // String
+			case 16: // MethodType
+			case 19: // Module
+			case 20: // Package
+				pos += 3;
+				break;
+			case 15: // MethodHandle
+				pos += 4;
+				break;
+			default:
+				throw new IOException("unknown constant pool tag " + b[pos]);
+			}
+		}
+
+		for (int i = 1; i < count; i++) {
+			switch (tags[i]) {
+			case 7:
+				int length = decodeUtf8(readUnsignedShort(offsets[i]));
+				parser.parseInternalName(chars, 0, length);
+				break;
+			case 12:
+				addDescriptor(readUnsignedShort(offsets[i] + 2));
+				break;
+			case 16:
+				addDescriptor(readUnsignedShort(offsets[i]));
+				break;
+			}
+		}
+		return pos;
+	}
+
+	/**
+	 * Reads the attributes starting at the specified position and adds the
+	 * types of generic signatures and annotations.
+	 *
+	 * @return the position behind the attributes
+	 */
+	private int readAttributes(int pos) {
+		int count = readUnsignedShort(pos);
+		pos += 2;
+		for (; count > 0; count--) {
+			String name = readUtf8(readUnsignedShort(pos));
+			int length = readInt(pos + 2);
+			pos += 6;
+			if (name.equals("Signature")) {
+				int signatureLength = decodeUtf8(readUnsignedShort(pos));
+				parser.parseSignature(chars, 0, signatureLength);
+			} else if (name.equals("RuntimeVisibleAnnotations")
+					|| name.equals("RuntimeInvisibleAnnotations")) {
+				readAnnotations(pos);
+			} else if (name.equals("RuntimeVisibleParameterAnnotations")
+					|| name.equals("RuntimeInvisibleParameterAnnotations")) {
+				int annotationsPos = pos + 1;
+				for (int i = b[pos] & 0xff; i > 0; i--) {
+					annotationsPos = readAnnotations(annotationsPos);
+				}
+			} else if (name.equals("AnnotationDefault")) {
+				readElementValue(pos);
+			}
+			pos += length;
+		}
+		return pos;
+	}
+
+	private int readAnnotations(int pos) {
+		int count = readUnsignedShort(pos);
+		pos += 2;
+		for (; count > 0; count--) {
+			pos = readAnnotation(pos);
+		}
+		return pos;
+	}
+
+	private int readAnnotation(int pos) {
+		addDescriptor(readUnsignedShort(pos));
+		int count = readUnsignedShort(pos + 2);
+		pos += 4;
+		for (; count > 0; count--) {
+			pos = readElementValue(pos + 2);
+		}
+		return pos;
+	}
+
+	private int readElementValue(int pos) {
+		switch (b[pos]) {
+		case 'e':
+			addDescriptor(readUnsignedShort(pos + 1));
+			return pos + 5;
+		case 'c':
+			addDescriptor(readUnsignedShort(pos + 1));
+			return pos + 3;
+		case '@':
+			return readAnnotation(pos + 1);
+		case '[':
+			int count = readUnsignedShort(pos + 1);
+			pos += 3;
+			for (; count > 0; count--) {
+				pos = readElementValue(pos);
+			}
+			return pos;
+		default:
+			return pos + 3;
+		}
+	}
+
+	/**
+	 * Adds the classes of the descriptor stored in the constant pool entry.
+	 */
+	private void addDescriptor(int index) {
+		int length = decodeUtf8(index);
+		parser.parseDescriptor(chars, 0, length);
+	}
+
+	private int readUnsignedShort(int pos) {
+		return ((b[pos] & 0xff) << 8) | (b[pos + 1] & 0xff);
+	}
+
+	private int readInt(int pos) {
+		return ((b[pos] & 0xff) << 24) | ((b[pos + 1] & 0xff) << 16)
+				| ((b[pos + 2] & 0xff) << 8) | (b[pos + 3] & 0xff);
+	}
+
+	/**
+	 * Decodes the modified UTF-8 string of a constant pool entry.
+	 */
+	private String readUtf8(int index) {
+		int length = decodeUtf8(index);
+		return new String(chars, 0, length);
+	}
+
+	/**
+	 * Decodes the modified UTF-8 string of a constant pool entry into the
+	 * character buffer.
+	 *
+	 * @return the number of decoded characters
+	 */
+	private int decodeUtf8(int index) {
+		int pos = offsets[index];
+		int length = readUnsignedShort(pos);
+		pos += 2;
+		int end = pos + length;
+		if (chars.length < length) {
+			// callers must read the field after decoding
+			chars = new char[length];
+		}
+		int n = 0;
+		while (pos < end) {
+			int c = b[pos++] & 0xff;
+			if (c < 0x80) {
+				chars[n++] = (char) c;
+			} else if (c < 0xe0) {
+				chars[n++] = (char) (((c & 0x1f) << 6) | (b[pos++] & 0x3f));
+			} else {
+				chars[n++] = (char) (((c & 0x0f) << 12)
+						| ((b[pos] & 0x3f) << 6) | (b[pos + 1] & 0x3f));
+				pos += 2;
+			}
+		}
+		return n;
+	}
+}
@@ -0,0 +1,83 @@
+package org.pa.jmeupdatesite;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+
+import org.pa.jmeupdatesite.JarFileDependencies.Dependency;
+
+/**
+ * Writes a row per package dependency and providing jar-file:
+ * <code>jar,kind,package,provider</code>. The kind is
+ * <code>one-to-one</code>, <code>one-to-many</code> or
+ * <code>unresolved</code>; unresolved packages have an empty provider. The
+ * identical copies of a jar-file are listed as rows of the kind
+ * <code>duplicate</code> with an empty package and the copy as provider.
+ * Jar-files without dependencies and duplicates have no rows. Fields are
+ * quoted as described in RFC 4180 if necessary.
+ */
+public class CsvReportWriter extends AbstractReportWriter {
+
+	/**
+	 * Creates a CSV report writer.
+	 *
+	 * @param out
+	 *            the writer to write the report to, must not be
+	 *            <code>null</code>
+	 */
+	public CsvReportWriter(Writer out) {
+		super(out);
+	}
+
+	@Override
+	public void startReport(Collection<File> jarFiles) throws IOException {
+		writeLine("jar,kind,package,provider");
+	}
+
+	public void writeDependencies(JarFileDependencies deps) throws IOException {
+		String jar = deps.getJarLib().getName();
+		for (Dependency dep : getOneToOne(deps)) {
+			String provider = dep.getSingleToDesc().getName();
+			for (String p : sorted(dep.getPackages())) {
+				writeRow(jar, "one-to-one", p, provider);
+			}
+		}
+		for (Dependency dep : getOneToMany(deps)) {
+			String p = getPackage(dep);
+			for (JarFileDescription provider : sortedJarLibs(dep
+					.getToDescSet())) {
+				writeRow(jar, "one-to-many", p, provider.getName());
+			}
+		}
+		for (String p : sorted(deps.getUnresolvedPackages())) {
+			writeRow(jar, "unresolved", p, "");
+		}
+		for (JarFileDescription duplicate : deps.getJarLib().getDuplicates()) {
+			writeRow(jar, "duplicate", "", duplicate.getName());
+		}
+	}
+
+	private void writeRow(String jar, String kind, String packageName,
+			String provider) throws IOException {
+		writeField(jar);
+		out.write(',');
+		out.write(kind);
+		out.write(',');
+		writeField(packageName);
+		out.write(',');
+		writeField(provider);
+		writeLine("");
+	}
+
+	private void writeField(String field) throws IOException {
+		if (field.indexOf(',') < 0 && field.indexOf('"') < 0
+				&& field.indexOf('\n') < 0 && field.indexOf('\r') < 0) {
+			out.write(field);
+		} else {
+			out.write('"');
+			out.write(field.replace("\"", "\"\""));
+			out.write('"');
+		}
+	}
+}
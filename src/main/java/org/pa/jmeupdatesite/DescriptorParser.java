@@ -0,0 +1,274 @@
+package org.pa.jmeupdatesite;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.util.Set;
+
+/**
+ * Finds the classes named in type descriptors, method descriptors, generic
+ * signatures and internal class names as defined by the Java Virtual Machine
+ * Specification. The characters are walked in place; the only buffers are
+ * reused for every parsed string, so the parser allocates nothing unless the
+ * handler does.
+ * <p>
+ * Class names are passed to the handler as binary names with '.' as package
+ * separator and '$' as inner class separator. A parser isn't thread-safe.
+ */
+final class DescriptorParser {
+
+	/**
+	 * Receives the class names found by a {@link DescriptorParser}.
+	 */
+	interface Handler {
+
+		/**
+		 * Called for each class name found. The characters are only valid
+		 * during the call.
+		 *
+		 * @param chars
+		 *            the buffer containing the binary class name
+		 * @param offset
+		 *            the start of the class name in the buffer
+		 * @param length
+		 *            the length of the class name
+		 * @param packageLength
+		 *            the length of the package name, <code>-1</code> if the
+		 *            class is in the default package
+		 */
+		void className(char[] chars, int offset, int length, int packageLength);
+	}
+
+	private final Handler handler;
+	private char[] in = new char[128]; // copy of parsed strings
+	private char[] name = new char[128]; // class names being built
+	private char[] s; // the parsed characters
+	private int end; // the end of the parsed characters
+
+	/**
+	 * Creates a parser passing every found class name to the handler.
+	 *
+	 * @param handler
+	 *            the handler, must not be <code>null</code>
+	 */
+	DescriptorParser(Handler handler) {
+		this.handler = notNull(handler, "handler must not be null");
+	}
+
+	/**
+	 * Creates a parser adding every found class name to the set.
+	 *
+	 * @param result
+	 *            the set, must not be <code>null</code>
+	 */
+	DescriptorParser(final Set<String> result) {
+		this(new Handler() {
+			public void className(char[] chars, int offset, int length,
+					int packageLength) {
+				result.add(new String(chars, offset, length));
+			}
+		});
+		notNull(result, "result must not be null");
+	}
+
+	/**
+	 * Parses a field or method descriptor like <code>[Ljava/lang/String;</code>
+	 * or <code>(ILjava/util/List;)V</code>. Does nothing for
+	 * <code>null</code>.
+	 */
+	void parseDescriptor(String desc) {
+		if (desc != null) {
+			parseDescriptor(copy(desc), 0, desc.length());
+		}
+	}
+
+	/**
+	 * Parses a field or method descriptor stored in a character array.
+	 */
+	void parseDescriptor(char[] chars, int offset, int length) {
+		s = chars;
+		end = offset + length;
+		int i = offset;
+		while (i < end) {
+			i = s[i] == 'L' ? classType(i, 0) : i + 1;
+		}
+	}
+
+	/**
+	 * Parses a class, field or method signature like
+	 * <code>&lt;T:Ljava/lang/Object;&gt;Ljava/util/List&lt;TT;&gt;;</code>. Does
+	 * nothing for <code>null</code>.
+	 */
+	void parseSignature(String signature) {
+		if (signature != null) {
+			parseSignature(copy(signature), 0, signature.length());
+		}
+	}
+
+	/**
+	 * Parses a class, field or method signature stored in a character array.
+	 */
+	void parseSignature(char[] chars, int offset, int length) {
+		s = chars;
+		end = offset + length;
+		int i = offset;
+		if (i < end && s[i] == '<') {
+			i = typeParameters(i);
+		}
+		// behind the type parameters each position starts a type, except for
+		// the separators of method signatures
+		while (i < end) {
+			switch (s[i]) {
+			case 'L':
+				i = classType(i, 0);
+				break;
+			case 'T':
+				i = skipTo(i, ';') + 1;
+				break;
+			default: // ( ) ^ [ and base types
+				i++;
+			}
+		}
+	}
+
+	/**
+	 * Parses an internal class name like <code>java/lang/String</code> or an
+	 * array descriptor as found in constant pool classes, stored in a
+	 * character array.
+	 */
+	void parseInternalName(char[] chars, int offset, int length) {
+		if (length > 0 && chars[offset] == '[') {
+			parseDescriptor(chars, offset, length);
+			return;
+		}
+		ensureNameCapacity(length);
+		int packageLength = -1;
+		for (int i = 0; i < length; i++) {
+			char c = chars[offset + i];
+			if (c == '/') {
+				c = '.';
+				packageLength = i;
+			}
+			name[i] = c;
+		}
+		if (length > 0) {
+			handler.className(name, 0, length, packageLength);
+		}
+	}
+
+	/**
+	 * Parses a class type signature <code>Lpkg/Outer&lt;...&gt;.Inner;</code>
+	 * starting at <code>i</code> and builds its name in the name buffer
+	 * starting at <code>base</code>, behind the names of enclosing types. The
+	 * parameterized outer class is passed to the handler, too.
+	 *
+	 * @return the position behind the class type
+	 */
+	private int classType(int i, int base) {
+		int length = 0;
+		int packageLength = -1;
+		i++; // L
+		while (i < end) {
+			char c = s[i];
+			switch (c) {
+			case ';':
+				handler.className(name, base, length, packageLength);
+				return i + 1;
+			case '<':
+				i = typeArguments(i, base + length);
+				continue;
+			case '/':
+				packageLength = length;
+				c = '.';
+				break;
+			case '.': // inner class of a parameterized type
+				handler.className(name, base, length, packageLength);
+				c = '$';
+				break;
+			}
+			ensureNameCapacity(base + length + 1);
+			name[base + length++] = c;
+			i++;
+		}
+		// not terminated, no valid class type
+		return i;
+	}
+
+	/**
+	 * @return the position behind the type arguments starting at
+	 *         <code>i</code>
+	 */
+	private int typeArguments(int i, int base) {
+		i++; // <
+		while (i < end && s[i] != '>') {
+			char c = s[i];
+			if (c == '*') {
+				i++;
+			} else {
+				i = referenceType(c == '+' || c == '-' ? i + 1 : i, base);
+			}
+		}
+		return i + 1;
+	}
+
+	/**
+	 * @return the position behind the type parameters starting at
+	 *         <code>i</code>
+	 */
+	private int typeParameters(int i) {
+		i++; // <
+		while (i < end && s[i] != '>') {
+			i = skipTo(i, ':'); // identifier
+			while (i < end && s[i] == ':') {
+				i++;
+				if (i < end && s[i] != ':' && s[i] != '>') {
+					i = referenceType(i, 0);
+				}
+			}
+		}
+		return i + 1;
+	}
+
+	/**
+	 * @return the position behind the class type, type variable or array type
+	 *         starting at <code>i</code>
+	 */
+	private int referenceType(int i, int base) {
+		while (i < end && s[i] == '[') {
+			i++;
+		}
+		if (i >= end) {
+			return i;
+		}
+		switch (s[i]) {
+		case 'L':
+			return classType(i, base);
+		case 'T':
+			return skipTo(i, ';') + 1;
+		default: // base type of an array
+			return i + 1;
+		}
+	}
+
+	private int skipTo(int i, char c) {
+		while (i < end && s[i] != c) {
+			i++;
+		}
+		return i;
+	}
+
+	private char[] copy(String string) {
+		if (in.length < string.length()) {
+			in = new char[Math.max(string.length(), in.length * 2)];
+		}
+		string.getChars(0, string.length(), in, 0);
+		return in;
+	}
+
+	private void ensureNameCapacity(int capacity) {
+		if (name.length < capacity) {
+			char[] newName = new char[Math.max(capacity, name.length * 2)];
+			System.arraycopy(name, 0, newName, 0, name.length);
+			name = newName;
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package org.pa.jmeupdatesite;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+
+import org.pa.jmeupdatesite.JarFileDependencies.Dependency;
+
+/**
+ * Writes a Graphviz graph with a node per jar-file. A one to one dependency
+ * is a solid edge labeled with the number of packages, a one to many
+ * dependency a dashed edge to each providing jar-file labeled with the
+ * package. Jar-files with unresolved packages are drawn red.
+ */
+public class DotReportWriter extends AbstractReportWriter {
+
+	/**
+	 * Creates a DOT report writer.
+	 *
+	 * @param out
+	 *            the writer to write the report to, must not be
+	 *            <code>null</code>
+	 */
+	public DotReportWriter(Writer out) {
+		super(out);
+	}
+
+	@Override
+	public void startReport(Collection<File> jarFiles) throws IOException {
+		writeLine("digraph pool {");
+		writeLine("  node [shape=box];");
+	}
+
+	public void writeDependencies(JarFileDependencies deps) throws IOException {
+		String jar = quote(deps.getJarLib().getName());
+		if (deps.getUnresolvedPackages().isEmpty()) {
+			writeLine("  " + jar + ";");
+		} else {
+			writeLine("  " + jar + " [color=red, tooltip="
+					+ quote(deps.getUnresolvedPackages().size()
+							+ " unresolved packages") + "];");
+		}
+		for (Dependency dep : getOneToOne(deps)) {
+			writeLine("  " + jar + " -> "
+					+ quote(dep.getSingleToDesc().getName())
+					+ " [label=" + dep.getPackages().size() + "];");
+		}
+		for (Dependency dep : getOneToMany(deps)) {
+			String label = quote(getPackage(dep));
+			for (JarFileDescription to : sortedJarLibs(dep.getToDescSet())) {
+				writeLine("  " + jar + " -> " + quote(to.getName())
+						+ " [style=dashed, label=" + label + "];");
+			}
+		}
+	}
+
+	@Override
+	public void endReport() throws IOException {
+		writeLine("}");
+		super.endReport();
+	}
+
+	private static String quote(String id) {
+		return "\"" + id.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+}
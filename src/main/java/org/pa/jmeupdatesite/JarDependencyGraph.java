@@ -0,0 +1,511 @@
+package org.pa.jmeupdatesite;
+
+import static org.apache.commons.lang3.Validate.noNullElements;
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.pa.jmeupdatesite.JarFileDependencies.Dependency;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * The dependencies between all jar-files of a pool. A jar-file depends on
+ * another one if the other one provides a package it depends on; split
+ * packages make a jar-file depend on every provider. The graph is built
+ * either from a package index or from the resolved dependencies, which may
+ * resolve split packages class by class.
+ * <p>
+ * The jar-files are the nodes <code>0..size()-1</code> of the graph, ordered
+ * like the jar-files. The edges are stored as compact adjacency arrays, so
+ * the graph is built and traversed in time linear to the number of package
+ * dependencies, even for pools with thousands of jar-files. The strongly
+ * connected components are computed once, on first use.
+ */
+public class JarDependencyGraph {
+
+	private final JarFileDescription[] jarLibs; // by node
+	private final Map<JarFileDescription, Integer> nodes = new HashMap<JarFileDescription, Integer>();
+	private final int[] edgeOffsets; // edges of node n: [edgeOffsets[n], edgeOffsets[n+1])
+	private final int[] edgeTargets; // sorted per node
+	private final int[] edgePackages; // number of packages per edge
+	private final int packageEdgeCount;
+
+	/*
+	 * cached results
+	 */
+	private volatile int[] componentOfNode;
+	private volatile List<Set<JarFileDescription>> components;
+	private volatile List<Set<JarFileDescription>> layers;
+
+	/**
+	 * Creates the graph of the jar-files of a package index, resolving every
+	 * package at package level.
+	 *
+	 * @param packageIndex
+	 *            the index of the pool, must not be <code>null</code>
+	 * @throws IllegalArgumentException
+	 *             if <code>packageIndex</code> is <code>null</code>
+	 */
+	public JarDependencyGraph(PackageIndex packageIndex)
+			throws IllegalArgumentException {
+		notNull(packageIndex, "package index must not be null");
+		jarLibs = new TreeSet<JarFileDescription>(packageIndex.getJarLibs())
+				.toArray(new JarFileDescription[0]);
+		for (int node = 0; node < jarLibs.length; node++) {
+			nodes.put(jarLibs[node], node);
+		}
+
+		SymbolTable packageSymbols = packageIndex.getPackageSymbols();
+		Edges edges = new Edges(jarLibs.length);
+		for (int node = 0; node < jarLibs.length; node++) {
+			for (String packageName : jarLibs[node].getPackageDependencies()) {
+				for (JarFileDescription provider : packageIndex
+						.getProviders(packageSymbols.getId(packageName))) {
+					edges.add(node, nodes.get(provider), 1);
+				}
+			}
+			edges.endNode(node);
+		}
+		edgeOffsets = edges.offsets;
+		edgeTargets = Arrays.copyOf(edges.targets, edges.count);
+		edgePackages = Arrays.copyOf(edges.weights, edges.count);
+		packageEdgeCount = edges.packageEdges;
+	}
+
+	/**
+	 * Creates the graph of resolved dependencies, e.g. resolved class by
+	 * class, so the graph agrees with them. A one to many dependency makes a
+	 * jar-file depend on every provider, like a split package.
+	 *
+	 * @param dependencies
+	 *            the dependencies of every jar-file of the pool, must not be
+	 *            <code>null</code> or contain <code>null</code>
+	 * @throws IllegalArgumentException
+	 *             if <code>dependencies</code> is or contains
+	 *             <code>null</code>
+	 */
+	public JarDependencyGraph(Collection<JarFileDependencies> dependencies)
+			throws IllegalArgumentException {
+		noNullElements(notNull(dependencies, "dependencies must not be null"),
+				"dependencies must not contain null");
+		Map<JarFileDescription, JarFileDependencies> byJarLib = new TreeMap<JarFileDescription, JarFileDependencies>();
+		for (JarFileDependencies deps : dependencies) {
+			byJarLib.put(deps.getJarLib(), deps);
+		}
+		jarLibs = byJarLib.keySet().toArray(new JarFileDescription[0]);
+		for (int node = 0; node < jarLibs.length; node++) {
+			nodes.put(jarLibs[node], node);
+		}
+
+		Edges edges = new Edges(jarLibs.length);
+		for (int node = 0; node < jarLibs.length; node++) {
+			JarFileDependencies deps = byJarLib.get(jarLibs[node]);
+			add(edges, node, deps.getOneToOneDependencies());
+			add(edges, node, deps.getOneToManyDependencies());
+			edges.endNode(node);
+		}
+		edgeOffsets = edges.offsets;
+		edgeTargets = Arrays.copyOf(edges.targets, edges.count);
+		edgePackages = Arrays.copyOf(edges.weights, edges.count);
+		packageEdgeCount = edges.packageEdges;
+	}
+
+	private void add(Edges edges, int node, Set<Dependency> dependencies) {
+		for (Dependency dependency : dependencies) {
+			int packages = dependency.getPackages().size();
+			for (JarFileDescription provider : dependency.getToDescSet()) {
+				Integer target = nodes.get(provider);
+				if (target != null) { // not part of the pool
+					edges.add(node, target, packages);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of jar-files.
+	 *
+	 * @return the number of nodes
+	 */
+	public int size() {
+		return jarLibs.length;
+	}
+
+	/**
+	 * Returns the number of pairs of jar-files with a dependency.
+	 *
+	 * @return the number of edges
+	 */
+	public int getEdgeCount() {
+		return edgeTargets.length;
+	}
+
+	/**
+	 * Returns the number of resolved package dependencies, counting a split
+	 * package once for each provider.
+	 *
+	 * @return the number of package edges
+	 */
+	public int getPackageEdgeCount() {
+		return packageEdgeCount;
+	}
+
+	/**
+	 * Returns the jar-file of a node.
+	 *
+	 * @param node
+	 *            the node
+	 * @return the jar-file
+	 * @throws IndexOutOfBoundsException
+	 *             if there is no such node
+	 */
+	public JarFileDescription getJarLib(int node)
+			throws IndexOutOfBoundsException {
+		return jarLibs[node];
+	}
+
+	/**
+	 * Returns the node of a jar-file.
+	 *
+	 * @param jarLib
+	 *            the jar-file
+	 * @return the node or <code>-1</code> if the jar-file isn't part of the
+	 *         graph
+	 */
+	public int getNode(JarFileDescription jarLib) {
+		Integer node = nodes.get(jarLib);
+		return node == null ? -1 : node;
+	}
+
+	/**
+	 * Returns the jar-files a jar-file directly depends on.
+	 *
+	 * @param jarLib
+	 *            a jar-file of the graph
+	 * @return a unmodifiable set of jar-files ordered by their nodes
+	 * @throws IllegalArgumentException
+	 *             if the jar-file isn't part of the graph
+	 */
+	public Set<JarFileDescription> getDependencies(JarFileDescription jarLib)
+			throws IllegalArgumentException {
+		int node = checkNode(jarLib);
+		ImmutableSet.Builder<JarFileDescription> result = ImmutableSet
+				.builder();
+		for (int edge = edgeOffsets[node]; edge < edgeOffsets[node + 1]; edge++) {
+			result.add(jarLibs[edgeTargets[edge]]);
+		}
+		return result.build();
+	}
+
+	/**
+	 * Returns the number of packages by which one jar-file depends on
+	 * another.
+	 *
+	 * @param from
+	 *            the depending jar-file
+	 * @param to
+	 *            the jar-file depended on
+	 * @return the number of packages, <code>0</code> if there is no
+	 *         dependency
+	 * @throws IllegalArgumentException
+	 *             if a jar-file isn't part of the graph
+	 */
+	public int getPackageCount(JarFileDescription from, JarFileDescription to)
+			throws IllegalArgumentException {
+		int node = checkNode(from);
+		int edge = Arrays.binarySearch(edgeTargets, edgeOffsets[node],
+				edgeOffsets[node + 1], checkNode(to));
+		return edge < 0 ? 0 : edgePackages[edge];
+	}
+
+	/**
+	 * Returns all jar-files a jar-file depends on directly or indirectly, i.e.
+	 * its row of the transitive closure. Each call traverses the graph once.
+	 *
+	 * @param jarLib
+	 *            a jar-file of the graph
+	 * @return a unmodifiable set of jar-files ordered by their nodes, contains
+	 *         the jar-file itself only if it is part of a cycle
+	 * @throws IllegalArgumentException
+	 *             if the jar-file isn't part of the graph
+	 */
+	public Set<JarFileDescription> getTransitiveDependencies(
+			JarFileDescription jarLib) throws IllegalArgumentException {
+		return toJarLibs(getTransitiveDependencies(checkNode(jarLib)));
+	}
+
+	/**
+	 * Returns the nodes a node depends on directly or indirectly.
+	 *
+	 * @param node
+	 *            the node
+	 * @return a new bit set of nodes
+	 * @throws IndexOutOfBoundsException
+	 *             if there is no such node
+	 */
+	public BitSet getTransitiveDependencies(int node)
+			throws IndexOutOfBoundsException {
+		if (node < 0 || node >= jarLibs.length) {
+			throw new IndexOutOfBoundsException("no node " + node);
+		}
+		BitSet reached = new BitSet(jarLibs.length);
+		int[] queue = new int[jarLibs.length];
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = node;
+		while (head < tail) {
+			int current = queue[head++];
+			for (int edge = edgeOffsets[current]; edge < edgeOffsets[current + 1]; edge++) {
+				int target = edgeTargets[edge];
+				if (!reached.get(target)) {
+					reached.set(target);
+					if (target != node) {
+						queue[tail++] = target;
+					}
+				}
+			}
+		}
+		return reached;
+	}
+
+	/**
+	 * Returns the strongly connected components of the graph. The jar-files
+	 * of a component depend on each other directly or indirectly. The
+	 * components are ordered so each one comes after all components it
+	 * depends on.
+	 *
+	 * @return a unmodifiable list of unmodifiable sets of jar-files
+	 */
+	public List<Set<JarFileDescription>> getComponents() {
+		computeComponents();
+		return components;
+	}
+
+	/**
+	 * Returns the dependency cycles, i.e. the strongly connected components
+	 * with more than one jar-file.
+	 *
+	 * @return a unmodifiable list of unmodifiable sets of jar-files, empty if
+	 *         the graph is acyclic
+	 */
+	public List<Set<JarFileDescription>> getCycles() {
+		List<Set<JarFileDescription>> cycles = new ArrayList<Set<JarFileDescription>>();
+		for (Set<JarFileDescription> component : getComponents()) {
+			if (component.size() > 1) {
+				cycles.add(component);
+			}
+		}
+		return Collections.unmodifiableList(cycles);
+	}
+
+	/**
+	 * Returns the topological layers of the graph. The first layer contains
+	 * the jar-files without dependencies in the pool, each further layer the
+	 * jar-files which only depend on jar-files of the previous layers. The
+	 * jar-files of a cycle share a layer. Installing the layers in order
+	 * installs each jar-file after its dependencies.
+	 *
+	 * @return a unmodifiable list of unmodifiable sets of jar-files
+	 */
+	public List<Set<JarFileDescription>> getLayers() {
+		if (layers == null) {
+			computeComponents();
+			int[] componentOfNode = this.componentOfNode;
+			// components are ordered after their dependencies, so the
+			// layers of the dependencies are known when a component is reached
+			int[] layerOfComponent = new int[components.size()];
+			int layerCount = 0;
+			for (int component = 0; component < components.size(); component++) {
+				int layer = 0;
+				for (JarFileDescription jarLib : components.get(component)) {
+					int node = nodes.get(jarLib);
+					for (int edge = edgeOffsets[node]; edge < edgeOffsets[node + 1]; edge++) {
+						int target = componentOfNode[edgeTargets[edge]];
+						if (target != component) {
+							layer = Math.max(layer, layerOfComponent[target] + 1);
+						}
+					}
+				}
+				layerOfComponent[component] = layer;
+				layerCount = Math.max(layerCount, layer + 1);
+			}
+
+			// sort the nodes by layer, keeping the order of the nodes
+			int[] layerOffsets = new int[layerCount + 1];
+			for (int node = 0; node < jarLibs.length; node++) {
+				layerOffsets[layerOfComponent[componentOfNode[node]] + 1]++;
+			}
+			for (int layer = 0; layer < layerCount; layer++) {
+				layerOffsets[layer + 1] += layerOffsets[layer];
+			}
+			int[] layerNodes = new int[jarLibs.length];
+			int[] next = Arrays.copyOf(layerOffsets, layerCount);
+			for (int node = 0; node < jarLibs.length; node++) {
+				layerNodes[next[layerOfComponent[componentOfNode[node]]]++] = node;
+			}
+			List<Set<JarFileDescription>> result = new ArrayList<Set<JarFileDescription>>();
+			for (int layer = 0; layer < layerCount; layer++) {
+				result.add(toJarLibs(layerNodes, layerOffsets[layer],
+						layerOffsets[layer + 1]));
+			}
+			layers = Collections.unmodifiableList(result);
+		}
+		return layers;
+	}
+
+	/**
+	 * Computes the strongly connected components by Tarjan's algorithm. The
+	 * recursion is replaced by an explicit stack, so long dependency chains
+	 * don't overflow the thread's stack.
+	 */
+	private synchronized void computeComponents() {
+		if (components != null) {
+			return;
+		}
+		int n = jarLibs.length;
+		int[] index = new int[n]; // discovery index + 1, 0 if unvisited
+		int[] lowLink = new int[n];
+		boolean[] onStack = new boolean[n];
+		int[] stack = new int[n]; // nodes of the open components
+		int stackSize = 0;
+		int[] callNodes = new int[n]; // the simulated call stack
+		int[] callEdges = new int[n]; // next edge of each call
+		int nextIndex = 1;
+		int[] componentOfNode = new int[n];
+		List<Set<JarFileDescription>> result = new ArrayList<Set<JarFileDescription>>();
+
+		for (int root = 0; root < n; root++) {
+			if (index[root] != 0) {
+				continue;
+			}
+			int depth = 0;
+			callNodes[0] = root;
+			callEdges[0] = edgeOffsets[root];
+			index[root] = lowLink[root] = nextIndex++;
+			stack[stackSize++] = root;
+			onStack[root] = true;
+
+			while (depth >= 0) {
+				int node = callNodes[depth];
+				if (callEdges[depth] < edgeOffsets[node + 1]) {
+					int target = edgeTargets[callEdges[depth]++];
+					if (index[target] == 0) {
+						depth++;
+						callNodes[depth] = target;
+						callEdges[depth] = edgeOffsets[target];
+						index[target] = lowLink[target] = nextIndex++;
+						stack[stackSize++] = target;
+						onStack[target] = true;
+					} else if (onStack[target]) {
+						lowLink[node] = Math.min(lowLink[node], index[target]);
+					}
+					continue;
+				}
+
+				// all edges of the node are done
+				if (lowLink[node] == index[node]) {
+					int start = stackSize;
+					do {
+						start--;
+						onStack[stack[start]] = false;
+						componentOfNode[stack[start]] = result.size();
+					} while (stack[start] != node);
+					Arrays.sort(stack, start, stackSize);
+					result.add(toJarLibs(stack, start, stackSize));
+					stackSize = start;
+				}
+				depth--;
+				if (depth >= 0) {
+					int caller = callNodes[depth];
+					lowLink[caller] = Math.min(lowLink[caller], lowLink[node]);
+				}
+			}
+		}
+		this.componentOfNode = componentOfNode;
+		components = Collections.unmodifiableList(result);
+	}
+
+	private Set<JarFileDescription> toJarLibs(BitSet nodes) {
+		ImmutableSet.Builder<JarFileDescription> result = ImmutableSet
+				.builder();
+		for (int node = nodes.nextSetBit(0); node >= 0; node = nodes
+				.nextSetBit(node + 1)) {
+			result.add(jarLibs[node]);
+		}
+		return result.build();
+	}
+
+	private Set<JarFileDescription> toJarLibs(int[] nodes, int from, int to) {
+		ImmutableSet.Builder<JarFileDescription> result = ImmutableSet
+				.builder();
+		for (int i = from; i < to; i++) {
+			result.add(jarLibs[nodes[i]]);
+		}
+		return result.build();
+	}
+
+	private int checkNode(JarFileDescription jarLib)
+			throws IllegalArgumentException {
+		Integer node = nodes.get(jarLib);
+		if (node == null) {
+			throw new IllegalArgumentException("jar lib isn't part of the graph");
+		}
+		return node;
+	}
+
+	/**
+	 * The edges of the nodes, added node by node, each node's edges sorted
+	 * by their targets.
+	 */
+	private static final class Edges {
+
+		private final int[] offsets;
+		private final int[] packageCounts; // of the current node
+		private int[] targets;
+		private int[] weights;
+		private int count;
+		private int packageEdges;
+
+		private Edges(int nodes) {
+			offsets = new int[nodes + 1];
+			packageCounts = new int[nodes];
+			targets = new int[Math.max(16, nodes)];
+			weights = new int[targets.length];
+		}
+
+		private void add(int node, int target, int packages) {
+			if (target == node) {
+				return;
+			}
+			if (packageCounts[target] == 0) {
+				if (count == targets.length) {
+					targets = Arrays.copyOf(targets, count * 2);
+					weights = Arrays.copyOf(weights, count * 2);
+				}
+				targets[count++] = target;
+			}
+			packageCounts[target] += packages;
+			packageEdges += packages;
+		}
+
+		private void endNode(int node) {
+			Arrays.sort(targets, offsets[node], count);
+			for (int edge = offsets[node]; edge < count; edge++) {
+				weights[edge] = packageCounts[targets[edge]];
+				packageCounts[targets[edge]] = 0;
+			}
+			offsets[node + 1] = count;
+		}
+	}
+}
@@ -0,0 +1,246 @@
+package org.pa.jmeupdatesite;
+
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.noNullElements;
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Discovers the jar-files of several roots, e.g. lib directories, single
+ * jar-files or a whole local Maven repository. Directories are listed in
+ * parallel, each subdirectory by a task of its own, and every jar-file is
+ * passed to a listener as soon as it is found.
+ * <p>
+ * Jar-files and directories are identified by their real paths, so a
+ * jar-file reachable by several paths or symbolic links is found once and
+ * symbolic links pointing to a parent directory don't lead to endless
+ * recursion.
+ */
+public class JarDiscovery {
+
+	/**
+	 * Receives the jar-files as they are found.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called once for each jar-file found, possibly by several threads
+		 * at the same time.
+		 *
+		 * @param jarFile
+		 *            the real path of the jar-file
+		 * @throws IOException
+		 *             cancels the discovery
+		 */
+		void found(File jarFile) throws IOException;
+	}
+
+	private final List<File> roots;
+	private boolean recursive;
+	private int threads = 1;
+
+	/**
+	 * Creates a discovery of the specified roots.
+	 *
+	 * @param roots
+	 *            the directories and jar-files, must not be <code>null</code>
+	 *            or contain <code>null</code>
+	 * @throws IllegalArgumentException
+	 *             if <code>roots</code> is or contains <code>null</code>
+	 */
+	public JarDiscovery(Collection<File> roots) throws IllegalArgumentException {
+		this.roots = new ArrayList<File>(noNullElements(
+				notNull(roots, "roots must not be null"),
+				"roots must not contain null"));
+	}
+
+	/**
+	 * Sets whether the subdirectories of the roots are searched, too. Off by
+	 * default.
+	 *
+	 * @param recursive
+	 *            whether subdirectories are searched
+	 */
+	public void setRecursive(boolean recursive) {
+		this.recursive = recursive;
+	}
+
+	/**
+	 * Sets the number of threads listing directories, 1 by default.
+	 *
+	 * @param threads
+	 *            the number of threads
+	 * @throws IllegalArgumentException
+	 *             if <code>threads</code> is less than <code>1</code>
+	 */
+	public void setThreads(int threads) throws IllegalArgumentException {
+		isTrue(threads >= 1, "threads must be at least 1");
+		this.threads = threads;
+	}
+
+	/**
+	 * Searches the roots for jar-files. Directories which cannot be listed
+	 * are skipped.
+	 *
+	 * @param listener
+	 *            receives each jar-file as soon as it is found, may be
+	 *            <code>null</code>
+	 * @return the real paths of all jar-files found, sorted
+	 * @throws IOException
+	 *             if a root doesn't exist or the listener fails
+	 */
+	public SortedSet<File> discover(Listener listener) throws IOException {
+		Set<Path> directories = Collections
+				.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+		Set<Path> jarFiles = Collections
+				.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+		final List<ListTask> tasks = new ArrayList<ListTask>();
+		for (File root : roots) {
+			Path path = root.toPath().toRealPath();
+			if (Files.isDirectory(path)) {
+				if (directories.add(path)) {
+					tasks.add(new ListTask(path, directories, jarFiles,
+							listener));
+				}
+			} else if (isJar(path) && jarFiles.add(path) && listener != null) {
+				listener.found(path.toFile());
+			}
+		}
+
+		ForkJoinPool forkJoinPool = new ForkJoinPool(threads);
+		try {
+			forkJoinPool.invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					invokeAll(tasks);
+				}
+			});
+		} catch (ListenerFailure e) {
+			throw e.getCause();
+		} finally {
+			forkJoinPool.shutdownNow();
+		}
+
+		SortedSet<File> result = new TreeSet<File>();
+		for (Path jarFile : jarFiles) {
+			result.add(jarFile.toFile());
+		}
+		return result;
+	}
+
+	/**
+	 * Lists a directory and forks a task for each new subdirectory.
+	 */
+	private final class ListTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Path directory; // a real path
+		private final Set<Path> directories; // listed so far
+		private final Set<Path> jarFiles; // found so far
+		private final Listener listener;
+
+		private ListTask(Path directory, Set<Path> directories,
+				Set<Path> jarFiles, Listener listener) {
+			this.directory = directory;
+			this.directories = directories;
+			this.jarFiles = jarFiles;
+			this.listener = listener;
+		}
+
+		@Override
+		protected void compute() {
+			List<ListTask> subdirectories = new ArrayList<ListTask>();
+			try {
+				DirectoryStream<Path> entries = Files
+						.newDirectoryStream(directory);
+				try {
+					for (Path entry : entries) {
+						visit(entry, subdirectories);
+					}
+				} finally {
+					entries.close();
+				}
+			} catch (IOException e) {
+				// e.g. no permission, the other directories are still listed
+				e.printStackTrace();
+			}
+			invokeAll(subdirectories);
+		}
+
+		private void visit(Path entry, List<ListTask> subdirectories) {
+			Path path = entry;
+			BasicFileAttributes attributes;
+			try {
+				// the directory is a real path, so only the entry may be a link
+				attributes = Files.readAttributes(entry,
+						BasicFileAttributes.class, NOFOLLOW_LINKS);
+				if (attributes.isSymbolicLink()) {
+					path = entry.toRealPath();
+					attributes = Files.readAttributes(path,
+							BasicFileAttributes.class);
+				}
+			} catch (NoSuchFileException e) {
+				return; // removed meanwhile or a dangling link
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+
+			if (attributes.isDirectory()) {
+				if (recursive && directories.add(path)) {
+					subdirectories.add(new ListTask(path, directories,
+							jarFiles, listener));
+				}
+			} else if (attributes.isRegularFile() && isJar(path)
+					&& jarFiles.add(path) && listener != null) {
+				try {
+					listener.found(path.toFile());
+				} catch (IOException e) {
+					throw new ListenerFailure(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Carries the {@link IOException} of a listener out of the tasks.
+	 */
+	private static final class ListenerFailure extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		private ListenerFailure(IOException cause) {
+			super(cause);
+		}
+
+		@Override
+		public synchronized IOException getCause() {
+			return (IOException) super.getCause();
+		}
+	}
+
+	private static boolean isJar(Path path) {
+		return path.getFileName().toString().endsWith(".jar");
+	}
+}
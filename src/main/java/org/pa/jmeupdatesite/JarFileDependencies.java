@@ -4,12 +4,17 @@ import static org.apache.commons.lang3.Validate.notNull;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
 
 /**
  * Provides information about on which jar-files a considered jar-file depend
@@ -18,18 +23,14 @@ import com.google.common.base.Objects;
  */
 public class JarFileDependencies {
 
-	private final Set<JarFileDescription> availableJarLibs; //
 	private final JarFileDescription jarLib;
 
-	// dependencies for each single package
-	private final Set<Dependency> dependencies = new HashSet<Dependency>();
-	private final Set<String> unresolvedPackages = new HashSet<String>();
-
 	/*
-	 * cached results
+	 * results, computed once at initialization
 	 */
-	private Set<Dependency> oneToOneDependencies;
-	private Set<Dependency> oneToManyDependencies;
+	private final Set<Dependency> oneToOneDependencies;
+	private final Set<Dependency> oneToManyDependencies;
+	private final Set<String> unresolvedPackages;
 
 	/**
 	 * Creates a jar-file dependencies informational instance.
@@ -45,41 +46,178 @@ public class JarFileDependencies {
 	public JarFileDependencies(JarFileDescription jarLib,
 			Set<JarFileDescription> availableJarLibs)
 			throws IllegalArgumentException {
-		this.availableJarLibs = notNull(availableJarLibs,
-				"available jar libs must not be null");
-		this.jarLib = notNull(jarLib, "jarLib must not be null");
+		this(jarLib, new PackageIndex(notNull(availableJarLibs,
+				"available jar libs must not be null")));
+	}
 
-		computeDependencies();
+	/**
+	 * Creates a jar-file dependencies informational instance using an
+	 * existing package index. Prefer this constructor when computing the
+	 * dependencies of many jar-files of the same pool.
+	 * 
+	 * @param jarLib
+	 *            the considered jar-file, must not be <code>null</code>
+	 * @param packageIndex
+	 *            the index of all jar-files in the class path, must not be
+	 *            <code>null</code>
+	 * @throws IllegalArgumentException
+	 *             if any argument is <code>null</code>
+	 */
+	public JarFileDependencies(JarFileDescription jarLib,
+			PackageIndex packageIndex) throws IllegalArgumentException {
+		this(jarLib, packageIndex, false);
 	}
 
 	/**
-	 * Compute the dependencies. Called once at initialization. Each computed
-	 * dependency describes a single package here.
+	 * Creates a jar-file dependencies informational instance, optionally
+	 * resolving packages provided by several jar-files class by class. In
+	 * that mode a split package is a one to one dependency on each jar-file
+	 * which alone contains some of the referenced classes of the package;
+	 * only the jar-files containing the same referenced class make a one to
+	 * many dependency. If a referenced class isn't found in any of them, the
+	 * package also stays a one to many dependency on all its providers, so
+	 * the class doesn't get lost.
+	 * 
+	 * @param jarLib
+	 *            the considered jar-file, must not be <code>null</code>
+	 * @param packageIndex
+	 *            the index of all jar-files in the class path, must not be
+	 *            <code>null</code>
+	 * @param classLevel
+	 *            whether split packages are resolved class by class
+	 * @throws IllegalArgumentException
+	 *             if any argument is <code>null</code>
 	 */
-	private void computeDependencies() {
+	public JarFileDependencies(JarFileDescription jarLib,
+			PackageIndex packageIndex, boolean classLevel)
+			throws IllegalArgumentException {
+		notNull(packageIndex, "package index must not be null");
+		this.jarLib = notNull(jarLib, "jarLib must not be null");
+
+		// group the packages in a single pass: packages with a single provider
+		// by that provider, packages with many providers stay on their own
+		SymbolTable packageSymbols = packageIndex.getPackageSymbols();
+		Map<JarFileDescription, BitSet> packagesByProvider = new HashMap<JarFileDescription, BitSet>();
+		Map<String, Set<JarFileDescription>> splitPackages = new HashMap<String, Set<JarFileDescription>>();
+		ImmutableSet.Builder<Dependency> oneToMany = ImmutableSet.builder();
+		ImmutableSet.Builder<String> unresolved = ImmutableSet.builder();
 		for (String packageDependency : jarLib.getPackageDependencies()) {
+			int packageId = packageSymbols.getId(packageDependency);
+			Set<JarFileDescription> providers = packageIndex
+					.getProviders(packageId);
+			if (providers.contains(jarLib)) { // don't compare with self
+				providers = Sets.difference(providers,
+						Collections.singleton(jarLib));
+			}
 
-			Dependency dependency = new Dependency(jarLib);
-			dependency.packages.add(packageDependency);
+			if (providers.isEmpty()) { // no jar-file is able to resolve
+										// package dependency
+				unresolved.add(packageDependency);
+			} else if (providers.size() == 1) {
+				addOneToOne(packagesByProvider, providers.iterator().next(),
+						packageId);
+			} else if (classLevel) {
+				splitPackages.put(packageDependency, providers);
+			} else {
+				oneToMany.add(newOneToMany(packageSymbols, packageId,
+						providers));
+			}
+		}
 
-			for (JarFileDescription other : availableJarLibs) {
-				// don't compare with self
-				if (other.equals(jarLib)) {
-					continue;
+		if (!splitPackages.isEmpty()) {
+			// the referenced classes of each split package
+			Map<String, List<String>> classesByPackage = new HashMap<String, List<String>>();
+			for (String className : jarLib.getClasseNames()) {
+				String packageName = ClassBytesUtil.getPackageName(className);
+				if (splitPackages.containsKey(packageName)) {
+					List<String> classes = classesByPackage.get(packageName);
+					if (classes == null) {
+						classes = new ArrayList<String>();
+						classesByPackage.put(packageName, classes);
+					}
+					classes.add(className);
 				}
+			}
 
-				if (other.getProvidedPackages().contains(packageDependency)) {
-					dependency.toSet.add(other);
+			for (Map.Entry<String, Set<JarFileDescription>> entry : splitPackages
+					.entrySet()) {
+				int packageId = packageSymbols.getId(entry.getKey());
+				Set<JarFileDescription> providers = entry.getValue();
+				Set<JarFileDescription> single = new HashSet<JarFileDescription>();
+				Set<JarFileDescription> many = new HashSet<JarFileDescription>();
+				boolean missing = false;
+				List<String> classes = classesByPackage.get(entry.getKey());
+				for (String className : classes == null ? Collections
+						.<String> emptyList() : classes) {
+					JarFileDescription found = null;
+					boolean ambiguous = false;
+					for (JarFileDescription provider : providers) {
+						if (provider.containsClass(className)) {
+							if (found == null) {
+								found = provider;
+							} else {
+								ambiguous = true;
+								many.add(found);
+								many.add(provider);
+							}
+						}
+					}
+					if (found == null) {
+						missing = true;
+					} else if (!ambiguous) {
+						single.add(found);
+					}
 				}
-			}
 
-			if (dependency.toSet.isEmpty()) { // no jar-file is able to resolve
-												// package dependency
-				unresolvedPackages.add(packageDependency);
-			} else { // resolved
-				dependencies.add(dependency);
+				for (JarFileDescription provider : single) {
+					addOneToOne(packagesByProvider, provider, packageId);
+				}
+				if (missing || single.isEmpty() && many.isEmpty()) {
+					oneToMany.add(newOneToMany(packageSymbols, packageId,
+							providers));
+				} else if (!many.isEmpty()) {
+					oneToMany.add(newOneToMany(packageSymbols, packageId,
+							many));
+				}
 			}
 		}
+
+		ImmutableSet.Builder<Dependency> oneToOne = ImmutableSet.builder();
+		for (Map.Entry<JarFileDescription, BitSet> entry : packagesByProvider
+				.entrySet()) {
+			oneToOne.add(new Dependency(jarLib, Collections.singleton(entry
+					.getKey()), packageSymbols, entry.getValue()));
+		}
+		oneToOneDependencies = oneToOne.build();
+		oneToManyDependencies = oneToMany.build();
+		unresolvedPackages = unresolved.build();
+	}
+
+	private static void addOneToOne(
+			Map<JarFileDescription, BitSet> packagesByProvider,
+			JarFileDescription provider, int packageId) {
+		BitSet packages = packagesByProvider.get(provider);
+		if (packages == null) {
+			packages = new BitSet();
+			packagesByProvider.put(provider, packages);
+		}
+		packages.set(packageId);
+	}
+
+	private Dependency newOneToMany(SymbolTable packageSymbols, int packageId,
+			Set<JarFileDescription> providers) {
+		BitSet packages = new BitSet();
+		packages.set(packageId);
+		return new Dependency(jarLib, providers, packageSymbols, packages);
+	}
+
+	/**
+	 * Returns the considered jar-file.
+	 * 
+	 * @return the considered jar-file
+	 */
+	public JarFileDescription getJarLib() {
+		return jarLib;
 	}
 
 	/**
@@ -89,24 +227,6 @@ public class JarFileDependencies {
 	 * @return a unmodifiable set of one to one dependencies
 	 */
 	public Set<Dependency> getOneToOneDependencies() {
-		if (oneToOneDependencies == null) {
-			ArrayList<Dependency> oneToOneList = new ArrayList<Dependency>();
-
-
-			for (Dependency singlePckDep : dependencies) {
-				if (singlePckDep.isOneToMany()) {
-					continue;
-				}
-				JarFileDescription to = singlePckDep.getToDescSet().iterator()
-						.next();
-
-				Dependency resultDep = findDependencyByToOrCreate(to,
-						oneToOneList);
-				resultDep.packages.addAll(singlePckDep.getPackages());
-			}
-			oneToOneDependencies = new HashSet<Dependency>(oneToOneList);
-		}
-
 		return oneToOneDependencies;
 	}
 
@@ -118,38 +238,6 @@ public class JarFileDependencies {
 	 * @return a unmodifiable set of one to one dependencies
 	 */
 	public Set<Dependency> getOneToManyDependencies() {
-		if (oneToManyDependencies == null) {
-			ArrayList<Dependency> oneToManyList = new ArrayList<JarFileDependencies.Dependency>();
-
-
-			for (Dependency singlePckDep : dependencies) {
-				if (singlePckDep.isOneToOne()) {
-					continue;
-				}
-				for (JarFileDescription to : singlePckDep.getToDescSet()) {
-					String packageName = singlePckDep.packages.iterator()
-							.next();
-
-					// find oneToMany with package
-					Dependency oneToOneWithPckg = null;
-					for (Dependency oneToOne : oneToManyList) {
-						if (oneToOne.getPackages().contains(packageName)) {
-							oneToOneWithPckg = oneToOne;
-							break;
-						}
-					}
-					if (oneToOneWithPckg == null) {
-						oneToOneWithPckg = new Dependency(jarLib);
-						oneToOneWithPckg.packages.add(packageName);
-						oneToManyList.add(oneToOneWithPckg);
-					}
-					oneToOneWithPckg.toSet.add(to);
-				}
-			}
-
-			oneToManyDependencies = new HashSet<Dependency>(oneToManyList);
-		}
-
 		return oneToManyDependencies;
 	}
 
@@ -160,37 +248,36 @@ public class JarFileDependencies {
 	 *         will never be <code>null</code>
 	 */
 	public Set<String> getUnresolvedPackages() {
-		return Collections.unmodifiableSet(unresolvedPackages);
-	}
-
-	private Dependency findDependencyByToOrCreate(JarFileDescription to,
-			Collection<Dependency> set) {
-		Dependency result = null;
-		for (Dependency dep : set) {
-			if (dep.getToDescSet().contains(to)) {
-				result = dep;
-				break;
-			}
-		}
-		if (result == null) {
-			// create and add if not found
-			result = new Dependency(jarLib);
-			result.toSet.add(to);
-			set.add(result);
-		}
-		return result;
+		return unresolvedPackages;
 	}
 
 	/**
-	 * Describes the package dependencies of one jar-file to another.
+	 * Describes the package dependencies of one jar-file to another. A
+	 * dependency is immutable.
 	 */
 	public static final class Dependency {
 		private final JarFileDescription from;
-		private final Set<JarFileDescription> toSet = new HashSet<JarFileDescription>();
-		private final Set<String> packages = new HashSet<String>();
-
-		Dependency(JarFileDescription from) throws IllegalArgumentException {
+		private final Set<JarFileDescription> toSet;
+		private final Set<File> toFiles;
+		private final BitSet packages; // IDs in the symbol table, not modified
+		private final Set<String> packageNames;
+		private final int hashCode;
+
+		Dependency(JarFileDescription from, Set<JarFileDescription> toSet,
+				SymbolTable symbols, BitSet packages)
+				throws IllegalArgumentException {
 			this.from = notNull(from, "from must not be null");
+			this.toSet = ImmutableSet.copyOf(notNull(toSet,
+					"to set must not be null"));
+			ImmutableSet.Builder<File> toFiles = ImmutableSet.builder();
+			for (JarFileDescription jfd : this.toSet) {
+				toFiles.add(jfd.getFile());
+			}
+			this.toFiles = toFiles.build();
+			this.packages = notNull(packages, "packages must not be null");
+			this.packageNames = Collections.unmodifiableSet(new SymbolBitSet(
+					notNull(symbols, "symbols must not be null"), packages));
+			this.hashCode = Objects.hashCode(from, this.toSet, packages);
 		}
 
 		/**
@@ -208,11 +295,7 @@ public class JarFileDependencies {
 		 * @return the right jar-file, is
 		 */
 		public Set<File> getToSet() {
-			HashSet<File> result = new HashSet<File>();
-			for (JarFileDescription jfd : toSet) {
-				result.add(jfd.getFile());
-			}
-			return result;
+			return toFiles;
 		}
 
 		/**
@@ -222,7 +305,7 @@ public class JarFileDependencies {
 		 * @return a set with package names
 		 */
 		public Set<String> getPackages() {
-			return Collections.unmodifiableSet(packages);
+			return packageNames;
 		}
 
 		/**
@@ -284,7 +367,7 @@ public class JarFileDependencies {
 
 		@Override
 		public int hashCode() {
-			return Objects.hashCode(from, toSet, packages);
+			return hashCode;
 		}
 
 		@Override
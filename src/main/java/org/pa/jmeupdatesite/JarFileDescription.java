@@ -1,35 +1,88 @@
 package org.pa.jmeupdatesite;
 
-import static java.util.Collections.list;
 import static org.apache.commons.lang3.Validate.notNull;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 
 /**
  * Provides information about classes in a jar-file. This includes dependencies
  * and package names.
+ * <p>
+ * The jar-file is opened on demand. A description created with a
+ * {@link ZipFilePool} borrows its handle from the pool for each read, so any
+ * number of descriptions can exist with a fixed number of open files.
+ * Otherwise the description keeps its own handle until it is closed. Closed
+ * descriptions keep their results and reopen the jar-file if needed.
+ * <p>
+ * A jar-file may contain further jar-files, e.g. the libraries of a fat jar,
+ * of a web application or of an OSGi bundle. These are described by nested
+ * descriptions which stream the entry from their container, so nested
+ * jar-files are never extracted and only a single class file of them is held
+ * in memory at a time.
+ * <p>
+ * Identical copies of a jar-file, e.g. a versioned and an unversioned copy,
+ * are recognized by their {@link #getFingerprint() fingerprint}; an analysis
+ * describes them as one jar-file with {@link #getDuplicates() duplicates}.
+ * Identical class files, e.g. the copies of a class in shaded jar-files, are
+ * parsed once if the descriptions share a {@link ClassNameCache}.
  */
-public class JarFileDescription implements Comparable<JarFileDescription> {
+public class JarFileDescription implements Comparable<JarFileDescription>,
+		Closeable {
 
-	private final File jarFile; // the file
-	private final ZipFile jarZip; // the unzip object
+	private final File jarFile; // the file, a virtual path if nested
+	private final JarFileDescription container; // null if not nested
+	private final String entryName; // the entry in the container if nested
+	private final ClassBytesUtil.Engine engine; // the class file parser
+	private final ZipFilePool zipPool; // shared handles, may be null
+	private ZipFile jarZip; // own handle if there is no pool
+	private volatile AnalysisMetrics metrics; // may be null
+	private volatile ClassNameCache classNameCache; // may be null
+	private volatile SortedSet<JarFileDescription> duplicates = ImmutableSortedSet
+			.of();
 
 	/*
-	 * Result cache.
+	 * Result cache. The fields are volatile and only assigned completely
+	 * filled unmodifiable sets, so a description may be shared between
+	 * threads.
 	 */
-	private Set<String> packageDependencies;
-	private Set<String> providedPackages;
-	private Set<String> referencedClassNames;
-	private Set<String> referencedPackageNames;
-	private Set<String> zipDirectories;
+	private volatile SymbolTable packageSymbols; // set if interned
+	private volatile Set<String> packageDependencies;
+	private volatile Set<String> providedPackages;
+	private volatile Set<String> providedClassNames;
+	private volatile Set<String> nestedJarNames;
+	private volatile Long fingerprint;
+	private volatile BloomFilter providedClassFilter;
+	private volatile Set<String> referencedClassNames;
+	private volatile Set<String> referencedPackageNames;
 
 	/**
 	 * Creates a jar file description.
@@ -41,8 +94,74 @@ public class JarFileDescription implements Comparable<JarFileDescription> {
 	 *             if an I/O error has occured
 	 */
 	public JarFileDescription(File jarFile) throws IOException {
+		this(jarFile, ClassBytesUtil.Engine.ASM);
+	}
+
+	/**
+	 * Creates a jar file description which parses its class files with the
+	 * specified engine.
+	 * 
+	 * @param jarFile
+	 *            the jar-file to describe, must not ne <code>null</code> and a
+	 *            valid jar-file.
+	 * @param engine
+	 *            the engine extracting the referenced classes, must not be
+	 *            <code>null</code>
+	 * @throws IOException
+	 *             if an I/O error has occured
+	 */
+	public JarFileDescription(File jarFile, ClassBytesUtil.Engine engine)
+			throws IOException {
+		this(jarFile, engine, null);
+	}
+
+	/**
+	 * Creates a jar file description which borrows the handles of its
+	 * jar-file from a pool.
+	 * 
+	 * @param jarFile
+	 *            the jar-file to describe, must not ne <code>null</code> and a
+	 *            valid jar-file.
+	 * @param engine
+	 *            the engine extracting the referenced classes, must not be
+	 *            <code>null</code>
+	 * @param zipPool
+	 *            the pool of open jar-files, may be <code>null</code> to let
+	 *            the description keep its own handle
+	 * @throws IOException
+	 *             if the jar-file doesn't exist
+	 */
+	public JarFileDescription(File jarFile, ClassBytesUtil.Engine engine,
+			ZipFilePool zipPool) throws IOException {
 		this.jarFile = notNull(jarFile);
-		this.jarZip = new ZipFile(jarFile);
+		this.engine = notNull(engine);
+		this.zipPool = zipPool;
+		this.container = null;
+		this.entryName = null;
+		if (!jarFile.isFile()) {
+			throw new FileNotFoundException(jarFile + " is not a file");
+		}
+	}
+
+	/**
+	 * Creates a description of a jar-file nested in another one, see
+	 * {@link #getNestedJarNames()}. Its file is the virtual path
+	 * <code>&lt;container&gt;!/&lt;entry&gt;</code>.
+	 * 
+	 * @param container
+	 *            the jar-file containing the nested one, must not be
+	 *            <code>null</code>
+	 * @param entryName
+	 *            the name of the entry of the nested jar-file in the
+	 *            container, must not be <code>null</code>
+	 */
+	public JarFileDescription(JarFileDescription container, String entryName) {
+		this.container = notNull(container);
+		this.entryName = notNull(entryName);
+		this.jarFile = new File(container.getFile().getPath() + "!",
+				entryName);
+		this.engine = container.getEngine();
+		this.zipPool = container.zipPool;
 	}
 
 	/**
@@ -55,52 +174,282 @@ public class JarFileDescription implements Comparable<JarFileDescription> {
 	}
 
 	/**
-	 * Returns the names of the packages contained in the jar-file.
+	 * Returns the name of the jar-file as used in reports: the file name, and
+	 * for nested jar-files the name of the container followed by
+	 * <code>!/</code> and the entry, e.g.
+	 * <code>app.war!/WEB-INF/lib/lib.jar</code>.
+	 * 
+	 * @return the name
+	 */
+	public String getName() {
+		return container == null ? jarFile.getName() : container.getName()
+				+ "!/" + entryName;
+	}
+
+	/**
+	 * Returns the jar-file containing this one.
+	 * 
+	 * @return the container or <code>null</code> if this jar-file isn't
+	 *         nested
+	 */
+	public JarFileDescription getContainer() {
+		return container;
+	}
+
+	/**
+	 * Returns the file on disk which contains this jar-file: the jar-file
+	 * itself or the outermost container of a nested one.
+	 * 
+	 * @return the file, will never be <code>null</code>
+	 */
+	public File getArchiveFile() {
+		return container == null ? jarFile : container.getArchiveFile();
+	}
+
+	/**
+	 * Returns the engine used to parse the class files.
+	 * 
+	 * @return the engine, will never be <code>null</code>
+	 */
+	public ClassBytesUtil.Engine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * Sets the metrics counting the work of this description.
+	 * 
+	 * @param metrics
+	 *            the metrics, may be <code>null</code> to count nothing
+	 */
+	void setMetrics(AnalysisMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Sets the cache sharing the class names of identical class files with
+	 * other descriptions.
+	 * 
+	 * @param classNameCache
+	 *            the cache, may be <code>null</code> to parse every class
+	 *            file
+	 */
+	void setClassNameCache(ClassNameCache classNameCache) {
+		this.classNameCache = classNameCache;
+	}
+
+	/**
+	 * Returns the identical copies of this jar-file, which an analysis
+	 * describes by this one instead of adding them to the pool.
+	 * 
+	 * @return a unmodifiable sorted set of descriptions, empty unless set by
+	 *         an analysis
+	 */
+	public SortedSet<JarFileDescription> getDuplicates() {
+		return duplicates;
+	}
+
+	/**
+	 * @param duplicates
+	 *            the identical copies of this jar-file
+	 */
+	void setDuplicates(SortedSet<JarFileDescription> duplicates) {
+		this.duplicates = ImmutableSortedSet.copyOfSorted(duplicates);
+	}
+
+	/**
+	 * Returns the names of the packages contained in the jar-file. A package
+	 * is contained if at least one class file is located directly in its
+	 * directory. Explicit directory entries are not required.
 	 * 
 	 * @return a unmodifiable set of package names
 	 */
 	public Set<String> getProvidedPackages() {
 		if (providedPackages == null) {
-			providedPackages = new HashSet<String>();
-			for (String directory : getDirectories()) {
-				if (hasClassFile(directory)) {
-					String packageName = directory.substring(0,
-							directory.length() - 1).replace('/', '.');
-					providedPackages.add(packageName);
-				}
-			}
+			listEntries();
 		}
-		return Collections.unmodifiableSet(providedPackages);
+		return providedPackages;
 	}
 
 	/**
-	 * Returns a set of canonical class names contained in the jar-file.
+	 * Returns the names of the classes contained in the jar-file, e.g.
+	 * <code>a.b.C$D</code> for the entry <code>a/b/C$D.class</code>.
 	 * 
-	 * @return a unmodifiable set of canonical class names.
+	 * @return a unmodifiable set of class names
 	 */
-	public Set<String> getClasseNames() {
-		if (referencedClassNames == null) {
-			referencedClassNames = new HashSet<String>();
+	public Set<String> getProvidedClassNames() {
+		if (providedClassNames == null) {
+			listEntries();
+		}
+		return providedClassNames;
+	}
+
+	/**
+	 * Returns the names of the entries which are jar-files themselves, e.g.
+	 * <code>WEB-INF/lib/lib.jar</code>.
+	 * 
+	 * @return a unmodifiable set of entry names
+	 */
+	public Set<String> getNestedJarNames() {
+		if (nestedJarNames == null) {
+			listEntries();
+		}
+		return nestedJarNames;
+	}
+
+	/**
+	 * Returns a cheap fingerprint of the content of the jar-file, computed
+	 * from the names, CRC-32s and sizes of its entries without inflating
+	 * them. The order of the entries, directory entries and the entries in
+	 * <code>META-INF/</code>, e.g. signature files and build metadata, are
+	 * ignored, so re-signed copies of a jar-file have the same fingerprint.
+	 * The manifest and the service files in <code>META-INF/services/</code>
+	 * are included, as they make a jar-file an OSGi bundle or a provider of
+	 * services. Different jar-files have the same fingerprint only by chance,
+	 * see {@link #getContentHash()}.
+	 * 
+	 * @return the fingerprint
+	 */
+	public long getFingerprint() {
+		if (fingerprint == null) {
+			listEntries();
+		}
+		return fingerprint;
+	}
 
-			for (ZipEntry entry : list(jarZip.entries())) {
-				String name = entry.getName();
-				if (name.endsWith(".class")) {
+	/**
+	 * Returns a SHA-1 hash of the names and contents of the entries which
+	 * make up the {@link #getFingerprint() fingerprint}. Unlike the
+	 * fingerprint it inflates every entry, so it is computed on demand only,
+	 * e.g. to verify that jar-files with the same fingerprint are identical.
+	 * The entries are streamed through a small buffer, so even large
+	 * jar-files and the jar-files nested in them aren't held in memory.
+	 * 
+	 * @return the hash
+	 * @throws IllegalStateException
+	 *             if the jar-file cannot be read, caused by the
+	 *             {@link IOException}
+	 */
+	public byte[] getContentHash() throws IllegalStateException {
+		Map<String, HashCode> entryHashes = new TreeMap<String, HashCode>();
+		byte[] buffer = new byte[8192];
+		EntryReader reader = openEntries();
+		try {
+			for (String name = reader.next(); name != null; name = reader
+					.next()) {
+				if (isFingerprinted(name)) {
+					Hasher entryHasher = Hashing.sha1().newHasher();
+					InputStream is = reader.open();
 					try {
-						referencedClassNames.addAll(ClassBytesUtil
-								.findClassNames(jarZip
-										.getInputStream(entry)));
-					} catch (IllegalArgumentException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					} catch (IOException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
+						for (int n = is.read(buffer); n >= 0; n = is
+								.read(buffer)) {
+							entryHasher.putBytes(buffer, 0, n);
+						}
+					} finally {
+						is.close();
 					}
+					entryHashes.put(name, entryHasher.hash());
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("cannot read " + getName(), e);
+		} finally {
+			IOUtils.closeQuietly(reader);
+		}
+
+		Hasher hasher = Hashing.sha1().newHasher();
+		for (Map.Entry<String, HashCode> entry : entryHashes.entrySet()) {
+			hasher.putString(entry.getKey(), Charsets.UTF_8);
+			hasher.putBytes(entry.getValue().asBytes());
+		}
+		return hasher.hash().asBytes();
+	}
+
+	/**
+	 * Reads the manifest of the jar-file.
+	 * 
+	 * @return the manifest or <code>null</code> if the jar-file has none
+	 * @throws IOException
+	 *             if the jar-file cannot be read
+	 */
+	public Manifest getManifest() throws IOException {
+		InputStream is;
+		try {
+			is = openEntry(JarFile.MANIFEST_NAME);
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+		try {
+			return new Manifest(is);
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Returns whether the jar-file contains the specified class. Most classes
+	 * which aren't contained are rejected by a Bloom filter, so the exact
+	 * lookup is skipped for them.
+	 * 
+	 * @param className
+	 *            the name of the class, e.g. <code>a.b.C$D</code>
+	 * @return whether the class is contained
+	 */
+	public boolean containsClass(String className) {
+		BloomFilter filter = providedClassFilter;
+		if (filter == null) {
+			filter = new BloomFilter(getProvidedClassNames());
+			providedClassFilter = filter;
+		}
+		return filter.mightContain(className)
+				&& getProvidedClassNames().contains(className);
+	}
+
+	/**
+	 * Fills the provided packages and classes by reading the names of the
+	 * entries only.
+	 */
+	private void listEntries() {
+		ImmutableSet.Builder<String> packages = ImmutableSet.builder();
+		ImmutableSet.Builder<String> classes = ImmutableSet.builder();
+		ImmutableSet.Builder<String> nestedJars = ImmutableSet.builder();
+		int entries = 0;
+		EntryReader reader = openEntries();
+		try {
+			for (String name = reader.next(); name != null; name = reader
+					.next()) {
+				if (isJar(name)) {
+					nestedJars.add(name);
+				} else {
+					addEntry(name, packages, classes);
 				}
+				entries++;
 			}
+		} catch (IOException e) {
+			throw new IllegalStateException("cannot read " + getName(), e);
+		} finally {
+			IOUtils.closeQuietly(reader);
+		}
+		AnalysisMetrics metrics = this.metrics;
+		if (metrics != null) {
+			metrics.addEntriesEnumerated(entries);
 		}
+		providedClassNames = classes.build();
+		providedPackages = packages.build();
+		nestedJarNames = nestedJars.build();
+		fingerprint = reader.getFingerprint();
+	}
 
-		return Collections.unmodifiableSet(referencedClassNames);
+	/**
+	 * Returns a set of binary class names contained in the jar-file.
+	 * 
+	 * @return a unmodifiable set of binary class names.
+	 */
+	public Set<String> getClasseNames() {
+		if (referencedClassNames == null) {
+			scan();
+		}
+
+		return referencedClassNames;
 	}
 
 	/**
@@ -112,27 +461,242 @@ public class JarFileDescription implements Comparable<JarFileDescription> {
 	 */
 	public Set<String> getReferencedPackageNames() {
 		if (referencedPackageNames == null) {
-			referencedPackageNames = new HashSet<String>();
+			scan();
+		}
 
-			for (ZipEntry entry : list(jarZip.entries())) {
-				String name = entry.getName();
-				if (name.endsWith(".class")) {
+		return referencedPackageNames;
+	}
+
+	/**
+	 * Reads every entry of the jar-file exactly once and fills the referenced
+	 * class names, the referenced package names and the provided packages and
+	 * classes at the same time. Each class file is parsed a single time, the
+	 * referenced packages are derived from the referenced class names. Does
+	 * nothing if the jar-file has already been scanned. Safe to be called by
+	 * several threads.
+	 */
+	public synchronized void scan() {
+		if (referencedClassNames != null && referencedPackageNames != null
+				&& providedPackages != null && providedClassNames != null
+				&& nestedJarNames != null && fingerprint != null) {
+			return;
+		}
+
+		Set<String> classNames = new HashSet<String>();
+		Set<String> packageNames = new HashSet<String>();
+		ImmutableSet.Builder<String> packages = ImmutableSet.builder();
+		ImmutableSet.Builder<String> classes = ImmutableSet.builder();
+		ImmutableSet.Builder<String> nestedJars = ImmutableSet.builder();
+
+		AnalysisMetrics metrics = this.metrics;
+		int entries = 0;
+		EntryReader reader = openEntries();
+		try {
+			for (String name = reader.next(); name != null; name = reader
+					.next()) {
+				entries++;
+				if (isJar(name)) {
+					nestedJars.add(name);
+				} else if (addEntry(name, packages, classes)) {
 					try {
-						referencedPackageNames.addAll(ClassBytesUtil
-								.findPackageNames(jarZip
-										.getInputStream(entry)));
+						for (String className : findClassNames(reader,
+								metrics)) {
+							if (classNames.add(className)) {
+								String packageName = ClassBytesUtil
+										.getPackageName(className);
+								if (packageName != null) {
+									packageNames.add(packageName);
+								}
+							}
+						}
 					} catch (IllegalArgumentException e) {
-						// TODO Auto-generated catch block
 						e.printStackTrace();
 					} catch (IOException e) {
-						// TODO Auto-generated catch block
 						e.printStackTrace();
 					}
 				}
 			}
+		} catch (IOException e) {
+			throw new IllegalStateException("cannot read " + getName(), e);
+		} finally {
+			IOUtils.closeQuietly(reader);
+		}
+		if (metrics != null) {
+			metrics.addJarScanned(entries);
+		}
+
+		providedClassNames = classes.build();
+		providedPackages = packages.build();
+		nestedJarNames = nestedJars.build();
+		fingerprint = reader.getFingerprint();
+		referencedClassNames = Collections.unmodifiableSet(classNames);
+		referencedPackageNames = Collections.unmodifiableSet(packageNames);
+	}
+
+	/**
+	 * Passes each class file of the jar-file to a handler, one after the
+	 * other and without keeping anything, for analyses which need more than
+	 * the class names of the whole jar-file, see {@link ClassGraph}. Class
+	 * files below <code>META-INF/</code>, e.g. of other Java versions, are
+	 * skipped.
+	 * 
+	 * @throws IllegalStateException
+	 *             if the jar-file cannot be opened
+	 * @throws IOException
+	 *             if the jar-file cannot be read or the handler fails
+	 */
+	void readClasses(ClassFileHandler handler) throws IllegalStateException,
+			IOException {
+		EntryReader reader = openEntries();
+		try {
+			for (String name = reader.next(); name != null; name = reader
+					.next()) {
+				if (name.endsWith(".class") && !name.startsWith("META-INF/")) {
+					handler.handle(
+							name.substring(0,
+									name.length() - ".class".length())
+									.replace('/', '.'), reader.read());
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Receives the class files read by
+	 * {@link JarFileDescription#readClasses(ClassFileHandler)}.
+	 */
+	interface ClassFileHandler {
+
+		/**
+		 * @param className
+		 *            the binary name of the class, e.g. <code>a.b.C$D</code>
+		 * @param bytes
+		 *            the content of the class file
+		 */
+		void handle(String className, byte[] bytes) throws IOException;
+	}
+
+	/**
+	 * Finds the class names referenced by the current entry, a class file.
+	 * The class names of an identical class file are reused if there is a
+	 * class name cache; the entry isn't even inflated unless the cache
+	 * verifies the content.
+	 */
+	private Collection<String> findClassNames(EntryReader reader,
+			AnalysisMetrics metrics) throws IOException {
+		ClassNameCache classNameCache = this.classNameCache;
+		if (classNameCache != null && !classNameCache.isVerifyContent()
+				&& reader.getCrc() >= 0 && reader.getSize() >= 0) {
+			Collection<String> found = classNameCache.get(reader.getCrc(),
+					reader.getSize(), null);
+			if (found != null) {
+				if (metrics != null) {
+					metrics.addClassReused();
+				}
+				return found;
+			}
 		}
 
-		return Collections.unmodifiableSet(referencedPackageNames);
+		long start = metrics == null ? 0 : System.nanoTime();
+		byte[] bytes = reader.read();
+		long inflated = metrics == null ? 0 : System.nanoTime();
+		byte[] hash = null;
+		if (classNameCache != null && classNameCache.isVerifyContent()) {
+			hash = Hashing.sha1().hashBytes(bytes).asBytes();
+			Collection<String> found = classNameCache.get(reader.getCrc(),
+					bytes.length, hash);
+			if (found != null) {
+				if (metrics != null) {
+					metrics.addClassReused();
+				}
+				return found;
+			}
+		}
+
+		Collection<String> found = ClassBytesUtil.findClassNames(bytes, engine);
+		if (metrics != null) {
+			metrics.addClassParsed(bytes.length, inflated - start,
+					System.nanoTime() - inflated);
+		}
+		// the CRC-32 of a streamed entry is known once it has been read
+		if (classNameCache != null && reader.getCrc() >= 0) {
+			classNameCache.put(reader.getCrc(), bytes.length, hash, found);
+		}
+		return found;
+	}
+
+	/**
+	 * Fills the result cache with previously computed scan results instead of
+	 * scanning the jar-file, see {@link AnalysisCache}.
+	 * 
+	 * @param providedPackages
+	 *            the provided packages
+	 * @param providedClassNames
+	 *            the provided class names
+	 * @param classNames
+	 *            the referenced class names
+	 * @param nestedJarNames
+	 *            the entries which are jar-files
+	 * @param fingerprint
+	 *            the fingerprint
+	 */
+	synchronized void restore(Set<String> providedPackages,
+			Set<String> providedClassNames, Collection<String> classNames,
+			Set<String> nestedJarNames, long fingerprint) {
+		Set<String> packageNames = new HashSet<String>();
+		for (String className : classNames) {
+			String packageName = ClassBytesUtil.getPackageName(className);
+			if (packageName != null) {
+				packageNames.add(packageName);
+			}
+		}
+
+		this.providedPackages = Collections.unmodifiableSet(providedPackages);
+		this.providedClassNames = Collections
+				.unmodifiableSet(providedClassNames);
+		this.providedClassFilter = null;
+		this.nestedJarNames = Collections.unmodifiableSet(nestedJarNames);
+		this.fingerprint = fingerprint;
+		this.referencedClassNames = Collections
+				.unmodifiableSet(new HashSet<String>(classNames));
+		this.referencedPackageNames = Collections
+				.unmodifiableSet(packageNames);
+	}
+
+	/**
+	 * Replaces the cached package and class name sets by compact sets of IDs
+	 * of the specified symbol tables. Scans the jar-file if it hasn't been
+	 * scanned yet. Jar-files of the same pool should share their tables, so
+	 * their package sets can be compared bitwise.
+	 * 
+	 * @param packageSymbols
+	 *            the table of package names
+	 * @param classSymbols
+	 *            the table of class names
+	 */
+	synchronized void intern(SymbolTable packageSymbols,
+			SymbolTable classSymbols) {
+		scan();
+		providedPackages = SymbolBitSet.intern(packageSymbols,
+				providedPackages);
+		referencedPackageNames = SymbolBitSet.intern(packageSymbols,
+				referencedPackageNames);
+		referencedClassNames = SymbolArraySet.intern(classSymbols,
+				referencedClassNames);
+		providedClassNames = SymbolArraySet.intern(classSymbols,
+				providedClassNames);
+		packageDependencies = null;
+		this.packageSymbols = packageSymbols;
+	}
+
+	/**
+	 * @return the table of the package names, <code>null</code> if the
+	 *         package names haven't been interned
+	 */
+	SymbolTable getPackageSymbols() {
+		return packageSymbols;
 	}
 
 	/**
@@ -143,58 +707,363 @@ public class JarFileDescription implements Comparable<JarFileDescription> {
 	 */
 	public Set<String> getPackageDependencies() {
 		if (packageDependencies == null) {
-			packageDependencies = Sets.difference(getReferencedPackageNames(),
-					getProvidedPackages());
-			packageDependencies = Sets.filter(packageDependencies, ClassNameFilters.NOT_JRE_CLASS_NAME);
+			Set<String> referenced = getReferencedPackageNames();
+			if (referenced instanceof SymbolBitSet) {
+				packageDependencies = ((SymbolBitSet) referenced).difference(
+						getProvidedPackages()).filter(
+						ClassNameFilters.NOT_JRE_CLASS_NAME);
+			} else {
+				packageDependencies = Collections.unmodifiableSet(Sets
+						.filter(Sets.difference(referenced,
+								getProvidedPackages()),
+								ClassNameFilters.NOT_JRE_CLASS_NAME));
+			}
 		}
-		return Collections.unmodifiableSet(packageDependencies);
+		return packageDependencies;
 	}
 
 	/**
-	 * @return a unmodifiable of all directories in this jar-file
+	 * Closes the jar-file. The results computed so far are kept; the jar-file
+	 * is opened again if further results are requested.
+	 */
+	public synchronized void close() throws IOException {
+		if (jarZip != null) {
+			jarZip.close();
+			jarZip = null;
+		}
+		if (zipPool != null) {
+			zipPool.close(jarFile);
+		}
+	}
+
+	/**
+	 * Opens the jar-file or borrows an open handle from the pool. Each call
+	 * must be followed by {@link #releaseZip()}.
+	 * 
+	 * @return an open handle
+	 * @throws IllegalStateException
+	 *             if the jar-file cannot be opened, caused by the
+	 *             {@link IOException}
 	 */
-	private Set<String> getDirectories() {
-		if (zipDirectories == null) {
-			zipDirectories = new HashSet<String>();
-			for (ZipEntry entry : list(jarZip.entries())) {
-				String name = entry.getName();
-				if (name.endsWith("/")) {
-					zipDirectories.add(name);
+	private ZipFile acquireZip() throws IllegalStateException {
+		try {
+			if (zipPool != null) {
+				return zipPool.acquire(jarFile);
+			}
+			synchronized (this) {
+				if (jarZip == null) {
+					jarZip = new ZipFile(jarFile);
 				}
+				return jarZip;
 			}
+		} catch (IOException e) {
+			throw new IllegalStateException("cannot open " + jarFile, e);
+		}
+	}
+
+	/**
+	 * Returns a handle returned by {@link #acquireZip()}.
+	 */
+	private void releaseZip() {
+		if (zipPool != null) {
+			zipPool.release(jarFile);
+		}
+	}
+
+	/**
+	 * Reads the entries of a jar-file one after the other and computes the
+	 * fingerprint of the entries passed.
+	 */
+	private abstract static class EntryReader implements Closeable {
+
+		private long fingerprint;
+
+		/**
+		 * @return the name of the next entry or <code>null</code> if there
+		 *         are no more entries
+		 */
+		abstract String next() throws IOException;
+
+		/**
+		 * @return the inflated content of the current entry
+		 */
+		abstract byte[] read() throws IOException;
+
+		/**
+		 * @return a stream of the inflated content of the current entry, to
+		 *         be closed before the next entry
+		 */
+		abstract InputStream open() throws IOException;
+
+		/**
+		 * @return the CRC-32 of the current entry, <code>-1</code> if it is
+		 *         not known yet
+		 */
+		abstract long getCrc();
+
+		/**
+		 * @return the size of the current entry, <code>-1</code> if it is
+		 *         not known yet
+		 */
+		abstract long getSize();
+
+		/**
+		 * Adds a completely passed entry to the fingerprint.
+		 */
+		void addToFingerprint(ZipEntry entry) {
+			if (isFingerprinted(entry.getName())) {
+				// the sum doesn't depend on the order of the entries
+				long h = entry.getName().hashCode() * 0x9e3779b97f4a7c15L
+						+ entry.getCrc();
+				h = (h * 0x9e3779b97f4a7c15L + entry.getSize()) * 0xc2b2ae3d27d4eb4fL;
+				fingerprint += h ^ h >>> 29;
+			}
+		}
+
+		/**
+		 * @return the fingerprint of the entries passed so far, complete
+		 *         once {@link #next()} has returned <code>null</code>
+		 */
+		long getFingerprint() {
+			return fingerprint;
+		}
+	}
+
+	/**
+	 * Opens the entries of the jar-file: through the handle of the zip-file
+	 * or, if nested, as a stream of the entry in the container.
+	 * 
+	 * @throws IllegalStateException
+	 *             if the jar-file cannot be opened, caused by the
+	 *             {@link IOException}
+	 */
+	private EntryReader openEntries() throws IllegalStateException {
+		if (container == null) {
+			final ZipFile zip = acquireZip();
+			final Enumeration<? extends ZipEntry> entries = zip.entries();
+			return new EntryReader() {
+				private ZipEntry entry;
+
+				String next() {
+					entry = entries.hasMoreElements() ? entries.nextElement()
+							: null;
+					if (entry == null) {
+						return null;
+					}
+					addToFingerprint(entry);
+					return entry.getName();
+				}
+
+				byte[] read() throws IOException {
+					InputStream is = zip.getInputStream(entry);
+					try {
+						return readEntry(is, entry.getSize());
+					} finally {
+						is.close();
+					}
+				}
+
+				InputStream open() throws IOException {
+					return zip.getInputStream(entry);
+				}
+
+				long getCrc() {
+					return entry.getCrc();
+				}
+
+				long getSize() {
+					return entry.getSize();
+				}
+
+				public void close() {
+					releaseZip();
+				}
+			};
+		}
+
+		final ZipInputStream zis;
+		try {
+			zis = new ZipInputStream(container.openEntry(entryName));
+		} catch (IOException e) {
+			throw new IllegalStateException("cannot open " + getName(), e);
 		}
-		return Collections.unmodifiableSet(zipDirectories);
+		return new EntryReader() {
+			private ZipEntry entry;
+
+			String next() throws IOException {
+				ZipEntry previous = entry;
+				entry = zis.getNextEntry();
+				if (previous != null) {
+					// the CRC-32 and size of a streamed entry may be known
+					// only after it has been passed
+					addToFingerprint(previous);
+				}
+				return entry == null ? null : entry.getName();
+			}
+
+			byte[] read() throws IOException {
+				return readEntry(zis, entry.getSize());
+			}
+
+			InputStream open() {
+				return new CloseShieldInputStream(zis);
+			}
+
+			long getCrc() {
+				return entry.getCrc();
+			}
+
+			long getSize() {
+				return entry.getSize();
+			}
+
+			public void close() throws IOException {
+				zis.close();
+			}
+		};
 	}
 
 	/**
-	 * @param the
-	 *            name of a directory in this jar-file
-	 * @return whether the specified directory contains at least one class file
-	 *         or not
+	 * Opens an entry of the jar-file for reading. The stream holds the handle
+	 * of the zip-file or, if this jar-file is nested itself, the stream of
+	 * the container until it is closed.
+	 * 
+	 * @throws IOException
+	 *             if there is no such entry or the jar-file cannot be read
 	 */
-	private boolean hasClassFile(String directory) {
-		for (ZipEntry entry : list(jarZip.entries())) {
-			String name = entry.getName();
-			if (name.startsWith(directory)) {
-				String fileName = name.substring(directory.length());
-				if (fileName.indexOf('/') == -1 && fileName.endsWith(".class")) {
-					return true;
+	private InputStream openEntry(String name) throws IOException {
+		if (container != null) {
+			ZipInputStream zis = new ZipInputStream(
+					container.openEntry(entryName));
+			for (ZipEntry entry = zis.getNextEntry(); entry != null; entry = zis
+					.getNextEntry()) {
+				if (entry.getName().equals(name)) {
+					return zis;
+				}
+			}
+			zis.close();
+			throw new FileNotFoundException(name + " not found in "
+					+ getName());
+		}
+
+		ZipFile zip;
+		try {
+			zip = acquireZip();
+		} catch (IllegalStateException e) {
+			throw new IOException(e.getMessage(), e.getCause());
+		}
+		InputStream is = null;
+		try {
+			ZipEntry entry = zip.getEntry(name);
+			if (entry == null) {
+				throw new FileNotFoundException(name + " not found in "
+						+ getName());
+			}
+			is = new FilterInputStream(zip.getInputStream(entry)) {
+				private boolean closed;
+
+				@Override
+				public void close() throws IOException {
+					if (!closed) {
+						closed = true;
+						try {
+							super.close();
+						} finally {
+							releaseZip();
+						}
+					}
 				}
+			};
+			return is;
+		} finally {
+			if (is == null) {
+				releaseZip();
 			}
 		}
-		return false;
 	}
-	
+
+	/**
+	 * Reads and inflates an entry completely without closing the stream. The
+	 * buffer is allocated once if the size of the entry is known.
+	 */
+	private static byte[] readEntry(InputStream is, long size)
+			throws IOException {
+		return size >= 0 && size <= Integer.MAX_VALUE ? IOUtils.toByteArray(
+				is, size) : IOUtils.toByteArray(is);
+	}
+
+	/**
+	 * @return whether the entry is part of the fingerprint: all files except
+	 *         those in <code>META-INF/</code> other than the manifest and the
+	 *         service files
+	 */
+	private static boolean isFingerprinted(String name) {
+		if (name.endsWith("/")) {
+			return false;
+		}
+		return !name.startsWith("META-INF/")
+				|| name.equalsIgnoreCase(JarFile.MANIFEST_NAME)
+				|| name.startsWith("META-INF/services/");
+	}
+
+	/**
+	 * @return whether the entry is a jar-file
+	 */
+	private static boolean isJar(String name) {
+		return name.endsWith(".jar");
+	}
+
+	/**
+	 * Adds a class file entry to the provided packages and classes. Class
+	 * files below <code>META-INF/</code>, e.g. of other Java versions in
+	 * <code>META-INF/versions/</code>, are ignored like by
+	 * {@link #readClasses(ClassFileHandler)}, their directories aren't
+	 * packages.
+	 * 
+	 * @return whether the entry is a class file to be parsed
+	 */
+	private static boolean addEntry(String name,
+			ImmutableSet.Builder<String> packages,
+			ImmutableSet.Builder<String> classes) {
+		if (!name.endsWith(".class") || name.startsWith("META-INF/")) {
+			return false;
+		}
+		String packageName = getEntryPackageName(name);
+		if (packageName != null) {
+			packages.add(packageName);
+		}
+		classes.add(name.substring(0, name.length() - ".class".length())
+				.replace('/', '.'));
+		return true;
+	}
+
+	/**
+	 * @param name
+	 *            the name of an entry in this jar-file
+	 * @return the name of the package the entry belongs to or
+	 *         <code>null</code> if the entry is no class file or located in
+	 *         the default package
+	 */
+	private static String getEntryPackageName(String name) {
+		if (!name.endsWith(".class")) {
+			return null;
+		}
+		int index = name.lastIndexOf('/');
+		if (index <= 0) {
+			return null;
+		}
+		return name.substring(0, index).replace('/', '.');
+	}
+
 	public int compareTo(JarFileDescription o) {
 		return getFile().compareTo(o.getFile());
 	}
 
 	@Override
 	public int hashCode() {
-		return getFile().getName().hashCode();
+		return getFile().hashCode();
 	}
-	
-	
+
 	@Override
 	public boolean equals(Object obj) {
 		return obj == this || obj != null
@@ -0,0 +1,462 @@
+package org.pa.jmeupdatesite;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+
+/**
+ * Rewrites a jar-file with a new manifest and optionally without some of its
+ * entries. All other entries are copied as they are stored, without
+ * inflating and deflating them again, so rewriting a jar-file costs little
+ * more than copying it. The signature files are dropped, as a new manifest
+ * breaks the signature anyway.
+ * <p>
+ * The zip-file is parsed directly: the central directory lists the entries
+ * with their sizes, CRC-32s and the offsets of their local headers, and the
+ * compressed data is transferred from channel to channel. Zip64 archives,
+ * i.e. archives larger than 4 GB or with more than 65,535 entries, are not
+ * supported.
+ */
+final class JarRewriter {
+
+	private static final int LOCAL_HEADER = 0x04034b50;
+	private static final int CENTRAL_HEADER = 0x02014b50;
+	private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+	private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+	private static final int DATA_DESCRIPTOR_FLAG = 1 << 3;
+	private static final int UTF8_FLAG = 1 << 11;
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+	private static final long MAX_32 = 0xffffffffL;
+
+	private JarRewriter() {
+	}
+
+	/**
+	 * Writes a copy of a jar-file with the specified manifest. The manifest
+	 * and its directory become the first entries, as required by
+	 * {@link java.util.jar.JarInputStream}.
+	 *
+	 * @param source
+	 *            the jar-file to copy
+	 * @param target
+	 *            the file to write, replaced if it exists
+	 * @param manifest
+	 *            the content of the new manifest
+	 * @throws ZipException
+	 *             if the source isn't a zip-file or uses Zip64
+	 * @throws IOException
+	 *             if a file cannot be read or written
+	 */
+	static void rewrite(File source, File target, byte[] manifest)
+			throws ZipException, IOException {
+		rewrite(source, target, manifest, Predicates.<String> alwaysTrue());
+	}
+
+	/**
+	 * Writes a copy of a jar-file with the specified manifest and only the
+	 * entries accepted by a filter. The manifest is always written, the
+	 * signature files never.
+	 *
+	 * @param source
+	 *            the jar-file to copy
+	 * @param target
+	 *            the file to write, replaced if it exists
+	 * @param manifest
+	 *            the content of the new manifest
+	 * @param entryFilter
+	 *            accepts the names of the entries to copy
+	 * @throws ZipException
+	 *             if the source isn't a zip-file or uses Zip64
+	 * @throws IOException
+	 *             if a file cannot be read or written
+	 */
+	static void rewrite(File source, File target, byte[] manifest,
+			Predicate<String> entryFilter) throws ZipException, IOException {
+		RandomAccessFile in = new RandomAccessFile(source, "r");
+		try {
+			FileChannel inChannel = in.getChannel();
+			ByteBuffer centralDirectory = readCentralDirectory(inChannel,
+					source);
+
+			RandomAccessFile out = new RandomAccessFile(target, "rw");
+			try {
+				out.setLength(0);
+				FileChannel outChannel = out.getChannel();
+				ByteBuffer newCentralDirectory = ByteBuffer.allocate(
+						centralDirectory.capacity() + 256).order(
+						ByteOrder.LITTLE_ENDIAN);
+				int entries = 0;
+
+				// the manifest first, with the time of the old one if any
+				int dosTime = toDosTime(System.currentTimeMillis());
+				ByteBuffer scan = centralDirectory.duplicate().order(
+						ByteOrder.LITTLE_ENDIAN);
+				while (scan.hasRemaining()) {
+					String name = readName(scan);
+					if (name.equalsIgnoreCase(JarFile.MANIFEST_NAME)) {
+						dosTime = scan.getInt(scan.position() + 12);
+					}
+					scan.position(scan.position() + centralHeaderLength(scan));
+				}
+				newCentralDirectory = writeNewEntry(outChannel,
+						newCentralDirectory, "META-INF/", new byte[0], dosTime);
+				newCentralDirectory = writeNewEntry(outChannel,
+						newCentralDirectory, JarFile.MANIFEST_NAME, manifest,
+						dosTime);
+				entries += 2;
+
+				// then all other entries as they are
+				while (centralDirectory.hasRemaining()) {
+					String name = readName(centralDirectory);
+					int length = centralHeaderLength(centralDirectory);
+					if (!isReplaced(name) && entryFilter.apply(name)) {
+						newCentralDirectory = copyEntry(inChannel, outChannel,
+								centralDirectory, length, newCentralDirectory,
+								source);
+						entries++;
+					}
+					centralDirectory.position(centralDirectory.position()
+							+ length);
+				}
+
+				if (entries > 0xffff || outChannel.position() > MAX_32) {
+					throw new ZipException(target
+							+ " would need Zip64, which isn't supported");
+				}
+				long centralDirectoryOffset = outChannel.position();
+				newCentralDirectory.flip();
+				int centralDirectorySize = newCentralDirectory.remaining();
+				writeFully(outChannel, newCentralDirectory);
+
+				ByteBuffer end = ByteBuffer.allocate(
+						END_OF_CENTRAL_DIRECTORY_SIZE).order(
+						ByteOrder.LITTLE_ENDIAN);
+				end.putInt(END_OF_CENTRAL_DIRECTORY);
+				end.putShort((short) 0); // this disk
+				end.putShort((short) 0); // disk of the central directory
+				end.putShort((short) entries);
+				end.putShort((short) entries);
+				end.putInt(centralDirectorySize);
+				end.putInt((int) centralDirectoryOffset);
+				end.putShort((short) 0); // no comment
+				end.flip();
+				writeFully(outChannel, end);
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @return whether the entry is replaced or dropped: the manifest, its
+	 *         directory and the signature files
+	 */
+	private static boolean isReplaced(String name) {
+		String upper = name.toUpperCase(Locale.ENGLISH);
+		if (upper.equals("META-INF/")
+				|| upper.equals(JarFile.MANIFEST_NAME)) {
+			return true;
+		}
+		if (!upper.startsWith("META-INF/")
+				|| upper.indexOf('/', "META-INF/".length()) >= 0) {
+			return false;
+		}
+		return upper.endsWith(".SF") || upper.endsWith(".RSA")
+				|| upper.endsWith(".DSA") || upper.endsWith(".EC")
+				|| upper.startsWith("META-INF/SIG-");
+	}
+
+	/**
+	 * Finds the end of central directory record and reads the central
+	 * directory.
+	 *
+	 * @return the central directory, little endian
+	 */
+	private static ByteBuffer readCentralDirectory(FileChannel channel,
+			File file) throws IOException {
+		long size = channel.size();
+		int tailSize = (int) Math.min(size, END_OF_CENTRAL_DIRECTORY_SIZE
+				+ 0xffff);
+		ByteBuffer tail = ByteBuffer.allocate(tailSize).order(
+				ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, tail, size - tailSize);
+		int end = -1;
+		for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+			if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+				end = i;
+				break;
+			}
+		}
+		if (end < 0) {
+			throw new ZipException(file + " is not a zip-file");
+		}
+
+		int entries = tail.getShort(end + 10) & 0xffff;
+		long centralDirectorySize = tail.getInt(end + 12) & MAX_32;
+		long centralDirectoryOffset = tail.getInt(end + 16) & MAX_32;
+		if (entries == 0xffff || centralDirectorySize == MAX_32
+				|| centralDirectoryOffset == MAX_32) {
+			throw new ZipException(file
+					+ " uses Zip64, which isn't supported");
+		}
+		if (centralDirectoryOffset + centralDirectorySize > size) {
+			throw new ZipException(file + " has an invalid central directory");
+		}
+		ByteBuffer centralDirectory = ByteBuffer.allocate(
+				(int) centralDirectorySize).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, centralDirectory, centralDirectoryOffset);
+		centralDirectory.flip();
+		return centralDirectory;
+	}
+
+	/**
+	 * @return the name of the central directory header at the position of
+	 *         the buffer
+	 */
+	private static String readName(ByteBuffer centralDirectory)
+			throws ZipException {
+		int header = centralDirectory.position();
+		if (centralDirectory.remaining() < 46
+				|| centralDirectory.getInt(header) != CENTRAL_HEADER) {
+			throw new ZipException("invalid central directory header");
+		}
+		int nameLength = centralDirectory.getShort(header + 28) & 0xffff;
+		byte[] name = new byte[nameLength];
+		ByteBuffer nameBuffer = centralDirectory.duplicate();
+		nameBuffer.position(header + 46);
+		nameBuffer.get(name);
+		// without the UTF-8 flag names are CP437, which matches UTF-8 for
+		// the ASCII names compared here
+		return new String(name, Charsets.UTF_8);
+	}
+
+	/**
+	 * @return the length of the central directory header at the position of
+	 *         the buffer, including its name, extra field and comment
+	 */
+	private static int centralHeaderLength(ByteBuffer centralDirectory) {
+		int header = centralDirectory.position();
+		return 46 + (centralDirectory.getShort(header + 28) & 0xffff)
+				+ (centralDirectory.getShort(header + 30) & 0xffff)
+				+ (centralDirectory.getShort(header + 32) & 0xffff);
+	}
+
+	/**
+	 * Copies the local header and the compressed data of an entry and adds
+	 * its central directory header with the new offset.
+	 *
+	 * @return the central directory, grown if necessary
+	 */
+	private static ByteBuffer copyEntry(FileChannel in, FileChannel out,
+			ByteBuffer centralDirectory, int length,
+			ByteBuffer newCentralDirectory, File source) throws IOException {
+		int header = centralDirectory.position();
+		int flags = centralDirectory.getShort(header + 8) & 0xffff;
+		long compressedSize = centralDirectory.getInt(header + 20) & MAX_32;
+		int nameLength = centralDirectory.getShort(header + 28) & 0xffff;
+		long localOffset = centralDirectory.getInt(header + 42) & MAX_32;
+
+		ByteBuffer local = ByteBuffer.allocate(30).order(
+				ByteOrder.LITTLE_ENDIAN);
+		readFully(in, local, localOffset);
+		if (local.getInt(0) != LOCAL_HEADER) {
+			throw new ZipException(source + " has an invalid local header at "
+					+ localOffset);
+		}
+		int localExtraLength = local.getShort(28) & 0xffff;
+		long dataOffset = localOffset + 30
+				+ (local.getShort(26) & 0xffff) + localExtraLength;
+
+		// a new local header with the sizes and CRC-32 of the central
+		// directory, so no data descriptor follows the data
+		long newOffset = out.position();
+		if (newOffset > MAX_32) {
+			throw new ZipException("the copy of " + source
+					+ " would need Zip64, which isn't supported");
+		}
+		ByteBuffer newLocal = ByteBuffer.allocate(30 + nameLength
+				+ localExtraLength).order(ByteOrder.LITTLE_ENDIAN);
+		newLocal.putInt(LOCAL_HEADER);
+		newLocal.putShort(centralDirectory.getShort(header + 6)); // version
+		newLocal.putShort((short) (flags & ~DATA_DESCRIPTOR_FLAG));
+		newLocal.putShort(centralDirectory.getShort(header + 10)); // method
+		newLocal.putInt(centralDirectory.getInt(header + 12)); // time, date
+		newLocal.putInt(centralDirectory.getInt(header + 16)); // CRC-32
+		newLocal.putInt(centralDirectory.getInt(header + 20)); // compressed
+		newLocal.putInt(centralDirectory.getInt(header + 24)); // size
+		newLocal.putShort((short) nameLength);
+		newLocal.putShort((short) localExtraLength);
+		ByteBuffer name = centralDirectory.duplicate();
+		name.position(header + 46).limit(header + 46 + nameLength);
+		newLocal.put(name);
+		ByteBuffer localExtra = ByteBuffer.allocate(localExtraLength);
+		readFully(in, localExtra,
+				localOffset + 30 + (local.getShort(26) & 0xffff));
+		localExtra.flip();
+		newLocal.put(localExtra);
+		newLocal.flip();
+		writeFully(out, newLocal);
+
+		for (long copied = 0; copied < compressedSize;) {
+			long transferred = in.transferTo(dataOffset + copied,
+					compressedSize - copied, out);
+			if (transferred <= 0) {
+				throw new ZipException(source + " is truncated");
+			}
+			copied += transferred;
+		}
+
+		newCentralDirectory = ensureRemaining(newCentralDirectory, length);
+		ByteBuffer central = centralDirectory.duplicate();
+		central.limit(header + length);
+		int start = newCentralDirectory.position();
+		newCentralDirectory.put(central);
+		newCentralDirectory.putShort(start + 8,
+				(short) (flags & ~DATA_DESCRIPTOR_FLAG));
+		newCentralDirectory.putInt(start + 42, (int) newOffset);
+		return newCentralDirectory;
+	}
+
+	/**
+	 * Writes a new entry, deflated unless it is empty, and adds its central
+	 * directory header.
+	 *
+	 * @return the central directory, grown if necessary
+	 */
+	private static ByteBuffer writeNewEntry(FileChannel out,
+			ByteBuffer newCentralDirectory, String name, byte[] content,
+			int dosTime) throws IOException {
+		byte[] nameBytes = name.getBytes(Charsets.UTF_8);
+		CRC32 crc = new CRC32();
+		crc.update(content);
+		byte[] data = content.length == 0 ? content : deflate(content);
+		int method = content.length == 0 ? STORED : DEFLATED;
+
+		long offset = out.position();
+		ByteBuffer local = ByteBuffer.allocate(30 + nameBytes.length).order(
+				ByteOrder.LITTLE_ENDIAN);
+		local.putInt(LOCAL_HEADER);
+		local.putShort((short) 20); // version needed
+		local.putShort((short) UTF8_FLAG);
+		local.putShort((short) method);
+		local.putInt(dosTime);
+		local.putInt((int) crc.getValue());
+		local.putInt(data.length);
+		local.putInt(content.length);
+		local.putShort((short) nameBytes.length);
+		local.putShort((short) 0); // no extra field
+		local.put(nameBytes);
+		local.flip();
+		writeFully(out, local);
+		writeFully(out, ByteBuffer.wrap(data));
+
+		newCentralDirectory = ensureRemaining(newCentralDirectory,
+				46 + nameBytes.length);
+		newCentralDirectory.putInt(CENTRAL_HEADER);
+		newCentralDirectory.putShort((short) 20); // version made by
+		newCentralDirectory.putShort((short) 20); // version needed
+		newCentralDirectory.putShort((short) UTF8_FLAG);
+		newCentralDirectory.putShort((short) method);
+		newCentralDirectory.putInt(dosTime);
+		newCentralDirectory.putInt((int) crc.getValue());
+		newCentralDirectory.putInt(data.length);
+		newCentralDirectory.putInt(content.length);
+		newCentralDirectory.putShort((short) nameBytes.length);
+		newCentralDirectory.putShort((short) 0); // extra field
+		newCentralDirectory.putShort((short) 0); // comment
+		newCentralDirectory.putShort((short) 0); // disk
+		newCentralDirectory.putShort((short) 0); // internal attributes
+		newCentralDirectory.putInt(0); // external attributes
+		newCentralDirectory.putInt((int) offset);
+		newCentralDirectory.put(nameBytes);
+		return newCentralDirectory;
+	}
+
+	private static byte[] deflate(byte[] content) {
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			deflater.setInput(content);
+			deflater.finish();
+			byte[] buffer = new byte[content.length + 64];
+			int length = 0;
+			while (!deflater.finished()) {
+				if (length == buffer.length) {
+					byte[] larger = new byte[buffer.length * 2];
+					System.arraycopy(buffer, 0, larger, 0, length);
+					buffer = larger;
+				}
+				length += deflater.deflate(buffer, length, buffer.length
+						- length);
+			}
+			byte[] result = new byte[length];
+			System.arraycopy(buffer, 0, result, 0, length);
+			return result;
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static ByteBuffer ensureRemaining(ByteBuffer buffer, int remaining) {
+		if (buffer.remaining() >= remaining) {
+			return buffer;
+		}
+		ByteBuffer larger = ByteBuffer.allocate(
+				Math.max(buffer.capacity() * 2, buffer.position() + remaining))
+				.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.flip();
+		larger.put(buffer);
+		return larger;
+	}
+
+	/**
+	 * @return the MS-DOS date and time of a Java time, as stored in zip
+	 *         headers
+	 */
+	private static int toDosTime(long time) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(time);
+		int year = calendar.get(Calendar.YEAR);
+		if (year < 1980) {
+			return 1 << 21 | 1 << 16; // 1980-01-01
+		}
+		return (year - 1980) << 25 | (calendar.get(Calendar.MONTH) + 1) << 21
+				| calendar.get(Calendar.DAY_OF_MONTH) << 16
+				| calendar.get(Calendar.HOUR_OF_DAY) << 11
+				| calendar.get(Calendar.MINUTE) << 5
+				| calendar.get(Calendar.SECOND) >> 1;
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer,
+			long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				throw new ZipException("unexpected end of zip-file");
+			}
+			position += read;
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+}
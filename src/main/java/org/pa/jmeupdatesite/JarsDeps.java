@@ -1,14 +1,22 @@
 package org.pa.jmeupdatesite;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.SortedSet;
 
-import org.pa.jmeupdatesite.JarFileDependencies.Dependency;
+import javax.management.JMException;
+
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
+import com.google.common.base.Charsets;
 
 public class JarsDeps {
 
@@ -16,113 +24,445 @@ public class JarsDeps {
 		System.out
 				.println("prints the dependencies of jars in a directory on each other");
 		System.out
-				.println("usage: one arg - the path to a directory containing many jar files");
+				.println("usage: [options] <dir>... - the paths to directories containing many jar files, or to jar files");
+		System.out.println("options:");
+		System.out
+				.println(" --threads <n>  analyse the pool with n worker threads (default 1)");
+		System.out
+				.println(" --cache <dir>  reuse the results of unchanged jars stored in dir");
+		System.out
+				.println(" --cache-verify additionally compare a content hash of cached jars");
+		System.out
+				.println(" --engine <e>   class file parser: asm (default) or constant-pool");
+		System.out
+				.println(" --max-open-jars <n> keep at most n jars open (default 128)");
+		System.out
+				.println(" --stats        print timings and counters to the standard error");
+		System.out
+				.println(" --recursive    also search the subdirectories, e.g. of a maven repository");
+		System.out
+				.println(" --no-nested    ignore the jars contained in the jars of the directory");
+		System.out
+				.println(" --verify-duplicates compare a content hash of identical looking jars and classes");
+		System.out
+				.println(" --class-level  resolve split packages class by class");
+		System.out
+				.println(" --graph        also print the dependency cycles and the install order");
+		System.out
+				.println(" --entry <class> also print the classes reachable from the class, a.b.* or a.b.**, may be repeated");
+		System.out
+				.println(" --prune <dir>  write the jars with only the reachable classes to dir");
+		System.out
+				.println(" --bundle <dir> write the jars as OSGi bundles and p2 metadata to the update site dir");
+		System.out
+				.println(" --watch        keep running and report the changes of the directory");
+		System.out
+				.println(" --serve        keep running and answer the queries of PoolClient");
+		System.out
+				.println(" --port <n>     the port of --serve (default " + PoolServer.DEFAULT_PORT + ")");
+		System.out
+				.println(" --format <f>   report format: text (default), jsonl, csv or dot");
+		System.out
+				.println(" --output <file> write the report to file instead of the standard output");
+		System.out
+				.println("--graph, --entry and --watch need the text format, --watch a single directory");
+		System.out
+				.println("--serve doesn't write a report or bundles");
+	}
+
+	/**
+	 * @return a buffered writer to the standard output which doesn't close
+	 *         it, encoding UTF-8 like the report files whatever the locale
+	 */
+	private static Writer newStdoutWriter() {
+		return new BufferedWriter(new OutputStreamWriter(
+				new CloseShieldOutputStream(System.out), Charsets.UTF_8));
 	}
 
 	public static void main(String[] args) throws Exception {
 
-		if (args.length != 1) {
+		List<File> roots = new ArrayList<File>();
+		boolean recursive = false;
+		int threads = 1;
+		File cacheDir = null;
+		boolean cacheVerify = false;
+		ClassBytesUtil.Engine engine = ClassBytesUtil.Engine.ASM;
+		int maxOpenJars = 128;
+		boolean classLevel = false;
+		boolean nestedJars = true;
+		boolean verifyDuplicates = false;
+		boolean stats = false;
+		boolean graph = false;
+		boolean watch = false;
+		boolean serve = false;
+		int port = PoolServer.DEFAULT_PORT;
+		ReportFormat format = ReportFormat.TEXT;
+		File outputFile = null;
+		File siteDir = null;
+		List<String> entryPoints = new ArrayList<String>();
+		File pruneDir = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--threads") && i + 1 < args.length) {
+				try {
+					threads = Integer.parseInt(args[++i]);
+				} catch (NumberFormatException e) {
+					threads = 0;
+				}
+				if (threads < 1) {
+					System.out.println(args[i] + " is not a valid thread count");
+					System.exit(1);
+				}
+			} else if (args[i].equals("--cache") && i + 1 < args.length) {
+				cacheDir = new File(args[++i]);
+			} else if (args[i].equals("--cache-verify")) {
+				cacheVerify = true;
+			} else if (args[i].equals("--engine") && i + 1 < args.length) {
+				try {
+					engine = ClassBytesUtil.Engine.valueOf(args[++i]
+							.toUpperCase().replace('-', '_'));
+				} catch (IllegalArgumentException e) {
+					System.out.println(args[i] + " is not a valid engine");
+					System.exit(1);
+				}
+			} else if (args[i].equals("--max-open-jars") && i + 1 < args.length) {
+				try {
+					maxOpenJars = Integer.parseInt(args[++i]);
+				} catch (NumberFormatException e) {
+					maxOpenJars = 0;
+				}
+				if (maxOpenJars < 1) {
+					System.out.println(args[i] + " is not a valid number of jars");
+					System.exit(1);
+				}
+			} else if (args[i].equals("--stats")) {
+				stats = true;
+			} else if (args[i].equals("--recursive")) {
+				recursive = true;
+			} else if (args[i].equals("--no-nested")) {
+				nestedJars = false;
+			} else if (args[i].equals("--verify-duplicates")) {
+				verifyDuplicates = true;
+			} else if (args[i].equals("--class-level")) {
+				classLevel = true;
+			} else if (args[i].equals("--graph")) {
+				graph = true;
+			} else if (args[i].equals("--entry") && i + 1 < args.length) {
+				entryPoints.add(args[++i]);
+			} else if (args[i].equals("--prune") && i + 1 < args.length) {
+				pruneDir = new File(args[++i]);
+			} else if (args[i].equals("--bundle") && i + 1 < args.length) {
+				siteDir = new File(args[++i]);
+			} else if (args[i].equals("--watch")) {
+				watch = true;
+			} else if (args[i].equals("--serve")) {
+				serve = true;
+			} else if (args[i].equals("--port") && i + 1 < args.length) {
+				try {
+					port = Integer.parseInt(args[++i]);
+				} catch (NumberFormatException e) {
+					port = -1;
+				}
+				if (port < 0 || port > 0xffff) {
+					System.out.println(args[i] + " is not a valid port");
+					System.exit(1);
+				}
+			} else if (args[i].equals("--format") && i + 1 < args.length) {
+				try {
+					format = ReportFormat.valueOf(args[++i].toUpperCase());
+				} catch (IllegalArgumentException e) {
+					System.out.println(args[i] + " is not a valid format");
+					System.exit(1);
+				}
+			} else if (args[i].equals("--output") && i + 1 < args.length) {
+				outputFile = new File(args[++i]);
+			} else if (!args[i].startsWith("--")) {
+				roots.add(new File(args[i]));
+			} else {
+				printUsage();
+				System.exit(1);
+			}
+		}
+		if (roots.isEmpty() || (graph || watch || !entryPoints.isEmpty())
+				&& format != ReportFormat.TEXT || pruneDir != null
+				&& entryPoints.isEmpty() || watch
+				&& (roots.size() != 1 || recursive) || serve
+				&& (graph || watch || stats || format != ReportFormat.TEXT
+				|| outputFile != null || siteDir != null || !entryPoints
+				.isEmpty())) {
 			printUsage();
 			System.exit(1);
 		}
-
-		File libDir = new File(args[0]);
-		if (!libDir.isDirectory()) {
-			System.out.println(args[0] + " is not a directory");
+		for (File root : roots) {
+			if (!root.exists()) {
+				System.out.println(root + " does not exist");
+				System.exit(1);
+			}
+		}
+		final File libDir = roots.get(0);
+		if (watch && !libDir.isDirectory()) {
+			System.out.println(libDir + " is not a directory");
 			System.exit(1);
 		}
-		TreeSet<File> poolFiles = new TreeSet<File>(Arrays.asList(libDir
-				.listFiles(new java.io.FileFilter() {
 
-					public boolean accept(File pathname) {
-						return pathname.getName().endsWith(".jar");
+		// the jar-files are analysed while the directories are still listed
+		JarDiscovery discovery = new JarDiscovery(roots);
+		discovery.setRecursive(recursive);
+		discovery.setThreads(threads);
+
+		AnalysisCache cache = cacheDir == null ? null : new AnalysisCache(
+				cacheDir, cacheVerify);
+		final PoolAnalysis analysis = new PoolAnalysis(discovery);
+		analysis.setThreads(threads);
+		analysis.setCache(cache);
+		analysis.setEngine(engine);
+		analysis.setMaxOpenJars(maxOpenJars);
+		analysis.setClassLevel(classLevel);
+		analysis.setNestedJars(nestedJars);
+		analysis.setVerifyContent(verifyDuplicates);
+		// always counted in the long-running modes, to be inspected by JMX
+		final AnalysisMetrics metrics = stats || watch || serve
+				? new AnalysisMetrics() : null;
+		analysis.setMetrics(metrics);
+
+		if (serve) {
+			serve(analysis, metrics, roots, recursive, port);
+			return;
+		}
+
+		// each jar-file is reported as soon as it is resolved
+		final ReportWriter report = format
+				.createWriter(outputFile == null ? newStdoutWriter()
+						: new BufferedWriter(new OutputStreamWriter(
+								new FileOutputStream(outputFile), "UTF-8")));
+		try {
+			analysis.analyse(new PoolAnalysis.Listener() {
+				private boolean started;
+
+				public void resolved(JarFileDependencies dependencies)
+						throws IOException {
+					if (!started) { // the pool is complete now
+						report.startReport(analysis.getJarFiles());
+						started = true;
 					}
-				})));
-		if (poolFiles.isEmpty()) {
+					report.writeDependencies(dependencies);
+				}
+			});
+			if (!analysis.getJarFiles().isEmpty()) {
+				report.endReport();
+			}
+		} finally {
+			// the rest of the report needs the results only
+			analysis.close();
+			report.close();
+		}
+		if (analysis.getJarFiles().isEmpty()) {
 			System.out.println("no jars found");
 			System.exit(0);
 		}
+		if (stats) {
+			metrics.printSummary(System.err);
+		}
 
-		System.out.println("-- POOL --");
-		for (File f : poolFiles) {
-			System.out.println(f.getName());
+		if (graph) {
+			JarDependencyGraph dependencyGraph = analysis.getDependencyGraph();
+			System.out.println();
+			System.out.println("-- CYCLES --");
+			List<Set<JarFileDescription>> cycles = dependencyGraph.getCycles();
+			if (cycles.isEmpty()) {
+				System.out.println("nothing");
+			}
+			for (Set<JarFileDescription> cycle : cycles) {
+				System.out.println(" cycle:");
+				for (JarFileDescription jfd : cycle) {
+					System.out.println("  " + jfd.getName());
+				}
+			}
+			System.out.println();
+			System.out.println("-- INSTALL ORDER --");
+			List<Set<JarFileDescription>> layers = dependencyGraph.getLayers();
+			for (int layer = 0; layer < layers.size(); layer++) {
+				System.out.println(" layer " + layer + ":");
+				for (JarFileDescription jfd : layers.get(layer)) {
+					System.out.println("  " + jfd.getName());
+				}
+			}
 		}
-		System.out.println();
-		System.out.println();
 
-		TreeSet<JarFileDescription> pool = new TreeSet<JarFileDescription>();
-		for (File poolFile : poolFiles) {
-			pool.add(new JarFileDescription(poolFile));
+		if (!entryPoints.isEmpty()) {
+			ClassGraph classGraph = new ClassGraph(analysis.getPool());
+			classGraph.setThreads(threads);
+			classGraph.build();
+			ClassGraph.Reachability reachability;
+			try {
+				reachability = classGraph.findReachable(entryPoints);
+			} catch (IllegalArgumentException e) {
+				System.out.println(e.getMessage());
+				System.exit(1);
+				return;
+			}
+			System.out.println();
+			System.out.println("-- REACHABLE CLASSES --");
+			for (JarFileDescription jfd : analysis.getPool()) {
+				System.out.println(" " + jfd.getName() + ": "
+						+ reachability.getClassNames(jfd).size() + " of "
+						+ classGraph.getClassCount(jfd));
+				for (String className : reachability
+						.getUnparsedClassNames(jfd)) {
+					System.out.println("  unparsed: " + className);
+				}
+			}
+			for (String className : reachability.getMissingClassNames()) {
+				System.out.println(" missing: " + className);
+			}
+			if (pruneDir != null) {
+				SortedSet<File> pruned = reachability.write(pruneDir);
+				System.err.println(pruned.size() + " pruned jars written to "
+						+ pruneDir);
+			}
+			analysis.close();
 		}
 
-		TreeMap<String, ArrayList<JarFileDescription>> allUnresolvedPckgToJars = new TreeMap<String, ArrayList<JarFileDescription>>();
+		if (siteDir != null) {
+			UpdateSiteBundler bundler = new UpdateSiteBundler(analysis, siteDir);
+			bundler.setThreads(threads);
+			SortedSet<Bundle> bundles = bundler.bundle();
+			for (Map.Entry<JarFileDescription, Bundle> entry : bundler
+					.getSkippedJarLibs().entrySet()) {
+				System.err.println("skipping " + entry.getKey().getName()
+						+ ", " + entry.getValue().getJarLib().getName()
+						+ " is bundled as " + entry.getValue());
+			}
+			UpdateSiteMetadata metadata = new UpdateSiteMetadata(siteDir,
+					siteDir.getAbsoluteFile().getName());
+			if (cacheDir != null) {
+				metadata.setCache(new File(cacheDir, "p2-metadata.cache"));
+			}
+			int reused = metadata.generate(bundles);
+			analysis.close();
+			System.err.println(bundles.size() + " bundles written to "
+					+ bundler.getPluginsDirectory() + ", " + reused
+					+ " units of the p2 metadata reused");
+		}
 
-		for (JarFileDescription jfd : pool) {
-			JarFileDependencies deps = new JarFileDependencies(jfd, pool);
-			System.out.println("- " + jfd.getFile().getName() + "-");
+		if (watch) {
+			System.out.println();
+			System.out.println("-- WATCHING " + libDir + " --");
+			registerMBean(metrics);
+			final Writer changesOut = newStdoutWriter();
+			final TextReportWriter changes = new TextReportWriter(changesOut);
+			// the pool consists of real paths
+			PoolWatcher watcher = new PoolWatcher(libDir.toPath().toRealPath()
+					.toFile(), analysis);
+			watcher.watch(new PoolWatcher.Listener() {
 
-			if (deps.getUnresolvedPackages().isEmpty()
-					&& deps.getOneToManyDependencies().isEmpty()
-					&& deps.getOneToOneDependencies().isEmpty()) {
-				System.out.println(" nothing to report");
-			} else {
-				Set<Dependency> depSet = new HashSet<JarFileDependencies.Dependency>(
-						deps.getOneToOneDependencies());
-
-				if (!depSet.isEmpty()) {
-					System.out.println("one-to-one:");
-					for (Dependency dep : depSet) {
-						System.out.println(" jar: "
-								+ dep.getSingleToDesc().getFile().getName());
-						for (String p : dep.getPackages()) {
-							System.out.println("  pck:" + p);
-						}
+				public void poolChanged(PoolAnalysis analysis,
+						SortedSet<File> removedFiles,
+						SortedSet<JarFileDescription> changedJarLibs, long nanos) {
+					// don't keep the jars open, they may be replaced
+					analysis.close();
+					System.out.println();
+					System.out.println("-- CHANGES (" + nanos / 1000000
+							+ " ms) --");
+					for (File removed : removedFiles) {
+						System.out.println("- " + removed.getName()
+								+ "- removed");
 					}
-				}
-				depSet = new HashSet<JarFileDependencies.Dependency>(
-						deps.getOneToManyDependencies());
-				if (!depSet.isEmpty()) {
-					System.out.println("one-to-many (bad):");
-					for (Dependency dep : depSet) {
-						System.out.println(" pck: "
-								+ dep.getPackages().iterator().next());
-						for (File to : new TreeSet<File>(dep.getToSet())) {
-							System.out.println("  jar: " + to.getName());
+					try {
+						for (JarFileDescription jfd : changedJarLibs) {
+							changes.writeSection(analysis.getDependencies(jfd));
 						}
+						changesOut.flush();
+					} catch (IOException e) {
+						e.printStackTrace();
 					}
 				}
 
-				Set<String> unresolved = new TreeSet<String>(
-						deps.getUnresolvedPackages());
-				if (!unresolved.isEmpty()) {
-					System.out.println("unresolved (bad):");
-					for (String p : unresolved) {
-						System.out.println(" pck: " + p);
-						ArrayList<JarFileDescription> pckgList = allUnresolvedPckgToJars
-								.get(p);
-						if (pckgList == null) {
-							pckgList = new ArrayList<JarFileDescription>();
-							allUnresolvedPckgToJars.put(p, pckgList);
-						}
-						pckgList.add(jfd);
-					}
+				public void updateFailed(File jarFile, IOException e) {
+					System.out.println("cannot analyse " + jarFile.getName()
+							+ ": " + e.getMessage());
 				}
-			}
-
-			System.out.println();
+			});
 		}
+	}
 
-		System.out.println("-- ALL UNRESOLVED PACKAGES --");
-		if (allUnresolvedPckgToJars.isEmpty()) {
-			System.out.println("nothing");
-		} else {
-			for (String pck : allUnresolvedPckgToJars.keySet()) {
-				System.out.println(" " + pck);
-				for (JarFileDescription jfd : allUnresolvedPckgToJars.get(pck)) {
-					System.out.println("  " + jfd.getFile().getName());
+	/**
+	 * Analyses the pool and answers queries until a client stops the server.
+	 * The directories are watched to keep the pool up to date.
+	 */
+	private static void serve(final PoolAnalysis analysis,
+			AnalysisMetrics metrics, List<File> roots, boolean recursive,
+			int port) throws IOException {
+		// bind first, a second server fails before analysing
+		PoolServer server = new PoolServer(analysis, port);
+		try {
+			analysis.analyse();
+			analysis.close();
+			registerMBean(metrics);
+			for (File root : roots) {
+				if (root.isDirectory()) {
+					startWatcher(root, analysis);
 				}
+			}
+			if (recursive) {
+				System.out.println("changes in subdirectories are not watched");
+			}
+			System.out.println("-- SERVING " + analysis.getPool().size()
+					+ " jars ON PORT " + server.getPort() + " --");
+			server.serve();
+		} finally {
+			server.close();
+		}
+	}
+
+	/**
+	 * Updates the analysis with the changes of a directory on a daemon
+	 * thread.
+	 */
+	private static void startWatcher(File directory, PoolAnalysis analysis)
+			throws IOException {
+		// the pool consists of real paths
+		final PoolWatcher watcher = new PoolWatcher(directory.toPath()
+				.toRealPath().toFile(), analysis);
+		Thread thread = new Thread(new Runnable() {
+
+			public void run() {
+				try {
+					watcher.watch(new PoolWatcher.Listener() {
+
+						public void poolChanged(PoolAnalysis analysis,
+								SortedSet<File> removedFiles,
+								SortedSet<JarFileDescription> changedJarLibs,
+								long nanos) {
+							// don't keep the jars open, they may be replaced
+							analysis.close();
+							System.out.println("-- CHANGES (" + nanos
+									/ 1000000 + " ms): "
+									+ removedFiles.size() + " removed, "
+									+ changedJarLibs.size() + " changed --");
+						}
 
+						public void updateFailed(File jarFile, IOException e) {
+							System.out.println("cannot analyse "
+									+ jarFile.getName() + ": "
+									+ e.getMessage());
+						}
+					});
+				} catch (IOException e) {
+					e.printStackTrace();
+				} catch (InterruptedException e) {
+					// stopped
+				}
 			}
+		}, "pool-watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private static void registerMBean(AnalysisMetrics metrics) {
+		try {
+			metrics.registerMBean();
+		} catch (JMException e) {
+			System.err.println("cannot register the metrics: " + e);
 		}
 	}
 }
@@ -0,0 +1,123 @@
+package org.pa.jmeupdatesite;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.pa.jmeupdatesite.JarFileDependencies.Dependency;
+
+/**
+ * Writes one JSON object per jar-file and line, e.g.
+ * 
+ * <pre>
+ * {"jar":"a.jar","oneToOne":[{"jar":"b.jar","packages":["b"]}],
+ *  "oneToMany":[{"package":"c","jars":["c1.jar","c2.jar"]}],"unresolved":["d"]}
+ * </pre>
+ * 
+ * (without the line break). Jar-files with identical copies have an
+ * additional member <code>"duplicates":["a-1.0.jar"]</code>.
+ */
+public class JsonLinesReportWriter extends AbstractReportWriter {
+
+	/**
+	 * Creates a JSON Lines report writer.
+	 *
+	 * @param out
+	 *            the writer to write the report to, must not be
+	 *            <code>null</code>
+	 */
+	public JsonLinesReportWriter(Writer out) {
+		super(out);
+	}
+
+	public void writeDependencies(JarFileDependencies deps) throws IOException {
+		out.write("{\"jar\":");
+		writeString(deps.getJarLib().getName());
+		out.write(",\"oneToOne\":[");
+		boolean first = true;
+		for (Dependency dep : getOneToOne(deps)) {
+			out.write(first ? "{\"jar\":" : ",{\"jar\":");
+			writeString(dep.getSingleToDesc().getName());
+			out.write(",\"packages\":");
+			writeStrings(sorted(dep.getPackages()));
+			out.write('}');
+			first = false;
+		}
+		out.write("],\"oneToMany\":[");
+		first = true;
+		for (Dependency dep : getOneToMany(deps)) {
+			out.write(first ? "{\"package\":" : ",{\"package\":");
+			writeString(getPackage(dep));
+			out.write(",\"jars\":[");
+			JarFileDescription[] jars = sortedJarLibs(dep.getToDescSet());
+			for (int i = 0; i < jars.length; i++) {
+				if (i > 0) {
+					out.write(',');
+				}
+				writeString(jars[i].getName());
+			}
+			out.write("]}");
+			first = false;
+		}
+		out.write("],\"unresolved\":");
+		writeStrings(sorted(deps.getUnresolvedPackages()));
+		if (!deps.getJarLib().getDuplicates().isEmpty()) {
+			out.write(",\"duplicates\":[");
+			first = true;
+			for (JarFileDescription duplicate : deps.getJarLib()
+					.getDuplicates()) {
+				if (!first) {
+					out.write(',');
+				}
+				writeString(duplicate.getName());
+				first = false;
+			}
+			out.write(']');
+		}
+		writeLine("}");
+	}
+
+	private void writeStrings(String[] strings) throws IOException {
+		out.write('[');
+		for (int i = 0; i < strings.length; i++) {
+			if (i > 0) {
+				out.write(',');
+			}
+			writeString(strings[i]);
+		}
+		out.write(']');
+	}
+
+	/**
+	 * Writes a JSON string literal.
+	 */
+	private void writeString(String s) throws IOException {
+		out.write('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '"':
+				out.write("\\\"");
+				break;
+			case '\\':
+				out.write("\\\\");
+				break;
+			case '\n':
+				out.write("\\n");
+				break;
+			case '\r':
+				out.write("\\r");
+				break;
+			case '\t':
+				out.write("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					out.write(String.format("\\u%04x", (int) c));
+				} else {
+					out.write(c);
+				}
+			}
+		}
+		out.write('"');
+	}
+}
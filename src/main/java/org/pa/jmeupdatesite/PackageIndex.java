@@ -0,0 +1,225 @@
+package org.pa.jmeupdatesite;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Maps package names to the jar-files providing them. The index is built once
+ * for a pool of jar-files and may be shared by all {@link JarFileDependencies}
+ * instances of that pool, so each package dependency is resolved by a single
+ * lookup instead of a scan over the whole pool.
+ * <p>
+ * Packages are identified by their IDs in a {@link SymbolTable}. If the
+ * jar-files have been interned into a common table, the index uses it;
+ * otherwise it creates its own.
+ */
+public class PackageIndex {
+
+	private final Set<JarFileDescription> jarLibs;
+	private final SymbolTable packageSymbols;
+	private final List<Set<JarFileDescription>> providersById = new ArrayList<Set<JarFileDescription>>();
+	private final SymbolBitSet packages;
+
+	/**
+	 * Creates the index of the specified jar-files.
+	 *
+	 * @param jarLibs
+	 *            all jar-files in the class path, must not be <code>null</code>
+	 * @throws IllegalArgumentException
+	 *             if <code>jarLibs</code> is <code>null</code>
+	 */
+	public PackageIndex(Collection<JarFileDescription> jarLibs)
+			throws IllegalArgumentException {
+		notNull(jarLibs, "jar libs must not be null");
+		this.jarLibs = Collections
+				.unmodifiableSet(new HashSet<JarFileDescription>(jarLibs));
+		this.packageSymbols = getCommonSymbols(this.jarLibs);
+
+		List<ImmutableSet.Builder<JarFileDescription>> builders = new ArrayList<ImmutableSet.Builder<JarFileDescription>>();
+		BitSet packageIds = new BitSet();
+		for (JarFileDescription jarLib : this.jarLibs) {
+			for (String providedPackage : jarLib.getProvidedPackages()) {
+				int id = packageSymbols.intern(providedPackage);
+				while (builders.size() <= id) {
+					builders.add(null);
+				}
+				if (builders.get(id) == null) {
+					builders.set(id, ImmutableSet.<JarFileDescription> builder());
+				}
+				builders.get(id).add(jarLib);
+				packageIds.set(id);
+			}
+		}
+		for (ImmutableSet.Builder<JarFileDescription> builder : builders) {
+			providersById.add(builder == null ? null : builder.build());
+		}
+		this.packages = new SymbolBitSet(packageSymbols, packageIds);
+	}
+
+	/**
+	 * Creates the index of a changed pool. The providers of the packages not
+	 * provided by any removed or added jar-file are taken from the previous
+	 * index, so the work depends on the size of the change only.
+	 *
+	 * @param previous
+	 *            the index of the pool before the change, must not be
+	 *            <code>null</code>
+	 * @param removedJarLibs
+	 *            the jar-files removed from the pool, including replaced ones,
+	 *            must not be <code>null</code>
+	 * @param addedJarLibs
+	 *            the jar-files added to the pool, including the replacements,
+	 *            must not be <code>null</code>
+	 * @throws IllegalArgumentException
+	 *             if any argument is <code>null</code>
+	 */
+	public PackageIndex(PackageIndex previous,
+			Collection<JarFileDescription> removedJarLibs,
+			Collection<JarFileDescription> addedJarLibs)
+			throws IllegalArgumentException {
+		notNull(previous, "previous must not be null");
+		notNull(removedJarLibs, "removed jar libs must not be null");
+		notNull(addedJarLibs, "added jar libs must not be null");
+		Set<JarFileDescription> jarLibs = new HashSet<JarFileDescription>(
+				previous.jarLibs);
+		jarLibs.removeAll(removedJarLibs);
+		jarLibs.addAll(addedJarLibs);
+		this.jarLibs = Collections.unmodifiableSet(jarLibs);
+		this.packageSymbols = previous.packageSymbols;
+
+		// the new providers of the packages whose providers change
+		Set<JarFileDescription> removed = new HashSet<JarFileDescription>(
+				removedJarLibs);
+		Map<Integer, ImmutableSet.Builder<JarFileDescription>> builders = new HashMap<Integer, ImmutableSet.Builder<JarFileDescription>>();
+		for (JarFileDescription jarLib : removed) {
+			for (String providedPackage : jarLib.getProvidedPackages()) {
+				getBuilder(builders, previous, removed,
+						packageSymbols.intern(providedPackage));
+			}
+		}
+		for (JarFileDescription jarLib : addedJarLibs) {
+			for (String providedPackage : jarLib.getProvidedPackages()) {
+				getBuilder(builders, previous, removed,
+						packageSymbols.intern(providedPackage)).add(jarLib);
+			}
+		}
+
+		providersById.addAll(previous.providersById);
+		BitSet packageIds = previous.packages.toBitSet();
+		for (Map.Entry<Integer, ImmutableSet.Builder<JarFileDescription>> entry : builders
+				.entrySet()) {
+			int id = entry.getKey();
+			while (providersById.size() <= id) {
+				providersById.add(null);
+			}
+			Set<JarFileDescription> providers = entry.getValue().build();
+			providersById.set(id, providers.isEmpty() ? null : providers);
+			packageIds.set(id, !providers.isEmpty());
+		}
+		this.packages = new SymbolBitSet(packageSymbols, packageIds);
+	}
+
+	/**
+	 * @return the builder of the new providers of a package, initialized with
+	 *         the remaining previous providers
+	 */
+	private static ImmutableSet.Builder<JarFileDescription> getBuilder(
+			Map<Integer, ImmutableSet.Builder<JarFileDescription>> builders,
+			PackageIndex previous, Set<JarFileDescription> removed, int id) {
+		ImmutableSet.Builder<JarFileDescription> builder = builders.get(id);
+		if (builder == null) {
+			builder = ImmutableSet.builder();
+			for (JarFileDescription provider : previous.getProviders(id)) {
+				if (!removed.contains(provider)) {
+					builder.add(provider);
+				}
+			}
+			builders.put(id, builder);
+		}
+		return builder;
+	}
+
+	/**
+	 * @return the symbol table shared by all jar-files or a new one
+	 */
+	private static SymbolTable getCommonSymbols(
+			Collection<JarFileDescription> jarLibs) {
+		SymbolTable symbols = null;
+		for (JarFileDescription jarLib : jarLibs) {
+			SymbolTable jarSymbols = jarLib.getPackageSymbols();
+			if (jarSymbols == null || symbols != null && symbols != jarSymbols) {
+				return new SymbolTable();
+			}
+			symbols = jarSymbols;
+		}
+		return symbols == null ? new SymbolTable() : symbols;
+	}
+
+	/**
+	 * Returns all indexed jar-files.
+	 *
+	 * @return a unmodifiable set of jar-files
+	 */
+	public Set<JarFileDescription> getJarLibs() {
+		return jarLibs;
+	}
+
+	/**
+	 * Returns the table of the package IDs used by this index.
+	 *
+	 * @return the symbol table
+	 */
+	public SymbolTable getPackageSymbols() {
+		return packageSymbols;
+	}
+
+	/**
+	 * Returns the jar-files which provide the specified package.
+	 *
+	 * @param packageName
+	 *            the name of the package
+	 * @return a unmodifiable set of jar-files, may be empty but will never be
+	 *         <code>null</code>
+	 */
+	public Set<JarFileDescription> getProviders(String packageName) {
+		return getProviders(packageSymbols.getId(packageName));
+	}
+
+	/**
+	 * Returns the jar-files which provide the package with the specified ID.
+	 *
+	 * @param packageId
+	 *            the ID of the package in the symbol table of this index
+	 * @return a unmodifiable set of jar-files, may be empty but will never be
+	 *         <code>null</code>
+	 */
+	public Set<JarFileDescription> getProviders(int packageId) {
+		Set<JarFileDescription> providers = packageId >= 0
+				&& packageId < providersById.size() ? providersById
+				.get(packageId) : null;
+		if (providers == null) {
+			return Collections.emptySet();
+		}
+		return providers;
+	}
+
+	/**
+	 * Returns the names of all packages provided by at least one jar-file.
+	 *
+	 * @return a unmodifiable set of package names
+	 */
+	public Set<String> getPackages() {
+		return packages;
+	}
+}
@@ -0,0 +1,970 @@
+package org.pa.jmeupdatesite;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import com.google.common.collect.Iterables;
+
+/**
+ * Analyses a pool of jar-files: describes each jar-file, indexes the provided
+ * packages and computes the dependencies of each jar-file on the others. The
+ * work can be spread over several threads; the results do not depend on the
+ * number of threads. All jar-files of the pool share one table for package
+ * names and one for class names.
+ * <p>
+ * The jar-files are read through a {@link ZipFilePool}, so only a limited
+ * number of them is open at once. Close the analysis to close them.
+ * <p>
+ * Jar-files contained in jar-files of the pool are members of the pool, too,
+ * see {@link JarFileDescription#getNestedJarNames()}.
+ * <p>
+ * Identical jar-files, e.g. a versioned and an unversioned copy, are analysed
+ * as one: the first one by file is a member of the pool and the others are its
+ * {@link JarFileDescription#getDuplicates() duplicates}. Identical class files
+ * of different jar-files are parsed once.
+ */
+public class PoolAnalysis implements Closeable {
+
+	/**
+	 * Receives the dependencies of each jar-file as soon as they are
+	 * resolved.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called for each jar-file of the pool in the order of the pool, on
+		 * the thread running the analysis.
+		 *
+		 * @param dependencies
+		 *            the dependencies of a jar-file
+		 * @throws IOException
+		 *             if the dependencies cannot be processed, cancels the
+		 *             analysis
+		 */
+		void resolved(JarFileDependencies dependencies) throws IOException;
+	}
+
+	private final Set<File> jarFiles;
+	private final JarDiscovery discovery; // may be null
+	private int threads = 1;
+	private AnalysisCache cache;
+	private ClassBytesUtil.Engine engine = ClassBytesUtil.Engine.ASM;
+	private int maxOpenJars = 128;
+	private boolean classLevel;
+	private boolean nestedJars = true;
+	private boolean verifyContent;
+	private AnalysisMetrics metrics;
+	private ZipFilePool zipPool;
+	private ClassNameCache classNameCache; // only while describing
+
+	/*
+	 * results
+	 */
+	private final SymbolTable packageSymbols = new SymbolTable();
+	private final SymbolTable classSymbols = new SymbolTable();
+	private SortedSet<JarFileDescription> pool;
+	private PackageIndex packageIndex;
+	private JarDependencyGraph dependencyGraph;
+	private Map<JarFileDescription, JarFileDependencies> dependencies;
+	private ReverseDependencyIndex reverseIndex;
+	private ClasspathSolver classpathSolver;
+
+	/**
+	 * Creates an analysis of the specified jar-files. The analysis is
+	 * configured by the setters and run by {@link #analyse()}.
+	 *
+	 * @param jarFiles
+	 *            the jar-files of the pool, must not be <code>null</code>
+	 * @throws IllegalArgumentException
+	 *             if <code>jarFiles</code> is <code>null</code>
+	 */
+	public PoolAnalysis(Collection<File> jarFiles)
+			throws IllegalArgumentException {
+		this.jarFiles = new LinkedHashSet<File>(notNull(jarFiles,
+				"jar files must not be null"));
+		this.discovery = null;
+	}
+
+	/**
+	 * Creates an analysis of the jar-files found by a discovery. The
+	 * jar-files are discovered by each run of {@link #analyse()} and each
+	 * one is described as soon as it is found.
+	 *
+	 * @param discovery
+	 *            the discovery of the jar-files, must not be
+	 *            <code>null</code>
+	 * @throws IllegalArgumentException
+	 *             if <code>discovery</code> is <code>null</code>
+	 */
+	public PoolAnalysis(JarDiscovery discovery) throws IllegalArgumentException {
+		this.jarFiles = new LinkedHashSet<File>();
+		this.discovery = notNull(discovery, "discovery must not be null");
+	}
+
+	/**
+	 * Sets the number of worker threads. <code>1</code>, the default,
+	 * analyses the pool on the calling thread.
+	 *
+	 * @param threads
+	 *            the number of worker threads
+	 * @throws IllegalArgumentException
+	 *             if <code>threads</code> is less than <code>1</code>
+	 */
+	public void setThreads(int threads) throws IllegalArgumentException {
+		isTrue(threads >= 1, "threads must be at least 1");
+		this.threads = threads;
+	}
+
+	/**
+	 * Sets the cache with the scan results of previous runs. Unchanged
+	 * jar-files are restored from the cache, all others are scanned and
+	 * stored.
+	 *
+	 * @param cache
+	 *            the cache, may be <code>null</code> to scan every jar-file
+	 */
+	public void setCache(AnalysisCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Sets the engine used to parse class files, {@link ClassBytesUtil.Engine#ASM}
+	 * by default.
+	 *
+	 * @param engine
+	 *            the engine, must not be <code>null</code>
+	 * @throws IllegalArgumentException
+	 *             if <code>engine</code> is <code>null</code>
+	 */
+	public void setEngine(ClassBytesUtil.Engine engine)
+			throws IllegalArgumentException {
+		this.engine = notNull(engine, "engine must not be null");
+	}
+
+	/**
+	 * Sets the maximum number of jar-files kept open, 128 by default. Each
+	 * worker thread may hold one more open while reading it.
+	 *
+	 * @param maxOpenJars
+	 *            the maximum number of open jar-files
+	 * @throws IllegalArgumentException
+	 *             if <code>maxOpenJars</code> is less than <code>1</code>
+	 */
+	public void setMaxOpenJars(int maxOpenJars) throws IllegalArgumentException {
+		isTrue(maxOpenJars >= 1, "maxOpenJars must be at least 1");
+		this.maxOpenJars = maxOpenJars;
+	}
+
+	/**
+	 * Sets whether packages provided by several jar-files are resolved class
+	 * by class, see {@link JarFileDependencies#JarFileDependencies(JarFileDescription, PackageIndex, boolean)}.
+	 * Off by default.
+	 *
+	 * @param classLevel
+	 *            whether split packages are resolved class by class
+	 */
+	public void setClassLevel(boolean classLevel) {
+		this.classLevel = classLevel;
+	}
+
+	/**
+	 * Sets whether the jar-files nested in the jar-files of the pool are
+	 * analysed as members of the pool. On by default.
+	 *
+	 * @param nestedJars
+	 *            whether nested jar-files are analysed
+	 */
+	public void setNestedJars(boolean nestedJars) {
+		this.nestedJars = nestedJars;
+	}
+
+	/**
+	 * Sets whether jar-files and class files with the same fingerprint, see
+	 * {@link JarFileDescription#getFingerprint()}, are also compared by a
+	 * SHA-1 hash of their content before they are treated as identical. Off
+	 * by default: fingerprints of different files are equal by chance only,
+	 * and class files have to be inflated to be verified.
+	 *
+	 * @param verifyContent
+	 *            whether identical files are verified by their content
+	 */
+	public void setVerifyContent(boolean verifyContent) {
+		this.verifyContent = verifyContent;
+	}
+
+	/**
+	 * Sets the metrics counting the work of the analysis.
+	 *
+	 * @param metrics
+	 *            the metrics, may be <code>null</code>, the default, to
+	 *            count nothing
+	 */
+	public void setMetrics(AnalysisMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Analyses the pool.
+	 *
+	 * @throws IOException
+	 *             if a jar-file cannot be opened
+	 */
+	public void analyse() throws IOException {
+		analyse(null);
+	}
+
+	/**
+	 * Analyses the pool and passes the dependencies of each jar-file to the
+	 * listener as soon as they are resolved, so they can be processed while
+	 * the others are still being resolved.
+	 *
+	 * @param listener
+	 *            the listener, may be <code>null</code>
+	 * @throws IOException
+	 *             if a jar-file cannot be opened or the listener fails
+	 */
+	public synchronized void analyse(Listener listener) throws IOException {
+		close();
+		zipPool = new ZipFilePool(maxOpenJars);
+		classNameCache = new ClassNameCache(verifyContent);
+
+		AnalysisMetrics metrics = this.metrics;
+		ExecutorService executor = newExecutor();
+		try {
+			long start = System.nanoTime();
+			List<JarFileDescription> described;
+			try {
+				described = discovery == null ? describe(executor, jarFiles)
+						: discover(executor);
+			} finally {
+				classNameCache = null;
+			}
+			pool = Collections
+					.unmodifiableSortedSet(new TreeSet<JarFileDescription>(
+							deduplicate(described,
+									new HashMap<Long, List<JarFileDescription>>(),
+									null)));
+			long deduplicated = System.nanoTime();
+			packageIndex = new PackageIndex(pool);
+			dependencyGraph = null;
+			classpathSolver = null;
+			long indexed = System.nanoTime();
+			List<JarFileDependencies> resolved = resolve(executor, pool,
+					packageIndex, listener);
+			dependencies = new HashMap<JarFileDescription, JarFileDependencies>();
+			for (JarFileDependencies deps : resolved) {
+				dependencies.put(deps.getJarLib(), deps);
+			}
+			reverseIndex = new ReverseDependencyIndex(resolved);
+			if (metrics != null) {
+				metrics.addPhaseNanos(AnalysisMetrics.Phase.DESCRIBE,
+						deduplicated - start);
+				metrics.addPhaseNanos(AnalysisMetrics.Phase.INDEX, indexed
+						- deduplicated);
+				metrics.addPhaseNanos(AnalysisMetrics.Phase.RESOLVE,
+						System.nanoTime() - indexed);
+			}
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * Re-analyses the changed jar-files of an analysed pool. Only the
+	 * specified jar-files and the jar-files nested in them are scanned again
+	 * and only the dependencies of the jar-files which use a package of a
+	 * changed jar-file are resolved again. If a jar-file cannot be read, the
+	 * analysis is left unchanged. Updated jar-files identical to a jar-file of
+	 * the pool become its duplicates; if a jar-file with duplicates is
+	 * removed, its first remaining duplicate takes its place.
+	 *
+	 * @param updatedFiles
+	 *            the jar-files which have been added or replaced, must not be
+	 *            <code>null</code>
+	 * @param removedFiles
+	 *            the jar-files which have been removed, must not be
+	 *            <code>null</code>
+	 * @return the jar-files whose dependencies or duplicates have changed,
+	 *         always including the updated ones, sorted by their files
+	 * @throws IOException
+	 *             if an updated jar-file cannot be read
+	 * @throws IllegalStateException
+	 *             if the pool hasn't been analysed yet
+	 */
+	public synchronized SortedSet<JarFileDescription> update(
+			Collection<File> updatedFiles, Collection<File> removedFiles)
+			throws IOException, IllegalStateException {
+		notNull(updatedFiles, "updated files must not be null");
+		notNull(removedFiles, "removed files must not be null");
+		checkAnalysed();
+		long start = System.nanoTime();
+
+		// the previous descriptions of the changed jar-files and their nested
+		// jar-files
+		Set<File> changedFiles = new HashSet<File>();
+		Iterables.addAll(changedFiles,
+				Iterables.concat(updatedFiles, removedFiles));
+		Set<JarFileDescription> removed = new LinkedHashSet<JarFileDescription>();
+		Map<JarFileDescription, SortedSet<JarFileDescription>> keptDuplicates = new HashMap<JarFileDescription, SortedSet<JarFileDescription>>();
+		for (JarFileDescription jfd : pool) {
+			if (changedFiles.contains(jfd.getArchiveFile())) {
+				jfd.close(); // the pooled handle may be outdated
+				removed.add(jfd);
+			}
+			SortedSet<JarFileDescription> kept = new TreeSet<JarFileDescription>();
+			for (JarFileDescription duplicate : jfd.getDuplicates()) {
+				if (changedFiles.contains(duplicate.getArchiveFile())) {
+					duplicate.close();
+				} else {
+					kept.add(duplicate);
+				}
+			}
+			keptDuplicates.put(jfd, kept);
+		}
+
+		ExecutorService executor = newExecutor();
+		try {
+			List<JarFileDescription> described;
+			classNameCache = new ClassNameCache(verifyContent);
+			try {
+				described = new ArrayList<JarFileDescription>(describe(
+						executor, updatedFiles));
+			} finally {
+				classNameCache = null;
+			}
+
+			// the remaining duplicates of removed jar-files are described
+			// again, all others are grouped with the jar-files kept
+			Map<Long, List<JarFileDescription>> representatives = new HashMap<Long, List<JarFileDescription>>();
+			SortedSet<JarFileDescription> regrouped = new TreeSet<JarFileDescription>();
+			for (JarFileDescription jfd : pool) {
+				SortedSet<JarFileDescription> kept = keptDuplicates.get(jfd);
+				if (removed.contains(jfd)) {
+					described.addAll(kept);
+				} else {
+					if (kept.size() != jfd.getDuplicates().size()) {
+						jfd.setDuplicates(kept);
+						regrouped.add(jfd);
+					}
+					addRepresentative(representatives, jfd);
+				}
+			}
+			Set<JarFileDescription> updated = new LinkedHashSet<JarFileDescription>(
+					deduplicate(described, representatives, regrouped));
+
+			PackageIndex newIndex = new PackageIndex(packageIndex, removed,
+					updated);
+			BitSet changedIds = new BitSet();
+			for (JarFileDescription jfd : Iterables.concat(removed, updated)) {
+				for (String providedPackage : jfd.getProvidedPackages()) {
+					changedIds.set(packageSymbols.intern(providedPackage));
+				}
+			}
+
+			SortedSet<JarFileDescription> newPool = new TreeSet<JarFileDescription>(
+					pool);
+			newPool.removeAll(removed);
+			newPool.addAll(updated);
+			List<JarFileDescription> affected = new ArrayList<JarFileDescription>(
+					updated);
+			for (JarFileDescription jfd : newPool) {
+				if (!updated.contains(jfd) && dependsOn(jfd, changedIds)) {
+					affected.add(jfd);
+				}
+			}
+
+			Map<JarFileDescription, JarFileDependencies> newDependencies = new HashMap<JarFileDescription, JarFileDependencies>(
+					dependencies);
+			newDependencies.keySet().removeAll(removed);
+			SortedSet<JarFileDescription> changed = new TreeSet<JarFileDescription>(
+					updated);
+			changed.addAll(regrouped);
+			for (JarFileDependencies deps : resolve(executor, affected, newIndex,
+					null)) {
+				JarFileDependencies previous = dependencies.get(deps
+						.getJarLib());
+				if (previous == null || !isEqual(previous, deps)) {
+					changed.add(deps.getJarLib());
+				}
+				newDependencies.put(deps.getJarLib(), deps);
+			}
+
+			jarFiles.removeAll(removedFiles);
+			jarFiles.addAll(updatedFiles);
+			pool = Collections.unmodifiableSortedSet(newPool);
+			packageIndex = newIndex;
+			dependencyGraph = null;
+			classpathSolver = null;
+			dependencies = newDependencies;
+			reverseIndex = new ReverseDependencyIndex(newDependencies.values());
+			if (metrics != null) {
+				metrics.addUpdate();
+				metrics.addPhaseNanos(AnalysisMetrics.Phase.UPDATE,
+						System.nanoTime() - start);
+			}
+			return Collections.unmodifiableSortedSet(changed);
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * @return a executor for the worker threads or <code>null</code> to
+	 *         work on the calling thread
+	 */
+	private ExecutorService newExecutor() {
+		return threads == 1 ? null : Executors.newFixedThreadPool(threads);
+	}
+
+	/**
+	 * Describes and scans each jar-file or restores it from the cache. The
+	 * nested jar-files are described level by level after their containers.
+	 *
+	 * @return the descriptions in the order of the files, followed by the
+	 *         nested jar-files
+	 */
+	private List<JarFileDescription> describe(ExecutorService executor,
+			Collection<File> files) throws IOException {
+		List<Callable<JarFileDescription>> describeTasks = new ArrayList<Callable<JarFileDescription>>();
+		for (File jarFile : files) {
+			describeTasks.add(newDescribeTask(jarFile));
+		}
+		return describeNested(executor,
+				invokeAll(executor, describeTasks, null));
+	}
+
+	/**
+	 * Discovers the jar-files and describes each one as soon as it is found.
+	 * The discovered jar-files become the jar-files of the pool.
+	 *
+	 * @return the descriptions in the order of the files, followed by the
+	 *         nested jar-files
+	 */
+	private List<JarFileDescription> discover(final ExecutorService executor)
+			throws IOException {
+		final Map<File, Future<JarFileDescription>> describeFutures = new ConcurrentHashMap<File, Future<JarFileDescription>>();
+		SortedSet<File> files = discovery.discover(new JarDiscovery.Listener() {
+			public void found(File jarFile) {
+				Callable<JarFileDescription> task = newDescribeTask(jarFile);
+				if (executor == null) {
+					FutureTask<JarFileDescription> future = new FutureTask<JarFileDescription>(
+							task);
+					future.run();
+					describeFutures.put(jarFile, future);
+				} else {
+					describeFutures.put(jarFile, executor.submit(task));
+				}
+			}
+		});
+
+		jarFiles.clear();
+		jarFiles.addAll(files);
+		List<Future<JarFileDescription>> futures = new ArrayList<Future<JarFileDescription>>(
+				files.size());
+		for (File jarFile : files) {
+			futures.add(describeFutures.get(jarFile));
+		}
+		return describeNested(executor, getAll(futures));
+	}
+
+	/**
+	 * @return a task describing a jar-file
+	 */
+	private Callable<JarFileDescription> newDescribeTask(final File jarFile) {
+		final ClassBytesUtil.Engine engine = this.engine;
+		final ZipFilePool zipPool = this.zipPool;
+		return new Callable<JarFileDescription>() {
+			public JarFileDescription call() throws IOException {
+				return describe(new JarFileDescription(jarFile, engine,
+						zipPool));
+			}
+		};
+	}
+
+	/**
+	 * Describes the jar-files nested in the described ones level by level.
+	 *
+	 * @return the described jar-files followed by the nested ones
+	 */
+	private List<JarFileDescription> describeNested(ExecutorService executor,
+			List<JarFileDescription> described) throws IOException {
+		if (!nestedJars) {
+			return described;
+		}
+
+		List<JarFileDescription> result = new ArrayList<JarFileDescription>(
+				described);
+		List<JarFileDescription> containers = described;
+		while (!containers.isEmpty()) {
+			List<Callable<JarFileDescription>> nestedTasks = new ArrayList<Callable<JarFileDescription>>();
+			for (final JarFileDescription container : containers) {
+				for (final String entryName : container.getNestedJarNames()) {
+					nestedTasks.add(new Callable<JarFileDescription>() {
+						public JarFileDescription call() throws IOException {
+							return describe(new JarFileDescription(container,
+									entryName));
+						}
+					});
+				}
+			}
+			containers = invokeAll(executor, nestedTasks, null);
+			result.addAll(containers);
+		}
+		return result;
+	}
+
+	/**
+	 * Scans a jar-file or restores it from the cache and interns its names.
+	 *
+	 * @return the description
+	 */
+	private JarFileDescription describe(JarFileDescription jfd)
+			throws IOException {
+		AnalysisMetrics metrics = this.metrics;
+		long start = metrics == null ? 0 : System.nanoTime();
+		jfd.setMetrics(metrics);
+		// the cache is only shared while the run describes, so the class
+		// names of the scanned class files aren't kept by the descriptions
+		jfd.setClassNameCache(classNameCache);
+		try {
+			if (cache == null) {
+				scan(jfd);
+			} else if (cache.load(jfd)) {
+				if (metrics != null) {
+					metrics.addCacheHit();
+				}
+			} else {
+				if (metrics != null) {
+					metrics.addCacheMiss();
+				}
+				scan(jfd);
+				try {
+					cache.store(jfd);
+				} catch (IOException e) {
+					// the analysis doesn't depend on the cache
+					e.printStackTrace();
+				}
+			}
+		} finally {
+			jfd.setClassNameCache(null);
+		}
+		jfd.intern(packageSymbols, classSymbols);
+		if (metrics != null) {
+			metrics.addJarNanos(jfd.getFile(), System.nanoTime() - start);
+		}
+		return jfd;
+	}
+
+	/**
+	 * Groups identical jar-files. The first jar-file of each group by file is
+	 * kept, unless a representative is identical to it; the others become
+	 * duplicates of the jar-file kept.
+	 *
+	 * @param representatives
+	 *            the jar-files kept so far by their fingerprints, the new ones
+	 *            are added
+	 * @param regrouped
+	 *            receives the jar-files which got duplicates, may be
+	 *            <code>null</code>
+	 * @return the new jar-files kept, sorted by their files
+	 */
+	private List<JarFileDescription> deduplicate(
+			Collection<JarFileDescription> jarLibs,
+			Map<Long, List<JarFileDescription>> representatives,
+			Collection<JarFileDescription> regrouped) throws IOException {
+		List<JarFileDescription> kept = new ArrayList<JarFileDescription>();
+		Map<JarFileDescription, SortedSet<JarFileDescription>> duplicates = new HashMap<JarFileDescription, SortedSet<JarFileDescription>>();
+		Map<JarFileDescription, byte[]> contentHashes = new HashMap<JarFileDescription, byte[]>();
+		for (JarFileDescription jfd : new TreeSet<JarFileDescription>(jarLibs)) {
+			JarFileDescription original = null;
+			List<JarFileDescription> candidates = representatives.get(jfd
+					.getFingerprint());
+			if (candidates != null) {
+				for (JarFileDescription candidate : candidates) {
+					if (!verifyContent
+							|| Arrays.equals(getContentHash(candidate,
+									contentHashes), getContentHash(jfd,
+									contentHashes))) {
+						original = candidate;
+						break;
+					}
+				}
+			}
+
+			if (original == null) {
+				addRepresentative(representatives, jfd);
+				kept.add(jfd);
+			} else {
+				SortedSet<JarFileDescription> group = duplicates.get(original);
+				if (group == null) {
+					group = new TreeSet<JarFileDescription>(
+							original.getDuplicates());
+					duplicates.put(original, group);
+				}
+				group.add(jfd);
+			}
+		}
+
+		int duplicateJars = 0;
+		for (Map.Entry<JarFileDescription, SortedSet<JarFileDescription>> entry : duplicates
+				.entrySet()) {
+			duplicateJars += entry.getValue().size()
+					- entry.getKey().getDuplicates().size();
+			entry.getKey().setDuplicates(entry.getValue());
+			if (regrouped != null) {
+				regrouped.add(entry.getKey());
+			}
+		}
+		if (metrics != null) {
+			metrics.addDuplicateJars(duplicateJars);
+		}
+		return kept;
+	}
+
+	private static void addRepresentative(
+			Map<Long, List<JarFileDescription>> representatives,
+			JarFileDescription jfd) {
+		List<JarFileDescription> candidates = representatives.get(jfd
+				.getFingerprint());
+		if (candidates == null) {
+			candidates = new ArrayList<JarFileDescription>(1);
+			representatives.put(jfd.getFingerprint(), candidates);
+		}
+		candidates.add(jfd);
+	}
+
+	/**
+	 * Computes the content hash of a jar-file once, reporting a jar-file
+	 * which cannot be read as {@link IOException}.
+	 */
+	private static byte[] getContentHash(JarFileDescription jfd,
+			Map<JarFileDescription, byte[]> contentHashes) throws IOException {
+		byte[] hash = contentHashes.get(jfd);
+		if (hash == null) {
+			try {
+				hash = jfd.getContentHash();
+			} catch (IllegalStateException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw e;
+			}
+			contentHashes.put(jfd, hash);
+		}
+		return hash;
+	}
+
+	/**
+	 * Resolves the dependencies of each jar-file.
+	 *
+	 * @return the dependencies in the order of the jar-files
+	 */
+	private List<JarFileDependencies> resolve(ExecutorService executor,
+			Collection<JarFileDescription> jarLibs,
+			final PackageIndex packageIndex, final Listener listener)
+			throws IOException {
+		final boolean classLevel = this.classLevel;
+		List<Callable<JarFileDependencies>> resolveTasks = new ArrayList<Callable<JarFileDependencies>>();
+		for (final JarFileDescription jfd : jarLibs) {
+			resolveTasks.add(new Callable<JarFileDependencies>() {
+				public JarFileDependencies call() {
+					return new JarFileDependencies(jfd, packageIndex,
+							classLevel);
+				}
+			});
+		}
+		if (listener == null) {
+			return invokeAll(executor, resolveTasks, null);
+		}
+		return invokeAll(executor, resolveTasks,
+				new ResultHandler<JarFileDependencies>() {
+					public void handle(JarFileDependencies result)
+							throws IOException {
+						listener.resolved(result);
+					}
+				});
+	}
+
+	/**
+	 * @return whether the jar-file depends on any of the packages
+	 */
+	private boolean dependsOn(JarFileDescription jfd, BitSet packageIds) {
+		Set<String> packageDependencies = jfd.getPackageDependencies();
+		if (packageDependencies instanceof SymbolBitSet
+				&& ((SymbolBitSet) packageDependencies).getSymbols() == packageSymbols) {
+			return ((SymbolBitSet) packageDependencies).toBitSet().intersects(
+					packageIds);
+		}
+		for (String packageName : packageDependencies) {
+			int id = packageSymbols.getId(packageName);
+			if (id >= 0 && packageIds.get(id)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isEqual(JarFileDependencies a,
+			JarFileDependencies b) {
+		return a.getOneToOneDependencies().equals(b.getOneToOneDependencies())
+				&& a.getOneToManyDependencies().equals(
+						b.getOneToManyDependencies())
+				&& a.getUnresolvedPackages().equals(b.getUnresolvedPackages());
+	}
+
+	/**
+	 * Scans a jar-file, reporting a jar-file which cannot be read as
+	 * {@link IOException}.
+	 */
+	private static void scan(JarFileDescription jfd) throws IOException {
+		try {
+			jfd.scan();
+		} catch (IllegalStateException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Runs the tasks on the executor or, if there is none, on the calling
+	 * thread. Each result is passed to the handler, if any, as soon as it and
+	 * all results before it are available.
+	 *
+	 * @return the results in the order of the tasks
+	 */
+	private static <T> List<T> invokeAll(ExecutorService executor,
+			List<Callable<T>> tasks, ResultHandler<T> handler)
+			throws IOException {
+		List<T> results = new ArrayList<T>(tasks.size());
+		try {
+			if (executor == null) {
+				for (Callable<T> task : tasks) {
+					results.add(handle(task.call(), handler));
+				}
+			} else {
+				List<Future<T>> futures = new ArrayList<Future<T>>(
+						tasks.size());
+				for (Callable<T> task : tasks) {
+					futures.add(executor.submit(task));
+				}
+				for (Future<T> future : futures) {
+					results.add(handle(future.get(), handler));
+				}
+			}
+		} catch (ExecutionException e) {
+			throw rethrow(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while analysing the pool", e);
+		} catch (Exception e) {
+			throw rethrow(e);
+		}
+		return results;
+	}
+
+	/**
+	 * Waits for the results of tasks submitted before.
+	 *
+	 * @return the results in the order of the futures
+	 */
+	private static <T> List<T> getAll(List<Future<T>> futures)
+			throws IOException {
+		List<T> results = new ArrayList<T>(futures.size());
+		try {
+			for (Future<T> future : futures) {
+				results.add(future.get());
+			}
+		} catch (ExecutionException e) {
+			throw rethrow(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while analysing the pool", e);
+		}
+		return results;
+	}
+
+	/**
+	 * Processes the results of tasks in their order.
+	 */
+	private interface ResultHandler<T> {
+		void handle(T result) throws IOException;
+	}
+
+	private static <T> T handle(T result, ResultHandler<T> handler)
+			throws IOException {
+		if (handler != null) {
+			handler.handle(result);
+		}
+		return result;
+	}
+
+	private static IOException rethrow(Throwable t) {
+		if (t instanceof IOException) {
+			return (IOException) t;
+		}
+		if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		}
+		if (t instanceof Error) {
+			throw (Error) t;
+		}
+		return new IOException(t);
+	}
+
+	/**
+	 * Returns the jar-files of the pool as specified or, if the pool is
+	 * discovered, as found by the last analysis. Nested jar-files are not
+	 * included.
+	 *
+	 * @return a sorted copy of the jar-files
+	 */
+	public synchronized SortedSet<File> getJarFiles() {
+		return Collections.unmodifiableSortedSet(new TreeSet<File>(jarFiles));
+	}
+
+	/**
+	 * Returns the described jar-files sorted by their files. Duplicates of
+	 * other jar-files are not included.
+	 *
+	 * @return a unmodifiable sorted set of jar-files
+	 * @throws IllegalStateException
+	 *             if the pool hasn't been analysed yet
+	 */
+	public synchronized SortedSet<JarFileDescription> getPool() {
+		checkAnalysed();
+		return pool;
+	}
+
+	/**
+	 * Returns the index of the packages provided by the pool.
+	 *
+	 * @return the package index
+	 */
+	public synchronized PackageIndex getPackageIndex() {
+		checkAnalysed();
+		return packageIndex;
+	}
+
+	/**
+	 * Returns the dependency graph of the whole pool. It is built on first
+	 * use from the dependencies of the jar-files, so split packages are
+	 * resolved class by class if the analysis does.
+	 *
+	 * @return the dependency graph
+	 */
+	public synchronized JarDependencyGraph getDependencyGraph() {
+		checkAnalysed();
+		if (dependencyGraph == null) {
+			dependencyGraph = new JarDependencyGraph(dependencies.values());
+		}
+		return dependencyGraph;
+	}
+
+	/**
+	 * Returns the table of the package names of the pool.
+	 *
+	 * @return the symbol table
+	 */
+	public SymbolTable getPackageSymbols() {
+		return packageSymbols;
+	}
+
+	/**
+	 * Returns the table of the referenced class names of the pool.
+	 *
+	 * @return the symbol table
+	 */
+	public SymbolTable getClassSymbols() {
+		return classSymbols;
+	}
+
+	/**
+	 * Returns the dependencies of a jar-file of the pool.
+	 *
+	 * @param jarLib
+	 *            a jar-file of the pool
+	 * @return the dependencies or <code>null</code> if the jar-file isn't
+	 *         part of the pool
+	 */
+	public synchronized JarFileDependencies getDependencies(
+			JarFileDescription jarLib) {
+		checkAnalysed();
+		return dependencies.get(jarLib);
+	}
+
+	/**
+	 * Returns the index of the jar-files using each jar-file and package of
+	 * the pool.
+	 *
+	 * @return the reverse dependency index
+	 * @throws IllegalStateException
+	 *             if the pool hasn't been analysed yet
+	 */
+	public synchronized ReverseDependencyIndex getReverseDependencyIndex() {
+		checkAnalysed();
+		return reverseIndex;
+	}
+
+	/**
+	 * Returns the solver of the class paths of the jar-files of the pool. It
+	 * is built on first use.
+	 *
+	 * @return the class path solver
+	 * @throws IllegalStateException
+	 *             if the pool hasn't been analysed yet
+	 */
+	public synchronized ClasspathSolver getClasspathSolver() {
+		checkAnalysed();
+		if (classpathSolver == null) {
+			classpathSolver = new ClasspathSolver(dependencies.values(),
+					packageSymbols);
+		}
+		return classpathSolver;
+	}
+
+	/**
+	 * Closes the jar-files opened by the analysis. The results stay
+	 * available; jar-files are opened again if they are read later.
+	 */
+	public void close() {
+		if (zipPool != null) {
+			zipPool.close();
+		}
+	}
+
+	private void checkAnalysed() throws IllegalStateException {
+		if (dependencies == null) {
+			throw new IllegalStateException("the pool hasn't been analysed yet");
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package org.pa.jmeupdatesite;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Sends queries to a {@link PoolServer}. A client keeps its connection open,
+ * so it can send any number of queries.
+ */
+public class PoolClient implements Closeable {
+
+	private final Socket socket;
+	private final BufferedReader in;
+	private final Writer out;
+
+	/**
+	 * Connects to a server on the loopback address.
+	 *
+	 * @param port
+	 *            the port of the server
+	 * @throws IOException
+	 *             if the server cannot be reached
+	 */
+	public PoolClient(int port) throws IOException {
+		isTrue(port > 0 && port <= 0xffff, "invalid port %d", port);
+		socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+				Charsets.UTF_8));
+		out = new BufferedWriter(new OutputStreamWriter(
+				socket.getOutputStream(), Charsets.UTF_8));
+	}
+
+	/**
+	 * Sends a query, see {@link PoolServer} for the commands.
+	 *
+	 * @param request
+	 *            the request, must not be <code>null</code>
+	 * @return the result lines
+	 * @throws IllegalArgumentException
+	 *             if the server rejects the request
+	 * @throws IOException
+	 *             if the connection fails
+	 */
+	public List<String> query(String request) throws IllegalArgumentException,
+			IOException {
+		notNull(request, "request must not be null");
+		out.write(request.replace('\n', ' '));
+		out.write('\n');
+		out.flush();
+
+		String status = readLine();
+		List<String> result = new ArrayList<String>();
+		for (String line = readLine(); !line.equals(PoolServer.END); line = readLine()) {
+			result.add(line);
+		}
+		if (!status.equals("OK")) {
+			throw new IllegalArgumentException(status.startsWith("ERROR ") ? status
+					.substring("ERROR ".length()) : status);
+		}
+		return result;
+	}
+
+	/**
+	 * Closes the connection.
+	 */
+	public void close() throws IOException {
+		socket.close();
+	}
+
+	private String readLine() throws IOException {
+		String line = in.readLine();
+		if (line == null) {
+			throw new EOFException("the server has closed the connection");
+		}
+		return line;
+	}
+
+	private static void printUsage() {
+		System.out.println("queries a running JarsDeps --serve");
+		System.out
+				.println("usage: [--port <n>] <command> [<argument>]");
+		System.out.println("commands:");
+		System.out.println(" pool                the jars of the pool");
+		System.out.println(" providers <package> the jars providing a package");
+		System.out.println(" deps <jar>          the dependencies of a jar");
+		System.out.println(" consumers <jar>     the jars using packages of a jar");
+		System.out.println(" users <package>     the jars using a package");
+		System.out.println(" impact <jar>...     the jars which break if the jars are removed");
+		System.out.println(" classpath <jar>     the jars a jar needs and the packages none provides");
+		System.out.println(" ping                whether the server is running");
+		System.out.println(" stop                stops the server");
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = PoolServer.DEFAULT_PORT;
+		StringBuilder request = new StringBuilder();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--port") && i + 1 < args.length
+					&& request.length() == 0) {
+				try {
+					port = Integer.parseInt(args[++i]);
+				} catch (NumberFormatException e) {
+					port = 0;
+				}
+				if (port < 1 || port > 0xffff) {
+					System.out.println(args[i] + " is not a valid port");
+					System.exit(1);
+				}
+			} else {
+				if (request.length() > 0) {
+					request.append(' ');
+				}
+				request.append(args[i]);
+			}
+		}
+		if (request.length() == 0) {
+			printUsage();
+			System.exit(1);
+		}
+
+		PoolClient client = new PoolClient(port);
+		try {
+			for (String line : client.query(request.toString())) {
+				System.out.println(line);
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		} finally {
+			client.close();
+		}
+	}
+}
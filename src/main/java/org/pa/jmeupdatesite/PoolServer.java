@@ -0,0 +1,284 @@
+package org.pa.jmeupdatesite;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Answers queries about an analysed pool over a socket bound to the loopback
+ * address, so repeated questions don't pay for starting a JVM and analysing
+ * the pool. The pool may be updated meanwhile, e.g. by a {@link PoolWatcher};
+ * queries and updates are serialized on the analysis.
+ * <p>
+ * The protocol is line based and UTF-8 encoded. A request is a single line
+ * <code>&lt;command&gt; [&lt;argument&gt;]</code>. The response starts with
+ * <code>OK</code> or <code>ERROR &lt;message&gt;</code>, followed by the
+ * result lines and a line consisting of a single <code>.</code>. A
+ * connection may send any number of requests. The commands are:
+ * <ul>
+ * <li><code>ping</code> - answers with no result lines</li>
+ * <li><code>pool</code> - the jar-files of the pool</li>
+ * <li><code>providers &lt;package&gt;</code> - the jar-files providing a
+ * package</li>
+ * <li><code>deps &lt;jar&gt;</code> - the dependencies of a jar-file in the
+ * format of the text report</li>
+ * <li><code>consumers &lt;jar&gt;</code> - the jar-files using packages of a
+ * jar-file</li>
+ * <li><code>users &lt;package&gt;</code> - the jar-files using a package</li>
+ * <li><code>impact &lt;jar&gt;...</code> - the jar-files which break if the
+ * jar-files are removed, see {@link ReverseDependencyIndex#getImpact(java.util.Collection)}</li>
+ * <li><code>classpath &lt;jar&gt;</code> - the jar-files a jar-file needs,
+ * followed by <code>unresolved &lt;package&gt;</code> lines, see
+ * {@link ClasspathSolver#solve(JarFileDescription)}</li>
+ * <li><code>quit</code> - closes the connection</li>
+ * <li><code>stop</code> - stops the server</li>
+ * </ul>
+ * Jar-files are named as by {@link JarFileDescription#getName()}.
+ */
+public class PoolServer implements Closeable {
+
+	/**
+	 * The port used if none is specified.
+	 */
+	public static final int DEFAULT_PORT = 7411;
+
+	/**
+	 * Ends the result lines of a response.
+	 */
+	static final String END = ".";
+
+	private final PoolAnalysis analysis;
+	private final ServerSocket serverSocket;
+	private final ExecutorService connections = Executors
+			.newCachedThreadPool(new ThreadFactory() {
+
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "pool-server-connection");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	/**
+	 * Creates a server and binds it to the loopback address.
+	 *
+	 * @param analysis
+	 *            the analysed pool, must not be <code>null</code>
+	 * @param port
+	 *            the port, <code>0</code> for any free port
+	 * @throws IllegalArgumentException
+	 *             if <code>analysis</code> is <code>null</code> or the port
+	 *             is out of range
+	 * @throws IOException
+	 *             if the port cannot be bound
+	 */
+	public PoolServer(PoolAnalysis analysis, int port)
+			throws IllegalArgumentException, IOException {
+		this.analysis = notNull(analysis, "analysis must not be null");
+		isTrue(port >= 0 && port <= 0xffff, "invalid port %d", port);
+		this.serverSocket = new ServerSocket(port, 50,
+				InetAddress.getLoopbackAddress());
+	}
+
+	/**
+	 * Returns the port the server is bound to.
+	 *
+	 * @return the port
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Accepts connections until the server is closed or stopped by a client.
+	 * Each connection is served by a thread of its own.
+	 *
+	 * @throws IOException
+	 *             if accepting a connection fails
+	 */
+	public void serve() throws IOException {
+		try {
+			while (true) {
+				final Socket socket = serverSocket.accept();
+				connections.execute(new Runnable() {
+
+					public void run() {
+						handle(socket);
+					}
+				});
+			}
+		} catch (SocketException e) {
+			if (!serverSocket.isClosed()) {
+				throw e;
+			}
+		} finally {
+			connections.shutdownNow();
+		}
+	}
+
+	/**
+	 * Stops the server. Queries in progress are completed.
+	 */
+	public void close() throws IOException {
+		serverSocket.close();
+	}
+
+	/**
+	 * Answers a single request.
+	 *
+	 * @param request
+	 *            the request line, must not be <code>null</code>
+	 * @return the result lines
+	 * @throws IllegalArgumentException
+	 *             if the request is invalid or refers to an unknown jar-file
+	 */
+	public List<String> query(String request) throws IllegalArgumentException {
+		notNull(request, "request must not be null");
+		String[] parts = request.trim().split("\\s+", 2);
+		String command = parts[0];
+		String argument = parts.length > 1 ? parts[1] : null;
+
+		List<String> result = new ArrayList<String>();
+		synchronized (analysis) {
+			if (command.equals("ping") && argument == null) {
+				// nothing
+			} else if (command.equals("pool") && argument == null) {
+				addNames(result, analysis.getPool());
+			} else if (command.equals("providers") && argument != null) {
+				addNames(result, new TreeSet<JarFileDescription>(analysis
+						.getPackageIndex().getProviders(argument)));
+			} else if (command.equals("deps") && argument != null) {
+				StringWriter section = new StringWriter();
+				try {
+					new TextReportWriter(section).writeSection(analysis
+							.getDependencies(getJarLib(argument)));
+				} catch (IOException e) {
+					throw new IllegalStateException(e); // not for a StringWriter
+				}
+				result.addAll(Arrays.asList(section.toString().split(
+						"\r?\n")));
+			} else if (command.equals("consumers") && argument != null) {
+				addNames(result, analysis.getReverseDependencyIndex()
+						.getConsumers(getJarLib(argument)));
+			} else if (command.equals("users") && argument != null) {
+				addNames(result, analysis.getReverseDependencyIndex()
+						.getConsumers(argument));
+			} else if (command.equals("impact") && argument != null) {
+				List<JarFileDescription> removed = new ArrayList<JarFileDescription>();
+				for (String name : argument.split("\\s+")) {
+					removed.add(getJarLib(name));
+				}
+				addNames(result, analysis.getReverseDependencyIndex()
+						.getImpact(removed));
+			} else if (command.equals("classpath") && argument != null) {
+				ClasspathSolver.Classpath classpath = analysis
+						.getClasspathSolver().solve(getJarLib(argument));
+				addNames(result, classpath.getJarLibs());
+				for (String packageName : classpath.getUnresolvedPackages()) {
+					result.add("unresolved " + packageName);
+				}
+			} else {
+				throw new IllegalArgumentException("invalid request: "
+						+ request);
+			}
+		}
+		return result;
+	}
+
+	private static void addNames(List<String> names,
+			Collection<JarFileDescription> jarLibs) {
+		for (JarFileDescription jfd : jarLibs) {
+			names.add(jfd.getName());
+		}
+	}
+
+	/**
+	 * @return the jar-file of the pool with the specified name
+	 * @throws IllegalArgumentException
+	 *             if there is no such jar-file
+	 */
+	private JarFileDescription getJarLib(String name)
+			throws IllegalArgumentException {
+		for (JarFileDescription jfd : analysis.getPool()) {
+			if (jfd.getName().equals(name)) {
+				return jfd;
+			}
+		}
+		throw new IllegalArgumentException("unknown jar: " + name);
+	}
+
+	/**
+	 * Answers the requests of a connection until it is closed.
+	 */
+	private void handle(Socket socket) {
+		try {
+			try {
+				BufferedReader in = new BufferedReader(new InputStreamReader(
+						socket.getInputStream(), Charsets.UTF_8));
+				Writer out = new BufferedWriter(new OutputStreamWriter(
+						socket.getOutputStream(), Charsets.UTF_8));
+				for (String request = in.readLine(); request != null; request = in
+						.readLine()) {
+					String command = request.trim();
+					if (command.equals("quit")) {
+						break;
+					}
+					if (command.equals("stop")) {
+						respond(out, "OK", new ArrayList<String>());
+						close();
+						break;
+					}
+					try {
+						respond(out, "OK", query(request));
+					} catch (IllegalArgumentException e) {
+						respond(out, "ERROR " + e.getMessage(),
+								new ArrayList<String>());
+					} catch (IllegalStateException e) {
+						// e.g. the pool hasn't been analysed yet
+						respond(out, "ERROR " + e.getMessage(),
+								new ArrayList<String>());
+					}
+				}
+			} finally {
+				socket.close();
+			}
+		} catch (IOException e) {
+			// the client has gone, the server keeps running
+		}
+	}
+
+	private static void respond(Writer out, String status, List<String> lines)
+			throws IOException {
+		out.write(status);
+		out.write('\n');
+		for (String line : lines) {
+			out.write(line);
+			out.write('\n');
+		}
+		out.write(END);
+		out.write('\n');
+		out.flush();
+	}
+}
@@ -0,0 +1,212 @@
+package org.pa.jmeupdatesite;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the directory of an analysed pool and updates the analysis when
+ * jar-files are added, removed or replaced, see
+ * {@link PoolAnalysis#update(Collection, Collection)}. Events are collected
+ * until the directory has been quiet for a short time, so copying a jar-file
+ * results in a single update.
+ */
+public class PoolWatcher {
+
+	/**
+	 * Receives the changes of the pool.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called after the analysis has been updated.
+		 *
+		 * @param analysis
+		 *            the updated analysis
+		 * @param removedFiles
+		 *            the jar-files removed from the pool
+		 * @param changedJarLibs
+		 *            the jar-files whose dependencies have changed, including
+		 *            the added and replaced ones
+		 * @param nanos
+		 *            the time taken by the update in nanoseconds
+		 */
+		void poolChanged(PoolAnalysis analysis, SortedSet<File> removedFiles,
+				SortedSet<JarFileDescription> changedJarLibs, long nanos);
+
+		/**
+		 * Called if a jar-file cannot be read. It is analysed again when it
+		 * changes the next time.
+		 *
+		 * @param jarFile
+		 *            the jar-file
+		 * @param e
+		 *            the cause
+		 */
+		void updateFailed(File jarFile, IOException e);
+	}
+
+	private static final FileFilter JAR_FILTER = new FileFilter() {
+
+		public boolean accept(File pathname) {
+			return isJar(pathname);
+		}
+	};
+
+	private final File directory;
+	private final PoolAnalysis analysis;
+	private long quietMillis = 200;
+
+	/**
+	 * Creates a watcher.
+	 *
+	 * @param directory
+	 *            the directory containing the jar-files, must not be
+	 *            <code>null</code>
+	 * @param analysis
+	 *            the analysed pool of the directory, must not be
+	 *            <code>null</code>
+	 * @throws IllegalArgumentException
+	 *             if any argument is <code>null</code>
+	 */
+	public PoolWatcher(File directory, PoolAnalysis analysis)
+			throws IllegalArgumentException {
+		this.directory = notNull(directory, "directory must not be null");
+		this.analysis = notNull(analysis, "analysis must not be null");
+	}
+
+	/**
+	 * Sets how long the directory must be quiet before the analysis is
+	 * updated, 200 ms by default.
+	 *
+	 * @param quietMillis
+	 *            the time in milliseconds
+	 * @throws IllegalArgumentException
+	 *             if <code>quietMillis</code> is negative
+	 */
+	public void setQuietMillis(long quietMillis)
+			throws IllegalArgumentException {
+		isTrue(quietMillis >= 0, "quietMillis must not be negative");
+		this.quietMillis = quietMillis;
+	}
+
+	/**
+	 * Watches the directory until the thread is interrupted.
+	 *
+	 * @param listener
+	 *            receives the changes, must not be <code>null</code>
+	 * @throws IOException
+	 *             if the directory cannot be watched
+	 * @throws InterruptedException
+	 *             if the thread has been interrupted
+	 */
+	public void watch(Listener listener) throws IOException,
+			InterruptedException {
+		notNull(listener, "listener must not be null");
+		Path path = directory.toPath();
+		WatchService watchService = path.getFileSystem().newWatchService();
+		try {
+			path.register(watchService, ENTRY_CREATE, ENTRY_DELETE,
+					ENTRY_MODIFY);
+			while (true) {
+				SortedSet<File> touched = new TreeSet<File>();
+				boolean overflow = false;
+				WatchKey key = watchService.take();
+				while (key != null) {
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == OVERFLOW) {
+							overflow = true;
+						} else {
+							File file = new File(directory, event.context()
+									.toString());
+							if (isJar(file)) {
+								touched.add(file);
+							}
+						}
+					}
+					if (!key.reset()) {
+						throw new IOException(directory
+								+ " cannot be watched anymore");
+					}
+					key = watchService.poll(quietMillis, TimeUnit.MILLISECONDS);
+				}
+				if (overflow) { // events are lost, compare everything
+					File[] files = directory.listFiles(JAR_FILTER);
+					if (files != null) {
+						touched.addAll(Arrays.asList(files));
+					}
+					touched.addAll(analysis.getJarFiles());
+				}
+				update(touched, listener);
+			}
+		} finally {
+			watchService.close();
+		}
+	}
+
+	/**
+	 * Updates the analysis for the touched jar-files. If a jar-file cannot be
+	 * read, the others are updated one by one.
+	 */
+	private void update(SortedSet<File> touched, Listener listener) {
+		// including the duplicates, which aren't members of the pool
+		SortedSet<File> poolFiles = analysis.getJarFiles();
+		SortedSet<File> updated = new TreeSet<File>();
+		SortedSet<File> removed = new TreeSet<File>();
+		for (File file : touched) {
+			if (file.isFile()) {
+				updated.add(file);
+			} else if (poolFiles.contains(file)) {
+				removed.add(file);
+			}
+		}
+		if (updated.isEmpty() && removed.isEmpty()) {
+			return;
+		}
+
+		long start = System.nanoTime();
+		SortedSet<JarFileDescription> changed = new TreeSet<JarFileDescription>();
+		try {
+			changed.addAll(analysis.update(updated, removed));
+		} catch (IOException e) {
+			// find the unreadable jar-files by updating one at a time
+			Collection<File> none = Collections.emptySet();
+			for (File file : touched) {
+				try {
+					if (updated.contains(file)) {
+						changed.addAll(analysis.update(
+								Collections.singleton(file), none));
+					} else if (removed.contains(file)) {
+						changed.addAll(analysis.update(none,
+								Collections.singleton(file)));
+					}
+				} catch (IOException fileException) {
+					listener.updateFailed(file, fileException);
+				}
+			}
+		}
+		listener.poolChanged(analysis, removed, changed, System.nanoTime()
+				- start);
+	}
+
+	private static boolean isJar(File file) {
+		return file.getName().endsWith(".jar");
+	}
+}
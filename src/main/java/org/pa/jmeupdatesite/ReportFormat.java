@@ -0,0 +1,49 @@
+package org.pa.jmeupdatesite;
+
+import java.io.Writer;
+
+/**
+ * The formats of the report, see {@link ReportWriter}.
+ */
+public enum ReportFormat {
+
+	/**
+	 * The human readable report.
+	 */
+	TEXT,
+
+	/**
+	 * One JSON object per jar-file and line.
+	 */
+	JSONL,
+
+	/**
+	 * One comma separated row per package dependency and providing jar-file.
+	 */
+	CSV,
+
+	/**
+	 * A Graphviz graph of the jar-files.
+	 */
+	DOT;
+
+	/**
+	 * Creates a report writer of this format.
+	 *
+	 * @param out
+	 *            the writer to write the report to, should be buffered
+	 * @return the report writer
+	 */
+	public ReportWriter createWriter(Writer out) {
+		switch (this) {
+		case JSONL:
+			return new JsonLinesReportWriter(out);
+		case CSV:
+			return new CsvReportWriter(out);
+		case DOT:
+			return new DotReportWriter(out);
+		default:
+			return new TextReportWriter(out);
+		}
+	}
+}
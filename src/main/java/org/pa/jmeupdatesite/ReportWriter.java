@@ -0,0 +1,50 @@
+package org.pa.jmeupdatesite;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Writes the report of a pool analysis. The dependencies of each jar-file are
+ * written as soon as they are passed in, so a report never has to be held in
+ * memory. Call {@link #writeDependencies(JarFileDependencies)} from a
+ * {@link PoolAnalysis.Listener} to write the report while the pool is
+ * analysed.
+ * <p>
+ * A report is written by {@link #startReport(Collection)}, any number of
+ * {@link #writeDependencies(JarFileDependencies)} calls and
+ * {@link #endReport()}. Closing the report writer closes the underlying
+ * writer.
+ */
+public interface ReportWriter extends Closeable {
+
+	/**
+	 * Writes the beginning of the report.
+	 *
+	 * @param jarFiles
+	 *            the jar-files of the pool
+	 * @throws IOException
+	 *             if the report cannot be written
+	 */
+	void startReport(Collection<File> jarFiles) throws IOException;
+
+	/**
+	 * Writes the dependencies of a jar-file.
+	 *
+	 * @param dependencies
+	 *            the dependencies of a jar-file of the pool
+	 * @throws IOException
+	 *             if the report cannot be written
+	 */
+	void writeDependencies(JarFileDependencies dependencies)
+			throws IOException;
+
+	/**
+	 * Writes the end of the report and flushes it.
+	 *
+	 * @throws IOException
+	 *             if the report cannot be written
+	 */
+	void endReport() throws IOException;
+}
@@ -0,0 +1,169 @@
+package org.pa.jmeupdatesite;
+
+import static org.apache.commons.lang3.Validate.noNullElements;
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+
+import org.pa.jmeupdatesite.JarFileDependencies.Dependency;
+
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
+
+/**
+ * Maps the jar-files and packages of a pool to the jar-files using them, the
+ * reverse of {@link JarFileDependencies}. The index is built from the
+ * resolved dependencies, so its queries don't resolve anything again.
+ */
+public class ReverseDependencyIndex {
+
+	private final Map<JarFileDescription, JarFileDependencies> dependencies = new HashMap<JarFileDescription, JarFileDependencies>();
+	private final Map<JarFileDescription, SortedSet<JarFileDescription>> consumersByProvider = new HashMap<JarFileDescription, SortedSet<JarFileDescription>>();
+	private final Map<String, SortedSet<JarFileDescription>> consumersByPackage = new HashMap<String, SortedSet<JarFileDescription>>();
+
+	/**
+	 * Creates the index of the dependencies of a pool.
+	 *
+	 * @param dependencies
+	 *            the dependencies of every jar-file of the pool, must not be
+	 *            <code>null</code> or contain <code>null</code>
+	 * @throws IllegalArgumentException
+	 *             if <code>dependencies</code> is or contains
+	 *             <code>null</code>
+	 */
+	public ReverseDependencyIndex(Collection<JarFileDependencies> dependencies)
+			throws IllegalArgumentException {
+		noNullElements(notNull(dependencies, "dependencies must not be null"),
+				"dependencies must not contain null");
+
+		Map<JarFileDescription, ImmutableSortedSet.Builder<JarFileDescription>> byProvider = new HashMap<JarFileDescription, ImmutableSortedSet.Builder<JarFileDescription>>();
+		Map<String, ImmutableSortedSet.Builder<JarFileDescription>> byPackage = new HashMap<String, ImmutableSortedSet.Builder<JarFileDescription>>();
+		for (JarFileDependencies deps : dependencies) {
+			JarFileDescription consumer = deps.getJarLib();
+			this.dependencies.put(consumer, deps);
+			for (Dependency dep : Iterables.concat(
+					deps.getOneToOneDependencies(),
+					deps.getOneToManyDependencies())) {
+				for (JarFileDescription provider : dep.getToDescSet()) {
+					add(byProvider, provider, consumer);
+				}
+				for (String packageName : dep.getPackages()) {
+					add(byPackage, packageName, consumer);
+				}
+			}
+			for (String packageName : deps.getUnresolvedPackages()) {
+				add(byPackage, packageName, consumer);
+			}
+		}
+		for (Map.Entry<JarFileDescription, ImmutableSortedSet.Builder<JarFileDescription>> entry : byProvider
+				.entrySet()) {
+			consumersByProvider.put(entry.getKey(), entry.getValue().build());
+		}
+		for (Map.Entry<String, ImmutableSortedSet.Builder<JarFileDescription>> entry : byPackage
+				.entrySet()) {
+			consumersByPackage.put(entry.getKey(), entry.getValue().build());
+		}
+	}
+
+	private static <K> void add(
+			Map<K, ImmutableSortedSet.Builder<JarFileDescription>> consumers,
+			K key, JarFileDescription consumer) {
+		ImmutableSortedSet.Builder<JarFileDescription> builder = consumers
+				.get(key);
+		if (builder == null) {
+			builder = ImmutableSortedSet.naturalOrder();
+			consumers.put(key, builder);
+		}
+		builder.add(consumer);
+	}
+
+	/**
+	 * Returns the jar-files using packages of the specified jar-file, whether
+	 * it is their only provider or not.
+	 *
+	 * @param provider
+	 *            a jar-file of the pool
+	 * @return a unmodifiable sorted set of jar-files, may be empty but will
+	 *         never be <code>null</code>
+	 */
+	public SortedSet<JarFileDescription> getConsumers(
+			JarFileDescription provider) {
+		SortedSet<JarFileDescription> consumers = consumersByProvider
+				.get(provider);
+		return consumers == null ? ImmutableSortedSet
+				.<JarFileDescription> of() : consumers;
+	}
+
+	/**
+	 * Returns the jar-files using the specified package, including the ones
+	 * which cannot resolve it.
+	 *
+	 * @param packageName
+	 *            the name of the package
+	 * @return a unmodifiable sorted set of jar-files, may be empty but will
+	 *         never be <code>null</code>
+	 */
+	public SortedSet<JarFileDescription> getConsumers(String packageName) {
+		SortedSet<JarFileDescription> consumers = consumersByPackage
+				.get(packageName);
+		return consumers == null ? ImmutableSortedSet
+				.<JarFileDescription> of() : consumers;
+	}
+
+	/**
+	 * Returns the jar-files which break if the specified jar-files are
+	 * removed from the pool: a jar-file breaks if a package it uses isn't
+	 * provided anymore, either because all of its providers are removed or
+	 * because they break themselves.
+	 *
+	 * @param removed
+	 *            the jar-files to remove, must not be <code>null</code>
+	 * @return a unmodifiable sorted set of the broken jar-files, without the
+	 *         removed ones
+	 * @throws IllegalArgumentException
+	 *             if <code>removed</code> is <code>null</code>
+	 */
+	public SortedSet<JarFileDescription> getImpact(
+			Collection<JarFileDescription> removed)
+			throws IllegalArgumentException {
+		notNull(removed, "removed must not be null");
+		Set<JarFileDescription> gone = new HashSet<JarFileDescription>(removed);
+		ImmutableSortedSet.Builder<JarFileDescription> broken = ImmutableSortedSet
+				.naturalOrder();
+		Deque<JarFileDescription> queue = new ArrayDeque<JarFileDescription>(
+				gone);
+		while (!queue.isEmpty()) {
+			for (JarFileDescription consumer : getConsumers(queue.poll())) {
+				if (!gone.contains(consumer) && breaks(consumer, gone)) {
+					gone.add(consumer);
+					broken.add(consumer);
+					queue.add(consumer);
+				}
+			}
+		}
+		return broken.build();
+	}
+
+	/**
+	 * @return whether a jar-file loses all providers of a package
+	 */
+	private boolean breaks(JarFileDescription consumer,
+			Set<JarFileDescription> gone) {
+		JarFileDependencies deps = dependencies.get(consumer);
+		for (Dependency dep : Iterables.concat(
+				deps.getOneToOneDependencies(),
+				deps.getOneToManyDependencies())) {
+			if (gone.containsAll(dep.getToDescSet())) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
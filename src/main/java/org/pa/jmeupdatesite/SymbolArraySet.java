@@ -0,0 +1,117 @@
+package org.pa.jmeupdatesite;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A unmodifiable set of names stored as a sorted array of their IDs in a
+ * {@link SymbolTable}. Suited for sparse sets like the referenced classes of
+ * a jar-file, where a bitset over all classes of a pool would be mostly
+ * empty.
+ */
+public final class SymbolArraySet extends AbstractSet<String> {
+
+	private final SymbolTable symbols;
+	private final int[] ids;
+
+	private SymbolArraySet(SymbolTable symbols, int[] ids) {
+		this.symbols = symbols;
+		this.ids = ids;
+	}
+
+	/**
+	 * Creates a set of the specified names, assigning IDs to unknown names.
+	 *
+	 * @param symbols
+	 *            the table, must not be <code>null</code>
+	 * @param names
+	 *            the names, must not be <code>null</code>
+	 * @return the set
+	 * @throws IllegalArgumentException
+	 *             if any argument is <code>null</code>
+	 */
+	public static SymbolArraySet intern(SymbolTable symbols,
+			Collection<String> names) throws IllegalArgumentException {
+		notNull(symbols, "symbols must not be null");
+		notNull(names, "names must not be null");
+		if (names instanceof SymbolArraySet
+				&& ((SymbolArraySet) names).symbols == symbols) {
+			return (SymbolArraySet) names;
+		}
+		int[] ids = new int[names.size()];
+		int n = 0;
+		for (String name : names) {
+			ids[n++] = symbols.intern(name);
+		}
+		Arrays.sort(ids);
+		return new SymbolArraySet(symbols, ids);
+	}
+
+	/**
+	 * Returns the table of the IDs.
+	 *
+	 * @return the symbol table
+	 */
+	public SymbolTable getSymbols() {
+		return symbols;
+	}
+
+	/**
+	 * Returns whether the set contains the name with the specified ID.
+	 *
+	 * @param id
+	 *            the ID
+	 * @return whether the ID is contained
+	 */
+	public boolean containsId(int id) {
+		return id >= 0 && Arrays.binarySearch(ids, id) >= 0;
+	}
+
+	/**
+	 * Returns the ID at the specified position of the sorted IDs.
+	 *
+	 * @param index
+	 *            the position, between <code>0</code> and {@link #size()}
+	 * @return the ID
+	 */
+	public int getId(int index) {
+		return ids[index];
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return containsId(symbols.getId(o));
+	}
+
+	@Override
+	public int size() {
+		return ids.length;
+	}
+
+	@Override
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+			private int index;
+
+			public boolean hasNext() {
+				return index < ids.length;
+			}
+
+			public String next() {
+				if (index >= ids.length) {
+					throw new NoSuchElementException();
+				}
+				return symbols.getName(ids[index++]);
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
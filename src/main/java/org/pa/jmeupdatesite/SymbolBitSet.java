@@ -0,0 +1,185 @@
+package org.pa.jmeupdatesite;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.google.common.base.Predicate;
+
+/**
+ * A unmodifiable set of names stored as a bitset of their IDs in a
+ * {@link SymbolTable}. Suited for dense sets like the packages of a jar-file;
+ * set operations between sets of the same table work on whole words.
+ */
+public final class SymbolBitSet extends AbstractSet<String> {
+
+	private final SymbolTable symbols;
+	private final BitSet bits;
+
+	/**
+	 * Creates a set of the names with the IDs set in the bitset. The bitset
+	 * is used directly and must not be modified by the caller afterwards,
+	 * unless a live view is intended.
+	 *
+	 * @param symbols
+	 *            the table of the IDs, must not be <code>null</code>
+	 * @param bits
+	 *            the IDs, must not be <code>null</code>
+	 */
+	SymbolBitSet(SymbolTable symbols, BitSet bits) {
+		this.symbols = notNull(symbols, "symbols must not be null");
+		this.bits = notNull(bits, "bits must not be null");
+	}
+
+	/**
+	 * Creates a set of the specified names, assigning IDs to unknown names.
+	 *
+	 * @param symbols
+	 *            the table, must not be <code>null</code>
+	 * @param names
+	 *            the names, must not be <code>null</code>
+	 * @return the set
+	 * @throws IllegalArgumentException
+	 *             if any argument is <code>null</code>
+	 */
+	public static SymbolBitSet intern(SymbolTable symbols,
+			Collection<String> names) throws IllegalArgumentException {
+		notNull(names, "names must not be null");
+		if (names instanceof SymbolBitSet
+				&& ((SymbolBitSet) names).symbols == symbols) {
+			return (SymbolBitSet) names;
+		}
+		BitSet bits = new BitSet();
+		for (String name : names) {
+			bits.set(symbols.intern(name));
+		}
+		return new SymbolBitSet(symbols, bits);
+	}
+
+	/**
+	 * Returns the table of the IDs.
+	 *
+	 * @return the symbol table
+	 */
+	public SymbolTable getSymbols() {
+		return symbols;
+	}
+
+	/**
+	 * Returns a copy of the IDs of this set.
+	 *
+	 * @return a new bitset
+	 */
+	public BitSet toBitSet() {
+		return (BitSet) bits.clone();
+	}
+
+	/**
+	 * Returns whether the set contains the name with the specified ID.
+	 *
+	 * @param id
+	 *            the ID
+	 * @return whether the ID is contained
+	 */
+	public boolean containsId(int id) {
+		return id >= 0 && bits.get(id);
+	}
+
+	/**
+	 * Returns the names of this set which aren't contained in the other set.
+	 *
+	 * @param other
+	 *            the other set, must not be <code>null</code>
+	 * @return a new set
+	 */
+	public SymbolBitSet difference(Set<String> other) {
+		BitSet result = toBitSet();
+		if (other instanceof SymbolBitSet
+				&& ((SymbolBitSet) other).symbols == symbols) {
+			result.andNot(((SymbolBitSet) other).bits);
+		} else {
+			for (int id = result.nextSetBit(0); id >= 0; id = result
+					.nextSetBit(id + 1)) {
+				if (other.contains(symbols.getName(id))) {
+					result.clear(id);
+				}
+			}
+		}
+		return new SymbolBitSet(symbols, result);
+	}
+
+	/**
+	 * Returns the names of this set matching the predicate.
+	 *
+	 * @param predicate
+	 *            the predicate, must not be <code>null</code>
+	 * @return a new set
+	 */
+	public SymbolBitSet filter(Predicate<String> predicate) {
+		BitSet result = toBitSet();
+		for (int id = result.nextSetBit(0); id >= 0; id = result
+				.nextSetBit(id + 1)) {
+			if (!predicate.apply(symbols.getName(id))) {
+				result.clear(id);
+			}
+		}
+		return new SymbolBitSet(symbols, result);
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return containsId(symbols.getId(o));
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return bits.isEmpty();
+	}
+
+	@Override
+	public int size() {
+		return bits.cardinality();
+	}
+
+	@Override
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+			private int next = bits.nextSetBit(0);
+
+			public boolean hasNext() {
+				return next >= 0;
+			}
+
+			public String next() {
+				if (next < 0) {
+					throw new NoSuchElementException();
+				}
+				String name = symbols.getName(next);
+				next = bits.nextSetBit(next + 1);
+				return name;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o instanceof SymbolBitSet && ((SymbolBitSet) o).symbols == symbols) {
+			return ((SymbolBitSet) o).bits.equals(bits);
+		}
+		return super.equals(o);
+	}
+
+	@Override
+	public int hashCode() {
+		return super.hashCode();
+	}
+}
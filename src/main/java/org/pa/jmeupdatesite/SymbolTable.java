@@ -0,0 +1,100 @@
+package org.pa.jmeupdatesite;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns dense int IDs to names, e.g. package or class names. Each distinct
+ * name is stored once per table, so sets of names can be held as bitsets or
+ * int arrays, see {@link SymbolBitSet} and {@link SymbolArraySet}. IDs start
+ * at <code>0</code> and are never reused.
+ * <p>
+ * Names are never removed either, so a table only grows. The tables of a
+ * {@link PoolAnalysis} keep the names of jar-files removed by an update,
+ * and the bitsets indexed by their IDs keep their size, until the analysis
+ * is created again; a long running watch or server grows by the names of
+ * the jar-files ever seen.
+ * <p>
+ * A table is safe to be used by several threads. Looking up names and IDs
+ * doesn't lock.
+ */
+public class SymbolTable {
+
+	private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+	private volatile String[] names = new String[256];
+	private volatile int size;
+
+	/**
+	 * Returns the ID of the specified name and assigns a new one if the name
+	 * isn't known yet.
+	 *
+	 * @param name
+	 *            the name, must not be <code>null</code>
+	 * @return the ID of the name
+	 * @throws IllegalArgumentException
+	 *             if <code>name</code> is <code>null</code>
+	 */
+	public int intern(String name) throws IllegalArgumentException {
+		Integer id = ids.get(notNull(name, "name must not be null"));
+		if (id != null) {
+			return id;
+		}
+		synchronized (this) {
+			id = ids.get(name);
+			if (id == null) {
+				id = size;
+				String[] names = this.names;
+				if (id == names.length) {
+					names = Arrays.copyOf(names, names.length * 2);
+				}
+				names[id] = name;
+				this.names = names;
+				// the name must be readable before another thread may get its
+				// ID from the map
+				size = id + 1;
+				ids.put(name, id);
+			}
+			return id;
+		}
+	}
+
+	/**
+	 * Returns the ID of the specified name.
+	 *
+	 * @param name
+	 *            the name
+	 * @return the ID or <code>-1</code> if the name isn't known
+	 */
+	public int getId(Object name) {
+		Integer id = name == null ? null : ids.get(name);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Returns the name of the specified ID.
+	 *
+	 * @param id
+	 *            an ID assigned by this table
+	 * @return the name
+	 * @throws IndexOutOfBoundsException
+	 *             if the ID hasn't been assigned by this table
+	 */
+	public String getName(int id) throws IndexOutOfBoundsException {
+		if (id < 0 || id >= size) {
+			throw new IndexOutOfBoundsException("unknown id " + id);
+		}
+		return names[id];
+	}
+
+	/**
+	 * Returns the number of names in this table, which is also the next ID to
+	 * be assigned.
+	 *
+	 * @return the number of names
+	 */
+	public int size() {
+		return size;
+	}
+}
@@ -0,0 +1,131 @@
+package org.pa.jmeupdatesite;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.pa.jmeupdatesite.JarFileDependencies.Dependency;
+
+/**
+ * Writes the human readable report: a section per jar-file followed by all
+ * unresolved packages and the jar-files using them. The unresolved packages
+ * are collected until the end of the report.
+ */
+public class TextReportWriter extends AbstractReportWriter {
+
+	private final Map<String, List<String>> unresolvedToJars = new TreeMap<String, List<String>>();
+
+	/**
+	 * Creates a text report writer.
+	 *
+	 * @param out
+	 *            the writer to write the report to, must not be
+	 *            <code>null</code>
+	 */
+	public TextReportWriter(Writer out) {
+		super(out);
+	}
+
+	@Override
+	public void startReport(Collection<File> jarFiles) throws IOException {
+		unresolvedToJars.clear();
+		writeLine("-- POOL --");
+		for (File f : jarFiles) {
+			writeLine(f.getName());
+		}
+		writeLine("");
+		writeLine("");
+	}
+
+	public void writeDependencies(JarFileDependencies deps) throws IOException {
+		writeSection(deps);
+		for (String p : deps.getUnresolvedPackages()) {
+			List<String> jars = unresolvedToJars.get(p);
+			if (jars == null) {
+				jars = new ArrayList<String>();
+				unresolvedToJars.put(p, jars);
+			}
+			jars.add(deps.getJarLib().getName());
+		}
+	}
+
+	/**
+	 * Writes the section of a jar-file without adding its unresolved packages
+	 * to the end of the report.
+	 *
+	 * @param deps
+	 *            the dependencies of a jar-file
+	 * @throws IOException
+	 *             if the report cannot be written
+	 */
+	public void writeSection(JarFileDependencies deps) throws IOException {
+		writeLine("- " + deps.getJarLib().getName() + "-");
+		if (!deps.getJarLib().getDuplicates().isEmpty()) {
+			writeLine("duplicates:");
+			for (JarFileDescription duplicate : deps.getJarLib()
+					.getDuplicates()) {
+				writeLine(" jar: " + duplicate.getName());
+			}
+		}
+
+		if (deps.getUnresolvedPackages().isEmpty()
+				&& deps.getOneToManyDependencies().isEmpty()
+				&& deps.getOneToOneDependencies().isEmpty()) {
+			writeLine(" nothing to report");
+		} else {
+			Dependency[] oneToOne = getOneToOne(deps);
+			if (oneToOne.length > 0) {
+				writeLine("one-to-one:");
+				for (Dependency dep : oneToOne) {
+					writeLine(" jar: " + dep.getSingleToDesc().getName());
+					for (String p : sorted(dep.getPackages())) {
+						writeLine("  pck:" + p);
+					}
+				}
+			}
+			Dependency[] oneToMany = getOneToMany(deps);
+			if (oneToMany.length > 0) {
+				writeLine("one-to-many (bad):");
+				for (Dependency dep : oneToMany) {
+					writeLine(" pck: " + getPackage(dep));
+					for (JarFileDescription to : sortedJarLibs(dep
+							.getToDescSet())) {
+						writeLine("  jar: " + to.getName());
+					}
+				}
+			}
+
+			String[] unresolved = sorted(deps.getUnresolvedPackages());
+			if (unresolved.length > 0) {
+				writeLine("unresolved (bad):");
+				for (String p : unresolved) {
+					writeLine(" pck: " + p);
+				}
+			}
+		}
+
+		writeLine("");
+	}
+
+	@Override
+	public void endReport() throws IOException {
+		writeLine("-- ALL UNRESOLVED PACKAGES --");
+		if (unresolvedToJars.isEmpty()) {
+			writeLine("nothing");
+		} else {
+			for (Map.Entry<String, List<String>> entry : unresolvedToJars
+					.entrySet()) {
+				writeLine(" " + entry.getKey());
+				for (String jar : entry.getValue()) {
+					writeLine("  " + jar);
+				}
+			}
+		}
+		super.endReport();
+	}
+}
@@ -0,0 +1,552 @@
+package org.pa.jmeupdatesite;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.io.Files;
+
+/**
+ * Turns the jar-files of an analysed pool into the OSGi bundles of an update
+ * site. Each jar-file of the pool gets a manifest exporting the packages it
+ * provides and importing the packages it depends on, and is written to the
+ * <code>plugins</code> directory of the site as
+ * <code>&lt;symbolic name&gt;_&lt;version&gt;.jar</code>. The symbolic name
+ * and version are derived from the file name, e.g.
+ * <code>jme3-core_3.1.0.stable.jar</code> for
+ * <code>jme3-core-3.1.0-stable.jar</code>.
+ * <p>
+ * The jar-files are rewritten by {@link JarRewriter}, which copies all
+ * entries except the manifest without inflating them, and several jar-files
+ * are rewritten at once. Jar-files nested in a jar-file become part of its
+ * bundle class path. Jar-files which already are bundles are copied
+ * unchanged; duplicates of other jar-files are skipped.
+ */
+public class UpdateSiteBundler {
+
+	private static final Pattern VERSIONED_NAME = Pattern
+			.compile("(.+?)[-_](\\d+(?:\\.\\d+)*)(?:[-._](.+))?");
+	private static final Pattern QUALIFIER = Pattern.compile(
+			"(\\d|(alpha|beta|rc|m|milestone|snapshot|final|ga|release|stable|sp)(\\W|\\d|$)).*",
+			Pattern.CASE_INSENSITIVE);
+
+	private final PoolAnalysis analysis;
+	private final File pluginsDirectory;
+	private int threads = 1;
+	private SortedMap<JarFileDescription, Bundle> skipped = Collections
+			.unmodifiableSortedMap(new TreeMap<JarFileDescription, Bundle>());
+
+	/**
+	 * Creates a bundler writing to the specified update site.
+	 *
+	 * @param analysis
+	 *            the analysed pool, must not be <code>null</code>
+	 * @param siteDirectory
+	 *            the directory of the update site, must not be
+	 *            <code>null</code>
+	 * @throws IllegalArgumentException
+	 *             if an argument is <code>null</code>
+	 */
+	public UpdateSiteBundler(PoolAnalysis analysis, File siteDirectory)
+			throws IllegalArgumentException {
+		this.analysis = notNull(analysis, "analysis must not be null");
+		this.pluginsDirectory = new File(notNull(siteDirectory,
+				"site directory must not be null"), "plugins");
+	}
+
+	/**
+	 * Sets the number of jar-files rewritten at once, 1 by default.
+	 *
+	 * @param threads
+	 *            the number of threads
+	 * @throws IllegalArgumentException
+	 *             if <code>threads</code> is less than <code>1</code>
+	 */
+	public void setThreads(int threads) throws IllegalArgumentException {
+		isTrue(threads >= 1, "threads must be at least 1");
+		this.threads = threads;
+	}
+
+	/**
+	 * Returns the directory the bundles are written to.
+	 *
+	 * @return the <code>plugins</code> directory of the site
+	 */
+	public File getPluginsDirectory() {
+		return pluginsDirectory;
+	}
+
+	/**
+	 * Returns the jar-files skipped by the last call of {@link #bundle()},
+	 * because another jar-file got the same bundle file.
+	 *
+	 * @return a unmodifiable sorted map of the skipped jar-files to the
+	 *         bundles written instead, may be empty but will never be
+	 *         <code>null</code>
+	 */
+	public SortedMap<JarFileDescription, Bundle> getSkippedJarLibs() {
+		return skipped;
+	}
+
+	/**
+	 * Writes a bundle for each jar-file of the pool which isn't nested in
+	 * another one. If several jar-files would get the same bundle file, only
+	 * the first one is written, see {@link #getSkippedJarLibs()}.
+	 *
+	 * @return the bundles written, sorted by their files
+	 * @throws IOException
+	 *             if a jar-file cannot be read or a bundle cannot be
+	 *             written
+	 * @throws IllegalStateException
+	 *             if the pool hasn't been analysed yet
+	 */
+	public SortedSet<Bundle> bundle() throws IOException,
+			IllegalStateException {
+		if (!pluginsDirectory.isDirectory() && !pluginsDirectory.mkdirs()) {
+			throw new IOException("cannot create " + pluginsDirectory);
+		}
+
+		// duplicates are skipped, but they belong to their containers
+		final Map<JarFileDescription, SortedSet<JarFileDescription>> nestedJarLibs = new HashMap<JarFileDescription, SortedSet<JarFileDescription>>();
+		for (JarFileDescription jfd : analysis.getPool()) {
+			addNested(nestedJarLibs, jfd);
+			for (JarFileDescription duplicate : jfd.getDuplicates()) {
+				addNested(nestedJarLibs, duplicate);
+			}
+		}
+
+		// name all bundles first, the imports depend on all exports
+		final Map<File, Bundle> bundles = new LinkedHashMap<File, Bundle>();
+		final Map<JarFileDescription, Manifest> existingManifests = new HashMap<JarFileDescription, Manifest>();
+		Set<String> exported = new HashSet<String>();
+		SortedMap<JarFileDescription, Bundle> skipped = new TreeMap<JarFileDescription, Bundle>();
+		for (JarFileDescription jfd : analysis.getPool()) {
+			if (jfd.getContainer() != null) {
+				continue;
+			}
+			Manifest manifest = jfd.getManifest();
+			Bundle bundle = isBundle(manifest) ? createExisting(jfd, manifest)
+					: create(jfd, getNested(nestedJarLibs, jfd));
+			if (bundles.containsKey(bundle.getFile())) {
+				skipped.put(jfd, bundles.get(bundle.getFile()));
+				continue;
+			}
+			bundles.put(bundle.getFile(), bundle);
+			if (manifest != null) {
+				existingManifests.put(jfd, manifest);
+			}
+			exported.addAll(bundle.getExportedPackages());
+		}
+		for (Map.Entry<File, Bundle> entry : bundles.entrySet()) {
+			Bundle bundle = entry.getValue();
+			if (!isBundle(existingManifests.get(bundle.getJarLib()))) {
+				entry.setValue(addImports(bundle,
+						getNested(nestedJarLibs, bundle.getJarLib()), exported));
+			}
+		}
+
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (final Bundle bundle : bundles.values()) {
+			tasks.add(new Callable<Void>() {
+				public Void call() throws IOException {
+					write(bundle, getNested(nestedJarLibs, bundle.getJarLib()),
+							existingManifests.get(bundle.getJarLib()));
+					return null;
+				}
+			});
+		}
+		run(tasks);
+		this.skipped = Collections.unmodifiableSortedMap(skipped);
+		return Collections.unmodifiableSortedSet(new TreeSet<Bundle>(bundles
+				.values()));
+	}
+
+	/**
+	 * @return the bundle of a plain jar-file, exporting its packages and
+	 *         those of the jar-files nested in it, without imports yet
+	 */
+	private Bundle create(JarFileDescription jfd,
+			Collection<JarFileDescription> nestedJarLibs) {
+		String[] nameAndVersion = getNameAndVersion(jfd.getFile().getName());
+		ImmutableSortedSet.Builder<String> exportedPackages = ImmutableSortedSet
+				.naturalOrder();
+		exportedPackages.addAll(jfd.getProvidedPackages());
+		for (JarFileDescription nested : nestedJarLibs) {
+			exportedPackages.addAll(nested.getProvidedPackages());
+		}
+		return new Bundle(jfd, nameAndVersion[0], nameAndVersion[1],
+				exportedPackages.build(), ImmutableSortedSet.<String> of(),
+				ImmutableSortedSet.<String> of(), new File(pluginsDirectory,
+						nameAndVersion[0] + "_" + nameAndVersion[1] + ".jar"));
+	}
+
+	/**
+	 * Adds the imports to the bundle of a plain jar-file: all packages its
+	 * classes and those of the nested jar-files use, but neither export nor
+	 * find in the JRE's <code>java.*</code> packages. Packages exported by no
+	 * bundle of the site, e.g. of the JRE, are imported optionally.
+	 *
+	 * @return the bundle with imports
+	 */
+	private static Bundle addImports(Bundle bundle,
+			Collection<JarFileDescription> nestedJarLibs, Set<String> exported) {
+		Set<String> referencedPackages = new HashSet<String>(bundle
+				.getJarLib().getReferencedPackageNames());
+		for (JarFileDescription nested : nestedJarLibs) {
+			referencedPackages.addAll(nested.getReferencedPackageNames());
+		}
+		ImmutableSortedSet.Builder<String> importedPackages = ImmutableSortedSet
+				.naturalOrder();
+		ImmutableSortedSet.Builder<String> optionalPackages = ImmutableSortedSet
+				.naturalOrder();
+		for (String packageName : referencedPackages) {
+			if (!packageName.startsWith("java.")
+					&& !bundle.getExportedPackages().contains(packageName)) {
+				importedPackages.add(packageName);
+				if (!exported.contains(packageName)) {
+					optionalPackages.add(packageName);
+				}
+			}
+		}
+		return new Bundle(bundle.getJarLib(), bundle.getSymbolicName(),
+				bundle.getVersion(), bundle.getExportedPackages(),
+				importedPackages.build(), optionalPackages.build(),
+				bundle.getFile());
+	}
+
+	private static boolean isBundle(Manifest manifest) {
+		return manifest != null
+				&& manifest.getMainAttributes().getValue("Bundle-SymbolicName") != null;
+	}
+
+	/**
+	 * @return the bundle of a jar-file which already is a bundle
+	 */
+	private Bundle createExisting(JarFileDescription jfd, Manifest manifest) {
+		Attributes attributes = manifest.getMainAttributes();
+		String symbolicName = attributes.getValue("Bundle-SymbolicName");
+		int directives = symbolicName.indexOf(';');
+		if (directives >= 0) {
+			symbolicName = symbolicName.substring(0, directives);
+		}
+		symbolicName = symbolicName.trim();
+		String version = attributes.getValue("Bundle-Version");
+		version = version == null ? "0.0.0" : version.trim();
+
+		ImmutableSortedSet.Builder<String> exportedPackages = ImmutableSortedSet
+				.naturalOrder();
+		addPackages(attributes.getValue("Export-Package"), exportedPackages,
+				null);
+		ImmutableSortedSet.Builder<String> importedPackages = ImmutableSortedSet
+				.naturalOrder();
+		ImmutableSortedSet.Builder<String> optionalPackages = ImmutableSortedSet
+				.naturalOrder();
+		addPackages(attributes.getValue("Import-Package"), importedPackages,
+				optionalPackages);
+		return new Bundle(jfd, symbolicName, version,
+				exportedPackages.build(), importedPackages.build(),
+				optionalPackages.build(), new File(pluginsDirectory,
+						symbolicName + "_" + version + ".jar"));
+	}
+
+	/**
+	 * Adds the packages of an <code>Export-Package</code> or
+	 * <code>Import-Package</code> header, e.g.
+	 * <code>a;b;version="1.0",c;resolution:=optional</code>.
+	 *
+	 * @param optionalPackages
+	 *            receives the packages with
+	 *            <code>resolution:=optional</code>, may be <code>null</code>
+	 */
+	private static void addPackages(String header,
+			ImmutableSortedSet.Builder<String> packages,
+			ImmutableSortedSet.Builder<String> optionalPackages) {
+		if (header == null) {
+			return;
+		}
+		for (String clause : split(header, ',')) {
+			List<String> packageNames = new ArrayList<String>();
+			boolean optional = false;
+			for (String part : split(clause, ';')) {
+				part = part.trim();
+				if (part.replace(" ", "").equals("resolution:=optional")) {
+					optional = true;
+				} else if (part.indexOf('=') < 0 && !part.isEmpty()) {
+					packageNames.add(part);
+				}
+			}
+			packages.addAll(packageNames);
+			if (optional && optionalPackages != null) {
+				optionalPackages.addAll(packageNames);
+			}
+		}
+	}
+
+	/**
+	 * Writes a bundle: copies an existing bundle or rewrites a jar-file with
+	 * a new manifest. The bundle file is replaced only once it is complete.
+	 */
+	private void write(Bundle bundle,
+			Collection<JarFileDescription> nestedJarLibs, Manifest existing)
+			throws IOException {
+		File source = bundle.getJarLib().getFile();
+		File tmpFile = new File(pluginsDirectory, bundle.getFile().getName()
+				+ "." + Thread.currentThread().getId() + ".tmp");
+		try {
+			if (isBundle(existing)) {
+				Files.copy(source, tmpFile);
+			} else {
+				ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+				createManifest(bundle, nestedJarLibs, existing).write(manifest);
+				JarRewriter.rewrite(source, tmpFile, manifest.toByteArray());
+			}
+			if (!tmpFile.renameTo(bundle.getFile())) {
+				bundle.getFile().delete();
+				if (!tmpFile.renameTo(bundle.getFile())) {
+					throw new IOException("cannot write " + bundle.getFile());
+				}
+			}
+		} finally {
+			tmpFile.delete();
+		}
+	}
+
+	/**
+	 * Creates the manifest of a bundle. The main attributes of an existing
+	 * manifest, e.g. <code>Main-Class</code>, are kept; its per-entry
+	 * sections are dropped together with the signature they belong to.
+	 */
+	private static Manifest createManifest(Bundle bundle,
+			Collection<JarFileDescription> nestedJarLibs, Manifest existing) {
+		JarFileDescription jfd = bundle.getJarLib();
+
+		Manifest manifest = existing == null ? new Manifest() : new Manifest(
+				existing);
+		manifest.getEntries().clear();
+		Attributes attributes = manifest.getMainAttributes();
+		if (attributes.getValue(Attributes.Name.MANIFEST_VERSION) == null) {
+			attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		}
+		attributes.putValue("Bundle-ManifestVersion", "2");
+		attributes.putValue("Bundle-SymbolicName", bundle.getSymbolicName());
+		attributes.putValue("Bundle-Version", bundle.getVersion());
+		String name = jfd.getFile().getName();
+		attributes.putValue("Bundle-Name",
+				name.substring(0, name.length() - ".jar".length()));
+		if (!nestedJarLibs.isEmpty()) {
+			List<String> classPath = new ArrayList<String>();
+			classPath.add(".");
+			for (JarFileDescription nested : nestedJarLibs) {
+				classPath.add(nested.getName().substring(
+						jfd.getName().length() + "!/".length()));
+			}
+			attributes.putValue("Bundle-ClassPath", Joiner.on(',').join(
+					classPath));
+		}
+
+		List<String> exportClauses = new ArrayList<String>();
+		for (String packageName : bundle.getExportedPackages()) {
+			exportClauses.add(packageName + ";version=\""
+					+ bundle.getVersion() + "\"");
+		}
+		if (!exportClauses.isEmpty()) {
+			attributes.putValue("Export-Package", Joiner.on(',').join(
+					exportClauses));
+		} else {
+			attributes.remove(new Attributes.Name("Export-Package"));
+		}
+
+		List<String> importClauses = new ArrayList<String>();
+		for (String packageName : bundle.getImportedPackages()) {
+			importClauses.add(bundle.getOptionalPackages().contains(
+					packageName) ? packageName + ";resolution:=optional"
+					: packageName);
+		}
+		if (!importClauses.isEmpty()) {
+			attributes.putValue("Import-Package", Joiner.on(',').join(
+					importClauses));
+		} else {
+			attributes.remove(new Attributes.Name("Import-Package"));
+		}
+		return manifest;
+	}
+
+	private static void addNested(
+			Map<JarFileDescription, SortedSet<JarFileDescription>> nestedJarLibs,
+			JarFileDescription jfd) {
+		if (jfd.getContainer() != null) {
+			SortedSet<JarFileDescription> nested = nestedJarLibs.get(jfd
+					.getContainer());
+			if (nested == null) {
+				nested = new TreeSet<JarFileDescription>();
+				nestedJarLibs.put(jfd.getContainer(), nested);
+			}
+			nested.add(jfd);
+		}
+	}
+
+	/**
+	 * @return the jar-files nested directly in a jar-file, which are on the
+	 *         class path of its bundle
+	 */
+	private static Collection<JarFileDescription> getNested(
+			Map<JarFileDescription, SortedSet<JarFileDescription>> nestedJarLibs,
+			JarFileDescription jfd) {
+		SortedSet<JarFileDescription> nested = nestedJarLibs.get(jfd);
+		return nested == null ? Collections.<JarFileDescription> emptySet()
+				: nested;
+	}
+
+	/**
+	 * Derives the symbolic name and the OSGi version from the name of a
+	 * jar-file. A suffix after the version is a version qualifier if it looks
+	 * like one, e.g. <code>beta-2</code> or <code>SNAPSHOT</code>, and part of
+	 * the symbolic name otherwise, e.g. <code>natives-linux</code>.
+	 *
+	 * @param fileName
+	 *            the file name, e.g. <code>lwjgl-2.9.3-natives-linux.jar</code>
+	 * @return the symbolic name and the version, e.g.
+	 *         <code>lwjgl.natives-linux</code> and <code>2.9.3</code>
+	 */
+	static String[] getNameAndVersion(String fileName) {
+		String baseName = fileName.endsWith(".jar") ? fileName.substring(0,
+				fileName.length() - ".jar".length()) : fileName;
+		Matcher matcher = VERSIONED_NAME.matcher(baseName);
+		if (!matcher.matches()) {
+			return new String[] { toSymbolicName(baseName), "0.0.0" };
+		}
+
+		String symbolicName = matcher.group(1);
+		String suffix = matcher.group(3);
+		List<String> qualifier = new ArrayList<String>();
+		String[] numbers = matcher.group(2).split("\\.");
+		String[] version = { "0", "0", "0" };
+		for (int i = 0; i < numbers.length; i++) {
+			if (i < version.length && numbers[i].length() <= 9) {
+				version[i] = String.valueOf(Integer.parseInt(numbers[i]));
+			} else {
+				qualifier.add(numbers[i]);
+			}
+		}
+		if (suffix != null) {
+			if (QUALIFIER.matcher(suffix).matches()) {
+				qualifier.add(suffix);
+			} else {
+				symbolicName = symbolicName + "." + suffix;
+			}
+		}
+
+		String osgiVersion = Joiner.on('.').join(version);
+		if (!qualifier.isEmpty()) {
+			osgiVersion += "."
+					+ Joiner.on('-').join(qualifier)
+							.replaceAll("[^A-Za-z0-9_-]", "_");
+		}
+		return new String[] { toSymbolicName(symbolicName), osgiVersion };
+	}
+
+	/**
+	 * @return a valid symbolic name: tokens of letters, digits,
+	 *         <code>_</code> and <code>-</code> separated by dots
+	 */
+	private static String toSymbolicName(String name) {
+		String symbolicName = name.replaceAll("[^A-Za-z0-9_.-]", "_")
+				.replaceAll("\\.{2,}", ".").replaceAll("^\\.|\\.$", "");
+		return symbolicName.isEmpty() ? "_" : symbolicName;
+	}
+
+	/**
+	 * Splits a manifest header at the separator, except within quotes.
+	 */
+	private static List<String> split(String header, char separator) {
+		List<String> parts = new ArrayList<String>();
+		boolean quoted = false;
+		int start = 0;
+		for (int i = 0; i < header.length(); i++) {
+			char c = header.charAt(i);
+			if (c == '"') {
+				quoted = !quoted;
+			} else if (c == separator && !quoted) {
+				parts.add(header.substring(start, i));
+				start = i + 1;
+			}
+		}
+		parts.add(header.substring(start));
+		return parts;
+	}
+
+	/**
+	 * Runs the tasks on the worker threads or, with a single thread, on the
+	 * calling thread.
+	 */
+	private void run(List<Callable<Void>> tasks) throws IOException {
+		ExecutorService executor = threads == 1 ? null : Executors
+				.newFixedThreadPool(threads);
+		try {
+			if (executor == null) {
+				for (Callable<Void> task : tasks) {
+					task.call();
+				}
+			} else {
+				List<Future<Void>> futures = new ArrayList<Future<Void>>();
+				for (Callable<Void> task : tasks) {
+					futures.add(executor.submit(task));
+				}
+				for (Future<Void> future : futures) {
+					future.get();
+				}
+			}
+		} catch (ExecutionException e) {
+			throw rethrow(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while writing the bundles", e);
+		} catch (Exception e) {
+			throw rethrow(e);
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	private static IOException rethrow(Throwable t) {
+		if (t instanceof IOException) {
+			return (IOException) t;
+		}
+		if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		}
+		if (t instanceof Error) {
+			throw (Error) t;
+		}
+		return new IOException(t);
+	}
+}
@@ -0,0 +1,575 @@
+package org.pa.jmeupdatesite;
+
+import static org.apache.commons.lang3.Validate.noNullElements;
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+
+/**
+ * Writes the p2 metadata of an update site: <code>content.jar</code>
+ * describing an installable unit for each bundle with the packages it
+ * exports and imports, and <code>artifacts.jar</code> listing the bundle
+ * files. Both are compressed repositories, i.e. jar-files containing
+ * <code>content.xml</code> and <code>artifacts.xml</code>.
+ * <p>
+ * The XML is streamed to the jar-files unit by unit, so the metadata of
+ * large sites is never held in memory as a whole. If a cache file is set,
+ * the units are stored in it together with the fingerprint of their
+ * jar-file, see {@link JarFileDescription#getFingerprint()}, and a hash of
+ * the bundle's name, version and packages. Later runs copy the units of
+ * unchanged bundles from the cache instead of creating them again; the cache
+ * is indexed on start and the units are read from it one at a time.
+ */
+public class UpdateSiteMetadata {
+
+	private static final int MAGIC = 0x4a554d31; // "JUM1"
+	private static final int VERSION = 1;
+
+	private static final XMLOutputFactory XML_OUTPUT = XMLOutputFactory
+			.newInstance();
+
+	private final File siteDirectory;
+	private final String repositoryName;
+	private File cacheFile;
+
+	/**
+	 * Creates a generator writing to the specified update site.
+	 *
+	 * @param siteDirectory
+	 *            the directory of the update site, must not be
+	 *            <code>null</code>
+	 * @param repositoryName
+	 *            the name of the repositories, must not be <code>null</code>
+	 * @throws IllegalArgumentException
+	 *             if an argument is <code>null</code>
+	 */
+	public UpdateSiteMetadata(File siteDirectory, String repositoryName)
+			throws IllegalArgumentException {
+		this.siteDirectory = notNull(siteDirectory,
+				"site directory must not be null");
+		this.repositoryName = notNull(repositoryName,
+				"repositoryName must not be null");
+	}
+
+	/**
+	 * Sets the file the units are cached in. The file is created by
+	 * {@link #generate(Collection)} if it doesn't exist.
+	 *
+	 * @param cacheFile
+	 *            the cache file, <code>null</code> to create all units anew
+	 */
+	public void setCache(File cacheFile) {
+		this.cacheFile = cacheFile;
+	}
+
+	/**
+	 * @return the cache file or <code>null</code> if there is none
+	 */
+	public File getCache() {
+		return cacheFile;
+	}
+
+	/**
+	 * Writes <code>content.jar</code> and <code>artifacts.jar</code> to the
+	 * site directory, replacing existing ones, and replaces the cache.
+	 *
+	 * @param bundles
+	 *            the bundles of the site, must not be <code>null</code> and
+	 *            must not contain <code>null</code>
+	 * @return the number of units copied from the cache
+	 * @throws IllegalArgumentException
+	 *             if <code>bundles</code> is <code>null</code> or contains
+	 *             <code>null</code>
+	 * @throws IOException
+	 *             if a jar-file cannot be read or the metadata cannot be
+	 *             written
+	 */
+	public int generate(Collection<Bundle> bundles)
+			throws IllegalArgumentException, IOException {
+		noNullElements(notNull(bundles, "bundles must not be null"),
+				"bundles must not contain null");
+		SortedSet<Bundle> sortedBundles = new TreeSet<Bundle>(bundles);
+		String timestamp = Long.toString(System.currentTimeMillis());
+
+		int reused = writeContent(sortedBundles, timestamp);
+		writeArtifacts(sortedBundles, timestamp);
+		return reused;
+	}
+
+	/**
+	 * Writes <code>content.jar</code> and the new cache.
+	 *
+	 * @return the number of units copied from the cache
+	 */
+	private int writeContent(SortedSet<Bundle> bundles, String timestamp)
+			throws IOException {
+		Map<String, CachedUnit> cachedUnits = cacheFile == null ? Collections
+				.<String, CachedUnit> emptyMap() : readIndex(cacheFile);
+		RandomAccessFile cacheIn = null;
+		DataOutputStream cacheOut = null;
+		File tmpCacheFile = null;
+		File contentFile = new File(siteDirectory, "content.jar");
+		File tmpFile = new File(siteDirectory, "content.jar.tmp");
+		int reused = 0;
+		try {
+			if (!cachedUnits.isEmpty()) {
+				cacheIn = new RandomAccessFile(cacheFile, "r");
+			}
+			if (cacheFile != null) {
+				tmpCacheFile = new File(cacheFile.getPath() + ".tmp");
+				cacheOut = new DataOutputStream(new BufferedOutputStream(
+						new FileOutputStream(tmpCacheFile)));
+				cacheOut.writeInt(MAGIC);
+				cacheOut.writeInt(VERSION);
+			}
+
+			ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(
+					new FileOutputStream(tmpFile)));
+			try {
+				zip.putNextEntry(new ZipEntry("content.xml"));
+				Writer out = new BufferedWriter(new OutputStreamWriter(zip,
+						Charsets.UTF_8));
+				XMLStreamWriter xml = XML_OUTPUT.createXMLStreamWriter(out);
+				startRepository(xml, "metadataRepository",
+						"org.eclipse.equinox.internal.p2.metadata.repository.LocalMetadataRepository",
+						timestamp);
+				newLine(xml, 1);
+				xml.writeStartElement("units");
+				xml.writeAttribute("size", Integer.toString(bundles.size()));
+
+				for (Bundle bundle : bundles) {
+					long fingerprint = bundle.getJarLib().getFingerprint();
+					byte[] hash = hash(bundle);
+					String unit = null;
+					CachedUnit cachedUnit = cachedUnits.get(bundle.getFile()
+							.getName());
+					if (cachedUnit != null
+							&& cachedUnit.fingerprint == fingerprint
+							&& Arrays.equals(cachedUnit.hash, hash)) {
+						unit = cachedUnit.read(cacheIn);
+					}
+					if (unit == null) {
+						unit = createUnit(bundle);
+					} else {
+						reused++;
+					}
+
+					// the units are written as they are, so the start tag
+					// before them must be closed
+					xml.writeCharacters("");
+					xml.flush();
+					out.write(unit);
+
+					if (cacheOut != null) {
+						byte[] unitBytes = unit.getBytes(Charsets.UTF_8);
+						cacheOut.writeBoolean(true);
+						cacheOut.writeUTF(bundle.getFile().getName());
+						cacheOut.writeLong(fingerprint);
+						cacheOut.write(hash);
+						cacheOut.writeInt(unitBytes.length);
+						cacheOut.write(unitBytes);
+					}
+				}
+
+				newLine(xml, 1);
+				xml.writeEndElement();
+				endRepository(xml);
+				out.flush();
+				zip.closeEntry();
+			} catch (XMLStreamException e) {
+				throw new IOException(e);
+			} finally {
+				zip.close();
+			}
+			replace(tmpFile, contentFile);
+
+			if (cacheOut != null) {
+				cacheOut.writeBoolean(false);
+				cacheOut.close();
+				cacheOut = null;
+			}
+		} finally {
+			tmpFile.delete();
+			if (cacheIn != null) {
+				cacheIn.close();
+			}
+			if (cacheOut != null) {
+				cacheOut.close();
+				tmpCacheFile.delete();
+			}
+		}
+		if (tmpCacheFile != null) {
+			replace(tmpCacheFile, cacheFile);
+		}
+		return reused;
+	}
+
+	/**
+	 * Writes <code>artifacts.jar</code>. Its entries are small and depend on
+	 * the size of the bundle files only, so they are not cached.
+	 */
+	private void writeArtifacts(SortedSet<Bundle> bundles, String timestamp)
+			throws IOException {
+		File artifactsFile = new File(siteDirectory, "artifacts.jar");
+		File tmpFile = new File(siteDirectory, "artifacts.jar.tmp");
+		try {
+			ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(
+					new FileOutputStream(tmpFile)));
+			try {
+				zip.putNextEntry(new ZipEntry("artifacts.xml"));
+				Writer out = new BufferedWriter(new OutputStreamWriter(zip,
+						Charsets.UTF_8));
+				XMLStreamWriter xml = XML_OUTPUT.createXMLStreamWriter(out);
+				startRepository(xml, "artifactRepository",
+						"org.eclipse.equinox.p2.artifact.repository.simpleRepository",
+						timestamp);
+
+				newLine(xml, 1);
+				xml.writeStartElement("mappings");
+				xml.writeAttribute("size", "3");
+				writeRule(xml, "osgi.bundle",
+						"${repoUrl}/plugins/${id}_${version}.jar");
+				writeRule(xml, "binary", "${repoUrl}/binary/${id}_${version}");
+				writeRule(xml, "org.eclipse.update.feature",
+						"${repoUrl}/features/${id}_${version}.jar");
+				newLine(xml, 1);
+				xml.writeEndElement();
+
+				newLine(xml, 1);
+				xml.writeStartElement("artifacts");
+				xml.writeAttribute("size", Integer.toString(bundles.size()));
+				for (Bundle bundle : bundles) {
+					String size = Long.toString(bundle.getFile().length());
+					newLine(xml, 2);
+					xml.writeStartElement("artifact");
+					xml.writeAttribute("classifier", "osgi.bundle");
+					xml.writeAttribute("id", bundle.getSymbolicName());
+					xml.writeAttribute("version", bundle.getVersion());
+					newLine(xml, 3);
+					xml.writeStartElement("properties");
+					xml.writeAttribute("size", "2");
+					writeProperty(xml, 4, "artifact.size", size);
+					writeProperty(xml, 4, "download.size", size);
+					newLine(xml, 3);
+					xml.writeEndElement();
+					newLine(xml, 2);
+					xml.writeEndElement();
+				}
+				newLine(xml, 1);
+				xml.writeEndElement();
+				endRepository(xml);
+				out.flush();
+				zip.closeEntry();
+			} catch (XMLStreamException e) {
+				throw new IOException(e);
+			} finally {
+				zip.close();
+			}
+			replace(tmpFile, artifactsFile);
+		} finally {
+			tmpFile.delete();
+		}
+	}
+
+	/**
+	 * Creates the installable unit of a bundle. It provides the bundle and
+	 * its exported packages and requires its imported packages. The imports
+	 * of the site have no version ranges, so the packages are provided
+	 * without a version.
+	 */
+	private static String createUnit(Bundle bundle) throws IOException {
+		StringWriter unit = new StringWriter();
+		try {
+			XMLStreamWriter xml = XML_OUTPUT.createXMLStreamWriter(unit);
+			String id = bundle.getSymbolicName();
+			String version = bundle.getVersion();
+			newLine(xml, 2);
+			xml.writeStartElement("unit");
+			xml.writeAttribute("id", id);
+			xml.writeAttribute("version", version);
+
+			newLine(xml, 3);
+			xml.writeStartElement("properties");
+			xml.writeAttribute("size", "1");
+			writeProperty(xml, 4, "org.eclipse.equinox.p2.name", bundle
+					.getJarLib().getFile().getName());
+			newLine(xml, 3);
+			xml.writeEndElement();
+
+			newLine(xml, 3);
+			xml.writeStartElement("provides");
+			xml.writeAttribute("size",
+					Integer.toString(bundle.getExportedPackages().size() + 3));
+			writeProvided(xml, "org.eclipse.equinox.p2.iu", id, version);
+			writeProvided(xml, "osgi.bundle", id, version);
+			for (String packageName : bundle.getExportedPackages()) {
+				writeProvided(xml, "java.package", packageName, "0.0.0");
+			}
+			writeProvided(xml, "org.eclipse.equinox.p2.eclipse.type",
+					"bundle", "1.0.0");
+			newLine(xml, 3);
+			xml.writeEndElement();
+
+			if (!bundle.getImportedPackages().isEmpty()) {
+				newLine(xml, 3);
+				xml.writeStartElement("requires");
+				xml.writeAttribute("size",
+						Integer.toString(bundle.getImportedPackages().size()));
+				for (String packageName : bundle.getImportedPackages()) {
+					newLine(xml, 4);
+					xml.writeEmptyElement("required");
+					xml.writeAttribute("namespace", "java.package");
+					xml.writeAttribute("name", packageName);
+					xml.writeAttribute("range", "0.0.0");
+					if (bundle.getOptionalPackages().contains(packageName)) {
+						xml.writeAttribute("optional", "true");
+						xml.writeAttribute("greedy", "false");
+					}
+				}
+				newLine(xml, 3);
+				xml.writeEndElement();
+			}
+
+			newLine(xml, 3);
+			xml.writeStartElement("artifacts");
+			xml.writeAttribute("size", "1");
+			newLine(xml, 4);
+			xml.writeEmptyElement("artifact");
+			xml.writeAttribute("classifier", "osgi.bundle");
+			xml.writeAttribute("id", id);
+			xml.writeAttribute("version", version);
+			newLine(xml, 3);
+			xml.writeEndElement();
+
+			newLine(xml, 3);
+			xml.writeEmptyElement("touchpoint");
+			xml.writeAttribute("id", "org.eclipse.equinox.p2.osgi");
+			xml.writeAttribute("version", "1.0.0");
+
+			newLine(xml, 3);
+			xml.writeStartElement("touchpointData");
+			xml.writeAttribute("size", "1");
+			newLine(xml, 4);
+			xml.writeStartElement("instructions");
+			xml.writeAttribute("size", "1");
+			newLine(xml, 5);
+			xml.writeStartElement("instruction");
+			xml.writeAttribute("key", "manifest");
+			xml.writeCharacters("Bundle-SymbolicName: " + id
+					+ "\nBundle-Version: " + version);
+			xml.writeEndElement();
+			newLine(xml, 4);
+			xml.writeEndElement();
+			newLine(xml, 3);
+			xml.writeEndElement();
+
+			newLine(xml, 2);
+			xml.writeEndElement();
+			xml.close();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+		return unit.toString();
+	}
+
+	/**
+	 * Writes the XML declaration, the processing instruction of the
+	 * repository kind and the start of the repository with its properties.
+	 */
+	private void startRepository(XMLStreamWriter xml, String kind,
+			String type, String timestamp) throws XMLStreamException {
+		xml.writeStartDocument("UTF-8", "1.0");
+		newLine(xml, 0);
+		xml.writeProcessingInstruction(kind, "version='1.1.0'");
+		newLine(xml, 0);
+		xml.writeStartElement("repository");
+		xml.writeAttribute("name", repositoryName);
+		xml.writeAttribute("type", type);
+		xml.writeAttribute("version", "1");
+		newLine(xml, 1);
+		xml.writeStartElement("properties");
+		xml.writeAttribute("size", "2");
+		writeProperty(xml, 2, "p2.timestamp", timestamp);
+		writeProperty(xml, 2, "p2.compressed", "true");
+		newLine(xml, 1);
+		xml.writeEndElement();
+	}
+
+	private static void endRepository(XMLStreamWriter xml)
+			throws XMLStreamException {
+		newLine(xml, 0);
+		xml.writeEndElement();
+		newLine(xml, 0);
+		xml.writeEndDocument();
+		xml.close();
+	}
+
+	private static void writeProperty(XMLStreamWriter xml, int depth,
+			String name, String value) throws XMLStreamException {
+		newLine(xml, depth);
+		xml.writeEmptyElement("property");
+		xml.writeAttribute("name", name);
+		xml.writeAttribute("value", value);
+	}
+
+	private static void writeProvided(XMLStreamWriter xml, String namespace,
+			String name, String version) throws XMLStreamException {
+		newLine(xml, 4);
+		xml.writeEmptyElement("provided");
+		xml.writeAttribute("namespace", namespace);
+		xml.writeAttribute("name", name);
+		xml.writeAttribute("version", version);
+	}
+
+	private static void writeRule(XMLStreamWriter xml, String classifier,
+			String output) throws XMLStreamException {
+		newLine(xml, 2);
+		xml.writeEmptyElement("rule");
+		xml.writeAttribute("filter", "(& (classifier=" + classifier + "))");
+		xml.writeAttribute("output", output);
+	}
+
+	/**
+	 * Starts a new line indented by <code>depth</code> tabs.
+	 */
+	private static void newLine(XMLStreamWriter xml, int depth)
+			throws XMLStreamException {
+		StringBuilder indent = new StringBuilder("\n");
+		for (int i = 0; i < depth; i++) {
+			indent.append('\t');
+		}
+		xml.writeCharacters(indent.toString());
+	}
+
+	/**
+	 * @return the SHA-1 hash of everything a unit is created from besides the
+	 *         content of the jar-file
+	 */
+	private static byte[] hash(Bundle bundle) {
+		Hasher hasher = Hashing.sha1().newHasher();
+		hasher.putString(bundle.getSymbolicName()).putChar('\n');
+		hasher.putString(bundle.getVersion()).putChar('\n');
+		hasher.putString(bundle.getJarLib().getFile().getName()).putChar('\n');
+		for (String packageName : bundle.getExportedPackages()) {
+			hasher.putString(packageName).putChar(',');
+		}
+		hasher.putChar('\n');
+		for (String packageName : bundle.getImportedPackages()) {
+			hasher.putString(packageName)
+					.putChar(bundle.getOptionalPackages().contains(
+							packageName) ? '?' : ',');
+		}
+		return hasher.hash().asBytes();
+	}
+
+	/**
+	 * Reads the index of the cache: the key, fingerprint and hash of each unit
+	 * and where it is stored.
+	 *
+	 * @return the units of the cache by the names of their bundle files,
+	 *         empty if the cache doesn't exist or is invalid
+	 */
+	private static Map<String, CachedUnit> readIndex(File cacheFile) {
+		Map<String, CachedUnit> cachedUnits = new HashMap<String, CachedUnit>();
+		if (!cacheFile.isFile()) {
+			return cachedUnits;
+		}
+		try {
+			CountingInputStream counter = new CountingInputStream(
+					new BufferedInputStream(new FileInputStream(cacheFile)));
+			DataInputStream in = new DataInputStream(counter);
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+					return cachedUnits;
+				}
+				while (in.readBoolean()) {
+					String name = in.readUTF();
+					long fingerprint = in.readLong();
+					byte[] hash = new byte[20];
+					in.readFully(hash);
+					int length = in.readInt();
+					cachedUnits.put(name, new CachedUnit(fingerprint, hash,
+							counter.getCount(), length));
+					ByteStreams.skipFully(in, length);
+				}
+				return cachedUnits;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// unreadable or truncated caches are simply created again
+			return new HashMap<String, CachedUnit>();
+		}
+	}
+
+	private static void replace(File tmpFile, File file) throws IOException {
+		if (!tmpFile.renameTo(file)) {
+			file.delete();
+			if (!tmpFile.renameTo(file)) {
+				throw new IOException("cannot write " + file);
+			}
+		}
+	}
+
+	private static final class CachedUnit {
+
+		private final long fingerprint;
+		private final byte[] hash;
+		private final long offset;
+		private final int length;
+
+		private CachedUnit(long fingerprint, byte[] hash, long offset,
+				int length) {
+			this.fingerprint = fingerprint;
+			this.hash = hash;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		/**
+		 * @return the unit or <code>null</code> if it cannot be read
+		 */
+		private String read(RandomAccessFile cache) {
+			try {
+				byte[] unit = new byte[length];
+				cache.seek(offset);
+				cache.readFully(unit);
+				return new String(unit, Charsets.UTF_8);
+			} catch (IOException e) {
+				// e.g. truncated, the unit is simply created again
+				return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package org.pa.jmeupdatesite;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipFile;
+
+/**
+ * A size-limited pool of open {@link ZipFile} handles shared by the
+ * jar-files of a pool. Handles are opened on demand and kept open for reuse;
+ * if more than the maximum number of handles are open, the least recently
+ * used idle handles are closed. Handles in use are never closed, so the limit
+ * may be exceeded temporarily by the number of concurrent users.
+ * <p>
+ * Every {@link #acquire(File)} must be followed by a {@link #release(File)}.
+ * A pool is safe to be used by several threads.
+ */
+public class ZipFilePool implements Closeable {
+
+	private final int maxOpen;
+	private final LinkedHashMap<File, Handle> handles = new LinkedHashMap<File, Handle>(
+			16, 0.75f, true); // access order
+
+	private static final class Handle {
+		private final ZipFile zip;
+		private int users;
+
+		private Handle(ZipFile zip) {
+			this.zip = zip;
+		}
+	}
+
+	/**
+	 * Creates a pool.
+	 *
+	 * @param maxOpen
+	 *            the maximum number of idle handles kept open
+	 * @throws IllegalArgumentException
+	 *             if <code>maxOpen</code> is less than <code>1</code>
+	 */
+	public ZipFilePool(int maxOpen) throws IllegalArgumentException {
+		isTrue(maxOpen >= 1, "maxOpen must be at least 1");
+		this.maxOpen = maxOpen;
+	}
+
+	/**
+	 * Returns an open handle of the specified file, opening it if necessary.
+	 *
+	 * @param file
+	 *            the zip-file, must not be <code>null</code>
+	 * @return the open handle, must not be closed by the caller
+	 * @throws IOException
+	 *             if the file cannot be opened
+	 */
+	public ZipFile acquire(File file) throws IOException {
+		notNull(file, "file must not be null");
+		synchronized (this) {
+			Handle handle = handles.get(file);
+			if (handle != null) {
+				handle.users++;
+				return handle.zip;
+			}
+		}
+
+		// open without holding the lock, reading the central directory of
+		// large files takes a while
+		ZipFile zip = new ZipFile(file);
+		synchronized (this) {
+			Handle handle = handles.get(file);
+			if (handle != null) { // opened concurrently
+				close(zip);
+			} else {
+				handle = new Handle(zip);
+				handles.put(file, handle);
+			}
+			handle.users++;
+			closeIdle();
+			return handle.zip;
+		}
+	}
+
+	/**
+	 * Releases a handle acquired by {@link #acquire(File)}. The handle stays
+	 * open until it is the least recently used one.
+	 *
+	 * @param file
+	 *            the zip-file
+	 */
+	public synchronized void release(File file) {
+		Handle handle = handles.get(file);
+		if (handle != null && handle.users > 0) {
+			handle.users--;
+			closeIdle();
+		}
+	}
+
+	/**
+	 * Closes the handle of the specified file now, unless it is in use.
+	 *
+	 * @param file
+	 *            the zip-file
+	 */
+	public synchronized void close(File file) {
+		Handle handle = handles.get(file);
+		if (handle != null && handle.users == 0) {
+			handles.remove(file);
+			close(handle.zip);
+		}
+	}
+
+	/**
+	 * Returns the number of currently open handles.
+	 *
+	 * @return the number of open handles
+	 */
+	public synchronized int getOpenCount() {
+		return handles.size();
+	}
+
+	/**
+	 * Closes all handles, including the ones in use.
+	 */
+	public synchronized void close() {
+		for (Handle handle : handles.values()) {
+			close(handle.zip);
+		}
+		handles.clear();
+	}
+
+	/**
+	 * Closes the least recently used idle handles until at most
+	 * <code>maxOpen</code> handles are open.
+	 */
+	private void closeIdle() {
+		Iterator<Map.Entry<File, Handle>> it = handles.entrySet().iterator();
+		while (handles.size() > maxOpen && it.hasNext()) {
+			Handle handle = it.next().getValue();
+			if (handle.users == 0) {
+				it.remove();
+				close(handle.zip);
+			}
+		}
+	}
+
+	private static void close(ZipFile zip) {
+		try {
+			zip.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,233 @@
+package org.pa.jmeupdatesite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.Validate;
+import org.junit.Test;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+/**
+ * Tests {@link ConstantPoolScanner} with class files written by ASM or by
+ * hand and compares it with the ASM engine of {@link ClassBytesUtil}.
+ */
+public class ConstantPoolScannerTest {
+
+	@Test
+	public void findsClassesOfAnnotations() throws IOException {
+		ClassWriter cw = new ClassWriter(0);
+		cw.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT,
+				"p/Annotated", null, "java/lang/Object", null);
+		AnnotationVisitor av = cw.visitAnnotation("Lq/Visible;", true);
+		av.visitEnum("e", "Lq/Enum;", "X");
+		av.visit("c", Type.getType("Lq/Value;"));
+		av.visitAnnotation("n", "Lq/Nested;").visitEnd();
+		AnnotationVisitor array = av.visitArray("a");
+		array.visit(null, Type.getType("[Lq/InArray;"));
+		array.visitEnd();
+		av.visitEnd();
+		cw.visitAnnotation("Lq/Invisible;", false).visitEnd();
+		FieldVisitor fv = cw.visitField(Opcodes.ACC_PUBLIC, "f", "I", null,
+				null);
+		fv.visitAnnotation("Lr/FieldAnnotation;", true).visitEnd();
+		fv.visitEnd();
+		MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC
+				| Opcodes.ACC_ABSTRACT, "m", "(I)V", null, null);
+		mv.visitParameterAnnotation(0, "Ls/Parameter;", true).visitEnd();
+		mv.visitParameterAnnotation(0, "Ls/InvisibleParameter;", false)
+				.visitEnd();
+		av = mv.visitAnnotationDefault();
+		av.visitEnum(null, "Ls/Default;", "Y");
+		av.visitEnd();
+		mv.visitEnd();
+		cw.visitEnd();
+
+		assertEquals(ImmutableSet.of("p.Annotated", "java.lang.Object",
+				"q.Visible", "q.Enum", "q.Value", "q.Nested", "q.InArray",
+				"q.Invisible", "r.FieldAnnotation", "s.Parameter",
+				"s.InvisibleParameter", "s.Default"), scan(cw.toByteArray()));
+		assertSuperset(cw.toByteArray());
+	}
+
+	@Test
+	public void findsClassesOfDescriptorsAndSignatures() throws IOException {
+		ClassWriter cw = new ClassWriter(0);
+		cw.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT,
+				"p/Generic", "<T:Lq/Bound;>Lq/Super<TT;>;", "q/Super", null);
+		cw.visitField(Opcodes.ACC_PUBLIC, "f", "[[Lr/Field;", null, null)
+				.visitEnd();
+		cw.visitField(Opcodes.ACC_PUBLIC, "g", "Ljava/util/List;",
+				"Ljava/util/List<Lr/Argument;>;", null).visitEnd();
+		cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, "m",
+				"(LDefault;I)Ls/Return$Inner;",
+				"(LDefault;I)Ls/Return<Ls/Argument;>.Inner;", null).visitEnd();
+		cw.visitEnd();
+
+		assertEquals(ImmutableSet.of("p.Generic", "q.Bound", "q.Super",
+				"r.Field", "java.util.List", "r.Argument", "Default",
+				"s.Return", "s.Return$Inner", "s.Argument"),
+				scan(cw.toByteArray()));
+		assertSuperset(cw.toByteArray());
+	}
+
+	@Test
+	public void findsClassesOfMethodTypesAndDynamicConstants()
+			throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0xcafebabe);
+		out.writeShort(0);
+		out.writeShort(55);
+		out.writeShort(20); // constant pool count
+		utf8(out, "p/Dynamic"); // 1
+		classConstant(out, 1); // 2
+		utf8(out, "java/lang/Object"); // 3
+		classConstant(out, 3); // 4
+		utf8(out, "(Lm/Argument;)Lm/Return;"); // 5
+		out.writeByte(16); // 6 MethodType
+		out.writeShort(5);
+		utf8(out, "name"); // 7
+		utf8(out, "Lm/Constant;"); // 8
+		nameAndType(out, 7, 8); // 9
+		out.writeByte(17); // 10 Dynamic
+		out.writeShort(0);
+		out.writeShort(9);
+		utf8(out, "(Lm/IndyArgument;)Lm/IndyReturn;"); // 11
+		nameAndType(out, 7, 11); // 12
+		out.writeByte(18); // 13 InvokeDynamic
+		out.writeShort(0);
+		out.writeShort(12);
+		out.writeByte(10); // 14 Methodref
+		out.writeShort(4);
+		out.writeShort(12);
+		out.writeByte(15); // 15 MethodHandle
+		out.writeByte(6);
+		out.writeShort(14);
+		out.writeByte(5); // 16 and 17 Long
+		out.writeLong(42);
+		utf8(out, "[Lm/Array;"); // 18
+		classConstant(out, 18); // 19
+		out.writeShort(Opcodes.ACC_PUBLIC);
+		out.writeShort(2); // this class
+		out.writeShort(4); // super class
+		out.writeShort(0); // interfaces
+		out.writeShort(0); // fields
+		out.writeShort(0); // methods
+		out.writeShort(0); // attributes
+		out.close();
+
+		assertEquals(ImmutableSet.of("p.Dynamic", "java.lang.Object",
+				"m.Argument", "m.Return", "m.Constant", "m.IndyArgument",
+				"m.IndyReturn", "m.Array"), scan(bytes.toByteArray()));
+	}
+
+	@Test
+	public void rejectsInvalidClassFiles() {
+		ClassWriter cw = new ClassWriter(0);
+		cw.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC, "p/Truncated", null,
+				"java/lang/Object", null);
+		cw.visitEnd();
+		byte[] bytes = cw.toByteArray();
+		for (byte[] invalid : Arrays.asList(new byte[] { 1, 2, 3, 4, 0, 0,
+				0, 0 }, Arrays.copyOf(bytes, bytes.length - 3))) {
+			try {
+				scan(invalid);
+				fail("no exception for " + Arrays.toString(invalid));
+			} catch (IOException e) {
+				// expected
+			}
+		}
+	}
+
+	/**
+	 * The constant pool engine must find every class the ASM engine finds,
+	 * apart from the <code>java.lang.Synthetic</code> annotation ASM 3 makes
+	 * up for synthetic parameters.
+	 */
+	@Test
+	public void findsClassesFoundByAsm() throws IOException,
+			URISyntaxException {
+		int classes = 0;
+		for (Class<?> type : Arrays.<Class<?>> asList(ImmutableSet.class,
+				Validate.class, IOUtils.class)) {
+			File jarFile = new File(type.getProtectionDomain().getCodeSource()
+					.getLocation().toURI());
+			ZipFile zip = new ZipFile(jarFile);
+			try {
+				Enumeration<? extends ZipEntry> entries = zip.entries();
+				while (entries.hasMoreElements()) {
+					ZipEntry entry = entries.nextElement();
+					if (entry.getName().endsWith(".class")
+							&& !entry.getName().startsWith("META-INF/")) {
+						InputStream in = zip.getInputStream(entry);
+						try {
+							assertSuperset(IOUtils.toByteArray(in));
+						} finally {
+							in.close();
+						}
+						classes++;
+					}
+				}
+			} finally {
+				zip.close();
+			}
+		}
+		assertTrue(classes > 100);
+	}
+
+	private static Set<String> scan(byte[] bytes) throws IOException {
+		Set<String> result = new HashSet<String>();
+		ConstantPoolScanner.findClassNames(bytes, result);
+		return result;
+	}
+
+	private static void assertSuperset(byte[] bytes) throws IOException {
+		Set<String> asm = new HashSet<String>(ClassBytesUtil.findClassNames(
+				bytes, ClassBytesUtil.Engine.ASM));
+		asm.remove("java.lang.Synthetic");
+		Set<String> missing = Sets.difference(asm, scan(bytes));
+		assertTrue("not found: " + missing, missing.isEmpty());
+	}
+
+	private static void utf8(DataOutputStream out, String value)
+			throws IOException {
+		out.writeByte(1);
+		out.writeUTF(value);
+	}
+
+	private static void classConstant(DataOutputStream out, int name)
+			throws IOException {
+		out.writeByte(7);
+		out.writeShort(name);
+	}
+
+	private static void nameAndType(DataOutputStream out, int name,
+			int descriptor) throws IOException {
+		out.writeByte(12);
+		out.writeShort(name);
+		out.writeShort(descriptor);
+	}
+}
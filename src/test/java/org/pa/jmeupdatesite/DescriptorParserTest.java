@@ -0,0 +1,134 @@
+package org.pa.jmeupdatesite;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Tests {@link DescriptorParser} with descriptors, signatures and internal
+ * names as written by the Java compiler.
+ */
+public class DescriptorParserTest {
+
+	@Test
+	public void findsClassesOfFieldDescriptors() {
+		assertEquals(ImmutableSet.of("java.lang.String"),
+				parseDescriptor("Ljava/lang/String;"));
+		assertEquals(ImmutableSet.of("java.lang.String"),
+				parseDescriptor("[[Ljava/lang/String;"));
+		assertEquals(ImmutableSet.of(), parseDescriptor("[[I"));
+		assertEquals(ImmutableSet.of(), parseDescriptor(null));
+	}
+
+	@Test
+	public void findsClassesOfMethodDescriptors() {
+		assertEquals(ImmutableSet.of("java.util.List", "java.util.Map$Entry"),
+				parseDescriptor("(I[JLjava/util/List;Z)Ljava/util/Map$Entry;"));
+		assertEquals(ImmutableSet.of(), parseDescriptor("(IJ[D)V"));
+	}
+
+	@Test
+	public void keepsInnerClassesAndPackageSegments() {
+		assertEquals(ImmutableSet.of("com.Acme2.v1.Outer$Inner$1"),
+				parseDescriptor("Lcom/Acme2/v1/Outer$Inner$1;"));
+		assertEquals(ImmutableSet.of("Default", "Default$Inner"),
+				parseDescriptor("(LDefault;)LDefault$Inner;"));
+	}
+
+	@Test
+	public void passesPackageLengths() {
+		final List<String> found = new ArrayList<String>();
+		DescriptorParser parser = new DescriptorParser(
+				new DescriptorParser.Handler() {
+					public void className(char[] chars, int offset,
+							int length, int packageLength) {
+						found.add(new String(chars, offset, length) + " "
+								+ packageLength);
+					}
+				});
+		parser.parseDescriptor("(LDefault;Ljava/util/Map$Entry;)La/B;");
+		assertEquals(ImmutableList.of("Default -1", "java.util.Map$Entry 9",
+				"a.B 1"), found);
+	}
+
+	@Test
+	public void findsClassesOfClassSignatures() {
+		assertEquals(ImmutableSet.of("java.lang.Object", "java.util.List"),
+				parseSignature("<T:Ljava/lang/Object;>Ljava/lang/Object;Ljava/util/List<TT;>;"));
+		assertEquals(ImmutableSet.of("java.lang.Comparable", "java.lang.Object",
+				"java.util.Map", "a.B"),
+				parseSignature("<K::Ljava/lang/Comparable<-TK;>;V:Ljava/lang/Object;>"
+						+ "Ljava/lang/Object;Ljava/util/Map<TK;[[La/B;>;"));
+	}
+
+	@Test
+	public void findsClassesOfMethodSignatures() {
+		assertEquals(ImmutableSet.of("java.lang.Exception", "java.util.List",
+				"a.A", "java.util.Map", "a.B", "java.io.IOException"),
+				parseSignature("<X:Ljava/lang/Exception;>(Ljava/util/List<+La/A;>;[TX;I)"
+						+ "Ljava/util/Map<*La/B;>;^TX;^Ljava/io/IOException;"));
+		assertEquals(ImmutableSet.of(), parseSignature("<T:>(TT;)TT;"));
+		assertEquals(ImmutableSet.of(), parseSignature(null));
+	}
+
+	@Test
+	public void findsOuterClassesOfParameterizedTypes() {
+		assertEquals(ImmutableSet.of("foo.Outer", "bar.A", "foo.Outer$Inner",
+				"baz.B"),
+				parseSignature("Lfoo/Outer<Lbar/A;>.Inner<Lbaz/B;>;"));
+		assertEquals(ImmutableSet.of("foo.Outer", "foo.Outer$Inner",
+				"foo.Outer$Inner$Leaf", "bar.A"),
+				parseSignature("Lfoo/Outer<*>.Inner<Lbar/A;>.Leaf;"));
+	}
+
+	@Test
+	public void findsClassesOfInternalNames() {
+		assertEquals(ImmutableSet.of("java.lang.String"),
+				parseInternalName("java/lang/String"));
+		assertEquals(ImmutableSet.of("Default$1"),
+				parseInternalName("Default$1"));
+		assertEquals(ImmutableSet.of("java.lang.Object"),
+				parseInternalName("[[Ljava/lang/Object;"));
+		assertEquals(ImmutableSet.of(), parseInternalName("[I"));
+	}
+
+	@Test
+	public void growsItsBuffers() {
+		String longName = Strings.repeat("a/", 100) + "C";
+		Set<String> result = new HashSet<String>();
+		DescriptorParser parser = new DescriptorParser(result);
+		parser.parseDescriptor("Lx/Y;");
+		parser.parseSignature("Ljava/util/List<L" + longName + ";>;");
+		parser.parseDescriptor("Lz/W;");
+		assertEquals(ImmutableSet.of("x.Y", "java.util.List",
+				longName.replace('/', '.'), "z.W"), result);
+	}
+
+	private static Set<String> parseDescriptor(String desc) {
+		Set<String> result = new HashSet<String>();
+		new DescriptorParser(result).parseDescriptor(desc);
+		return result;
+	}
+
+	private static Set<String> parseSignature(String signature) {
+		Set<String> result = new HashSet<String>();
+		new DescriptorParser(result).parseSignature(signature);
+		return result;
+	}
+
+	private static Set<String> parseInternalName(String internalName) {
+		Set<String> result = new HashSet<String>();
+		new DescriptorParser(result).parseInternalName(
+				internalName.toCharArray(), 0, internalName.length());
+		return result;
+	}
+}
@@ -0,0 +1,373 @@
+package org.pa.jmeupdatesite;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarInputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+
+/**
+ * Tests {@link JarRewriter} with jar-files written by {@link ZipOutputStream}
+ * and checks the copies with the zip-file readers of the JRE.
+ */
+public class JarRewriterTest {
+
+	private static final byte[] MANIFEST = "Manifest-Version: 1.0\r\nBundle-Name: test\r\n\r\n"
+			.getBytes(Charsets.UTF_8);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void copiesStoredAndDeflatedEntries() throws IOException {
+		Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+		entries.put("a/Stored.class", content("stored", 100));
+		entries.put("a/Deflated.class", content("deflated", 1000));
+		entries.put("a/", new byte[0]);
+		entries.put("b/empty.txt", new byte[0]);
+		File source = folder.newFile("source.jar");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(source));
+		try {
+			put(out, "a/Stored.class", entries.get("a/Stored.class"),
+					ZipEntry.STORED);
+			put(out, "a/Deflated.class", entries.get("a/Deflated.class"),
+					ZipEntry.DEFLATED);
+			put(out, "a/", entries.get("a/"), ZipEntry.STORED);
+			put(out, "b/empty.txt", entries.get("b/empty.txt"),
+					ZipEntry.DEFLATED);
+		} finally {
+			out.close();
+		}
+
+		File target = rewrite(source);
+
+		ZipFile sourceZip = new ZipFile(source);
+		ZipFile targetZip = new ZipFile(target);
+		try {
+			assertEquals(Arrays.asList("META-INF/", "META-INF/MANIFEST.MF",
+					"a/Stored.class", "a/Deflated.class", "a/", "b/empty.txt"),
+					getNames(targetZip));
+			for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+				ZipEntry sourceEntry = sourceZip.getEntry(entry.getKey());
+				ZipEntry targetEntry = targetZip.getEntry(entry.getKey());
+				assertEquals(sourceEntry.getMethod(), targetEntry.getMethod());
+				assertEquals(sourceEntry.getCrc(), targetEntry.getCrc());
+				assertEquals(sourceEntry.getCompressedSize(),
+						targetEntry.getCompressedSize());
+				assertEquals(sourceEntry.getTime(), targetEntry.getTime());
+				assertArrayEquals(entry.getValue(),
+						read(targetZip, entry.getKey()));
+			}
+			assertArrayEquals(MANIFEST, read(targetZip, "META-INF/MANIFEST.MF"));
+		} finally {
+			sourceZip.close();
+			targetZip.close();
+		}
+	}
+
+	@Test
+	public void writesManifestFirst() throws IOException {
+		File source = folder.newFile("source.jar");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(source));
+		try {
+			put(out, "a/A.class", content("a", 10), ZipEntry.DEFLATED);
+			put(out, "META-INF/MANIFEST.MF",
+					"Manifest-Version: 1.0\r\nBundle-Name: old\r\n\r\n"
+							.getBytes(Charsets.UTF_8), ZipEntry.DEFLATED);
+		} finally {
+			out.close();
+		}
+
+		File target = rewrite(source);
+
+		JarInputStream in = new JarInputStream(new FileInputStream(target));
+		try {
+			Manifest manifest = in.getManifest();
+			assertEquals("test",
+					manifest.getMainAttributes().getValue("Bundle-Name"));
+			assertEquals("a/A.class", in.getNextJarEntry().getName());
+			assertNull(in.getNextJarEntry());
+		} finally {
+			in.close();
+		}
+	}
+
+	@Test
+	public void replacesDataDescriptors() throws IOException {
+		// ZipOutputStream writes the CRC-32 and sizes of deflated entries
+		// after their data
+		File source = folder.newFile("source.jar");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(source));
+		try {
+			put(out, "a/A.class", content("a", 1000), ZipEntry.DEFLATED);
+			put(out, "a/B.class", content("b", 2000), ZipEntry.DEFLATED);
+		} finally {
+			out.close();
+		}
+		assertTrue(hasDataDescriptor(source, 0));
+
+		File target = rewrite(source);
+
+		// the local headers of the copy carry the sizes, so a stream reader
+		// finds each entry right after the previous one
+		ZipInputStream in = new ZipInputStream(new FileInputStream(target));
+		try {
+			Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+			for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in
+					.getNextEntry()) {
+				entries.put(entry.getName(), IOUtils.toByteArray(in));
+			}
+			assertEquals(Arrays.asList("META-INF/", "META-INF/MANIFEST.MF",
+					"a/A.class", "a/B.class"),
+					new ArrayList<String>(entries.keySet()));
+			assertArrayEquals(content("a", 1000), entries.get("a/A.class"));
+			assertArrayEquals(content("b", 2000), entries.get("a/B.class"));
+		} finally {
+			in.close();
+		}
+		ZipFile targetZip = new ZipFile(target);
+		try {
+			long offset = 0;
+			for (String name : getNames(targetZip)) {
+				assertTrue(name, !hasDataDescriptor(target, offset));
+				offset = nextLocalHeader(target, offset);
+			}
+		} finally {
+			targetZip.close();
+		}
+	}
+
+	@Test
+	public void dropsSignatureFilesAndManifests() throws IOException {
+		File source = folder.newFile("source.jar");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(source));
+		try {
+			put(out, "META-INF/", new byte[0], ZipEntry.STORED);
+			put(out, "META-INF/MANIFEST.MF", content("manifest", 10),
+					ZipEntry.DEFLATED);
+			put(out, "meta-inf/manifest.mf", content("manifest", 10),
+					ZipEntry.DEFLATED);
+			put(out, "META-INF/SIGNER.SF", content("sf", 10),
+					ZipEntry.DEFLATED);
+			put(out, "META-INF/signer.rsa", content("rsa", 10),
+					ZipEntry.DEFLATED);
+			put(out, "META-INF/SIGNER.DSA", content("dsa", 10),
+					ZipEntry.DEFLATED);
+			put(out, "META-INF/SIGNER.EC", content("ec", 10),
+					ZipEntry.DEFLATED);
+			put(out, "META-INF/SIG-SIGNER", content("sig", 10),
+					ZipEntry.DEFLATED);
+			put(out, "META-INF/LICENSE", content("license", 10),
+					ZipEntry.DEFLATED);
+			put(out, "META-INF/services/a.SF", content("service", 10),
+					ZipEntry.DEFLATED);
+			put(out, "a/SIGNER.SF", content("sf", 10), ZipEntry.DEFLATED);
+		} finally {
+			out.close();
+		}
+
+		File target = rewrite(source);
+
+		ZipFile targetZip = new ZipFile(target);
+		try {
+			assertEquals(Arrays.asList("META-INF/", "META-INF/MANIFEST.MF",
+					"META-INF/LICENSE", "META-INF/services/a.SF",
+					"a/SIGNER.SF"), getNames(targetZip));
+			assertArrayEquals(MANIFEST, read(targetZip, "META-INF/MANIFEST.MF"));
+		} finally {
+			targetZip.close();
+		}
+	}
+
+	@Test
+	public void filtersEntries() throws IOException {
+		File source = folder.newFile("source.jar");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(source));
+		try {
+			put(out, "a/A.class", content("a", 10), ZipEntry.DEFLATED);
+			put(out, "a/B.class", content("b", 10), ZipEntry.STORED);
+		} finally {
+			out.close();
+		}
+
+		File target = new File(folder.getRoot(), "target.jar");
+		JarRewriter.rewrite(source, target, MANIFEST, new Predicate<String>() {
+			public boolean apply(String name) {
+				return !name.equals("a/A.class");
+			}
+		});
+
+		ZipFile targetZip = new ZipFile(target);
+		try {
+			assertEquals(Arrays.asList("META-INF/", "META-INF/MANIFEST.MF",
+					"a/B.class"), getNames(targetZip));
+		} finally {
+			targetZip.close();
+		}
+	}
+
+	@Test
+	public void rejectsZip64Source() throws IOException {
+		// ZipOutputStream writes the Zip64 end of central directory record
+		// for more than 65,534 entries
+		File source = writeEntries(0x10000);
+		try {
+			rewrite(source);
+			fail("Zip64 source accepted");
+		} catch (ZipException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("Zip64"));
+		}
+	}
+
+	@Test
+	public void rejectsZip64Target() throws IOException {
+		// the manifest and its directory exceed the entries of the source
+		File source = writeEntries(0xfffe);
+		try {
+			rewrite(source);
+			fail("Zip64 target written");
+		} catch (ZipException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("Zip64"));
+		}
+	}
+
+	@Test
+	public void rejectsNonZipFiles() throws IOException {
+		File source = folder.newFile("source.jar");
+		FileOutputStream out = new FileOutputStream(source);
+		try {
+			out.write(content("not a zip-file", 100));
+		} finally {
+			out.close();
+		}
+		try {
+			rewrite(source);
+			fail("not a zip-file accepted");
+		} catch (ZipException e) {
+			// expected
+		}
+	}
+
+	private File rewrite(File source) throws IOException {
+		File target = new File(folder.getRoot(), "target.jar");
+		JarRewriter.rewrite(source, target, MANIFEST);
+		return target;
+	}
+
+	private File writeEntries(int entries) throws IOException {
+		File source = folder.newFile("source.jar");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(source));
+		try {
+			for (int i = 0; i < entries; i++) {
+				put(out, "e" + i, new byte[0], ZipEntry.STORED);
+			}
+		} finally {
+			out.close();
+		}
+		return source;
+	}
+
+	private static byte[] content(String text, int repetitions) {
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		for (int i = 0; i < repetitions; i++) {
+			byte[] bytes = (text + i).getBytes(Charsets.UTF_8);
+			content.write(bytes, 0, bytes.length);
+		}
+		return content.toByteArray();
+	}
+
+	private static void put(ZipOutputStream out, String name, byte[] content,
+			int method) throws IOException {
+		ZipEntry entry = new ZipEntry(name);
+		entry.setMethod(method);
+		entry.setTime(1356998400000L); // 2013-01-01
+		if (method == ZipEntry.STORED) {
+			CRC32 crc = new CRC32();
+			crc.update(content);
+			entry.setCrc(crc.getValue());
+			entry.setSize(content.length);
+			entry.setCompressedSize(content.length);
+		}
+		out.putNextEntry(entry);
+		out.write(content);
+		out.closeEntry();
+	}
+
+	private static List<String> getNames(ZipFile zip) {
+		List<String> names = new ArrayList<String>();
+		for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries
+				.hasMoreElements();) {
+			names.add(entries.nextElement().getName());
+		}
+		return names;
+	}
+
+	private static byte[] read(ZipFile zip, String name) throws IOException {
+		return IOUtils.toByteArray(zip.getInputStream(zip.getEntry(name)));
+	}
+
+	/**
+	 * @return whether the local header at the offset has the data descriptor
+	 *         flag
+	 */
+	private static boolean hasDataDescriptor(File file, long offset)
+			throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			in.seek(offset);
+			assertEquals(0x04034b50, Integer.reverseBytes(in.readInt()));
+			in.seek(offset + 6);
+			return (Short.reverseBytes(in.readShort()) & 8) != 0;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @return the offset of the local header following the one at the
+	 *         offset, given that it has no data descriptor
+	 */
+	private static long nextLocalHeader(File file, long offset)
+			throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			in.seek(offset + 18);
+			long compressedSize = Integer.reverseBytes(in.readInt()) & 0xffffffffL;
+			in.seek(offset + 26);
+			int nameLength = Short.reverseBytes(in.readShort()) & 0xffff;
+			int extraLength = Short.reverseBytes(in.readShort()) & 0xffff;
+			return offset + 30 + nameLength + extraLength + compressedSize;
+		} finally {
+			in.close();
+		}
+	}
+}